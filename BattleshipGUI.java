@@ -1,14 +1,15 @@
 import java.awt.Color;
 import java.awt.Component;
+import java.awt.Rectangle;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionAdapter;
 import java.io.*;
-import java.util.ArrayList;
-import java.util.Random;
+import java.nio.file.Paths;
 import javax.swing.JLabel;
 import javax.swing.JTable;
 import javax.swing.border.LineBorder;
+import javax.swing.table.AbstractTableModel;
 import javax.swing.table.TableCellRenderer;
 
 public class BattleshipGUI extends javax.swing.JFrame {
@@ -17,30 +18,65 @@ public class BattleshipGUI extends javax.swing.JFrame {
     // Used to determine click behaviour
     enum SelectionMode {
 
-        PRE_GAME, VERTICAL_HIGHLIGHT, HORIZONTAL_HIGHLIGHT, PLAYER_MOVE, GAME_WIN, GAME_LOSE
+        PRE_GAME, VERTICAL_HIGHLIGHT, HORIZONTAL_HIGHLIGHT, PLAYER_MOVE, CPU_MOVE, GAME_WIN, GAME_LOSE, REPLAY
     };
     static SelectionMode mode;
     static MousePosition position;
 //    
     // Used for ship placement phase
-    static final int[] shipSizes = new int[]{1, 1, 2, 2, 4, 6};
-    static int placements;
+    // boards are shown in this many pixels square, scrolling once the cells
+    // would be smaller than MIN_CELL
+    static final int BOARD_VIEW = 300;
+    static final int MIN_CELL = 6;
 //    
-    // Determines game winner; first to reduce other's squares to zero
-    static int squaresRemainingPlayer;
-    static int squaresRemainingCPU;
-//    
-    // For A.I
-    static Random random = new Random();
-    static int[][] possibleMoves;
-    static int moveIndex;
+    // Boards, placement, scores and A.I; the tables only display its boards
+    // new games use this board and fleet, whatever a loaded game or replay had
+    static int boardRows;
+    static int boardColumns;
+    static int[] fleet;
+    static GameEngine game = configuredGame();
+    // every move of the game in progress, for recovery after a crash; set up
+    // by main, so null when the game is driven without the window
+    static volatile MoveJournal journal;
+    // records each game for watching later; set up by main like the journal
+    static GameRecording recorder;
+    static final String REPLAY_DIR = "replays";
+    static ReplayControls replayControls;
 //    
     // For saving/resuming games
-    static GameState state;
+    static final String SAVE_FILE = "gamestate.sav";
+    static final String JOURNAL_FILE = "game.journal";
+    static SavedGame state;
 //    
     // For recording statistics
-    static ArrayList<PlayerRecord> stats;
+    static PlayerStats stats = new StatsStore();
+    // how long to wait for saves in progress before giving up on them
+    static final long SAVE_TIMEOUT = 10000;
+    static final PersistenceWriter writer = new PersistenceWriter("save-writer",
+            new PersistenceWriter.Listener() {
+                @Override
+                public void written(String key, long nanos) {
+                    savesWritten(key, nanos);
+                }
+
+                @Override
+                public void failed(String key, IOException ex) {
+                    saveFailed(key, ex);
+                }
+            });
+    static final StatsTableModel statsModel = new StatsTableModel(stats);
     static String currentPlayerName;
+//
+    // Figures over JMX and -Dbattleship.metrics; see Metrics
+    static final Metrics.Counter gamesStarted = Metrics.shared().counter("games.started");
+    static final Metrics.Counter gamesFinished = Metrics.shared().counter("games.finished");
+    static final Metrics.Counter gamesResumed = Metrics.shared().counter("games.resumed");
+    static final Metrics.Counter ioErrors = Metrics.shared().counter("errors.io");
+//
+    // The CPU moves on a worker thread, taking up to this long (set with
+    // -Dbattleship.cpuMillis) if its strategy searches
+    static final long CPU_MILLIS = Long.getLong("battleship.cpuMillis", 1000);
+    static final ComputerTurn cpuTurn = new ComputerTurn();
 
 // CLASSES    
     public static class MousePosition {
@@ -56,32 +92,15 @@ public class BattleshipGUI extends javax.swing.JFrame {
         }
     }
 
-    // conditions of game (for use with save/resume methods)
-    public static class GameState implements Serializable {
-
-        // [player/cpu][rows][columns]
-        int[][][] boardState;
-        String playerName;
-        int[][] computerMoves;
-        int computerMoveIndex;
-        int shipsPlaced;
-
-        public GameState(int[][][] boardState, String name, int shipPlacements,
-                int[][] cMoves, int cMoveIndex) {
-
-            this.shipsPlaced = shipPlacements;
-            this.boardState = boardState;
-            this.playerName = name;
-            this.computerMoves = cMoves;
-            this.computerMoveIndex = cMoveIndex;
-        }
-    }
-    
     // score is given by difference in squares remaining, e.g.,
     // if you win with 7 squares left, then CPU wins with 5, your average score
     // is (7 -5)/2 = 1
     public static class PlayerRecord implements Serializable {
 
+        // the UID the class had before copy() was added, so record.ser files
+        // written by earlier versions still read
+        private static final long serialVersionUID = -6417244053905131076L;
+
         String name;
         int wins;
         int losses;
@@ -96,6 +115,15 @@ public class BattleshipGUI extends javax.swing.JFrame {
             this.averageScore = 0;
         }
 
+        PlayerRecord copy() {
+            PlayerRecord copy = new PlayerRecord(name);
+            copy.wins = wins;
+            copy.losses = losses;
+            copy.bestScore = bestScore;
+            copy.averageScore = averageScore;
+            return copy;
+        }
+
         void addMatch(int score) {
             if (score > 0) {
                 this.wins++;
@@ -109,15 +137,197 @@ public class BattleshipGUI extends javax.swing.JFrame {
         }
     }
 
+    // The Player Stats table. Rows are read from the stats store as the
+    // table paints them, so opening the dialog costs nothing per player.
+    // Sorting by a column walks that column's index; a name filter is a
+    // range of the name index, shown in name order.
+    public static class StatsTableModel extends AbstractTableModel {
+
+        static final String[] COLUMN_NAMES = new String[]{
+            "Name", "Wins", "Losses", "Average Score", "Best Score"
+        };
+        static final PlayerStats.Order[] COLUMN_ORDERS = new PlayerStats.Order[]{
+            PlayerStats.Order.NAME, PlayerStats.Order.WINS, PlayerStats.Order.LOSSES,
+            PlayerStats.Order.AVERAGE, PlayerStats.Order.BEST
+        };
+        PlayerStats store;
+        PlayerStats.Order order = PlayerStats.Order.JOINED;
+        String filter = "";
+        // rows of a filtered view: NAME positions [from, to)
+        int from;
+        int to;
+        // the cells of a row are asked for one after another
+        int cachedRow = -1;
+        PlayerRecord cachedRecord;
+
+        public StatsTableModel(PlayerStats store) {
+            this.store = store;
+        }
+
+        public void setStats(PlayerStats store) {
+            this.store = store;
+            refresh();
+        }
+
+        // Sorts by the column, or back to joining order if already sorted by it
+        public void sortBy(int column) {
+            order = order == COLUMN_ORDERS[column] ? PlayerStats.Order.JOINED : COLUMN_ORDERS[column];
+            refresh();
+        }
+
+        public void setFilter(String prefix) {
+            filter = prefix;
+            refresh();
+        }
+
+        // Call after the store changes
+        public void refresh() {
+            if (!filter.isEmpty()) {
+                from = store.nameRank(filter);
+                to = store.nameRank(filter + '\uffff');
+            }
+            cachedRow = -1;
+            cachedRecord = null;
+            fireTableDataChanged();
+        }
+
+        public PlayerRecord recordAt(int row) {
+            if (row != cachedRow) {
+                cachedRecord = filter.isEmpty()
+                        ? store.get(order, row) : store.get(PlayerStats.Order.NAME, from + row);
+                cachedRow = row;
+            }
+            return cachedRecord;
+        }
+
+        @Override
+        public int getRowCount() {
+            return filter.isEmpty() ? store.size() : to - from;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMN_NAMES.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMN_NAMES[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return column == 0 ? String.class : Integer.class;
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            PlayerRecord record = recordAt(row);
+            switch (column) {
+                case 0:
+                    return record.name;
+                case 1:
+                    return record.wins;
+                case 2:
+                    return record.losses;
+                case 3:
+                    return record.averageScore;
+                default:
+                    return record.bestScore;
+            }
+        }
+    }
+
+    // Passive view of a Board; cells are only refreshed when the board
+    // reports a change
+    public static class BoardTableModel extends AbstractTableModel
+            implements Board.Listener {
+
+        final Board board;
+
+        public BoardTableModel(Board board) {
+            this.board = board;
+            board.setListener(this);
+        }
+
+        @Override
+        public int getRowCount() {
+            return board.getRows();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return board.getColumns();
+        }
+
+        // A to Z, then AA, AB and so on, as in a spreadsheet
+        @Override
+        public String getColumnName(int column) {
+            StringBuilder name = new StringBuilder();
+            for (int n = column + 1; n > 0; n = (n - 1) / 26) {
+                name.insert(0, (char) ('A' + (n - 1) % 26));
+            }
+            return name.toString();
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            return board.get(row, column);
+        }
+
+        @Override
+        public void squareChanged(int row, int column) {
+            fireTableCellUpdated(row, column);
+        }
+
+        @Override
+        public void boardChanged() {
+            fireTableDataChanged();
+        }
+    }
+
     public static class HoverMouseAdapter extends MouseMotionAdapter {
 
         @Override
         public void mouseMoved(MouseEvent e) {
             JTable table = (JTable) e.getSource();
+            int row = table.rowAtPoint(e.getPoint());
+            int column = table.columnAtPoint(e.getPoint());
+            // moves within the same cell change nothing
+            if (table == position.table && row == position.highlightedRow
+                    && column == position.highlightedColumn) {
+                return;
+            }
+            // clears the old highlight, possibly on the other board
+            repaintHighlight(position.table, position.highlightedRow, position.highlightedColumn);
             position.table = table;
-            position.highlightedRow = table.rowAtPoint(e.getPoint());
-            position.highlightedColumn = table.columnAtPoint(e.getPoint());
-            table.repaint();
+            position.highlightedRow = row;
+            position.highlightedColumn = column;
+            repaintHighlight(table, row, column);
+        }
+
+        // Repaints just the cells highlighted for a hover position: the ship
+        // strip while placing, or the single target cell while firing
+        static void repaintHighlight(JTable table, int row, int column) {
+            if (table == null || row < 0 || column < 0) {
+                return;
+            }
+            Rectangle area = table.getCellRect(row, column, true);
+            if (table == playerBoard && (mode == SelectionMode.HORIZONTAL_HIGHLIGHT
+                    || mode == SelectionMode.VERTICAL_HIGHLIGHT)) {
+                int length = Math.max(game.currentShipSize(), 1);
+                int lastRow = row;
+                int lastColumn = column;
+                if (mode == SelectionMode.HORIZONTAL_HIGHLIGHT) {
+                    lastColumn = Math.min(column + length, table.getColumnCount()) - 1;
+                } else {
+                    lastRow = Math.min(row + length, table.getRowCount()) - 1;
+                }
+                area = area.union(table.getCellRect(lastRow, lastColumn, true));
+            } else if (mode != SelectionMode.PLAYER_MOVE) {
+                return;
+            }
+            table.repaint(area);
         }
     }
 
@@ -143,19 +353,49 @@ public class BattleshipGUI extends javax.swing.JFrame {
             int column = table.columnAtPoint(e.getPoint());
 
             if (mode == SelectionMode.HORIZONTAL_HIGHLIGHT) {
-                placeShip(shipSizes[placements], row, column, true);
+                placeShip(row, column, true);
             } else if ((mode == SelectionMode.VERTICAL_HIGHLIGHT)) {
-                placeShip(shipSizes[placements], row, column, false);
+                placeShip(row, column, false);
             }
         }
     }
 
-    // Renderer controls how table models are displayed
-    public class BoardRenderer extends JLabel implements
+    // Renderer controls how table models are displayed. Tables are only
+    // repainted when a square, the hover position or the mode changes.
+    public static class BoardRenderer extends JLabel implements
             TableCellRenderer {
 
+        static final LineBorder CELL_BORDER = new LineBorder(Color.BLACK);
+
         public BoardRenderer() {
             setOpaque(true);
+            setBorder(CELL_BORDER);
+        }
+
+        // Like DefaultTableCellRenderer, the renderer is only used to stamp
+        // cells, so its own repaint and layout requests are dropped
+        @Override
+        public void repaint(long tm, int x, int y, int width, int height) {
+        }
+
+        @Override
+        public void repaint(Rectangle r) {
+        }
+
+        @Override
+        public void repaint() {
+        }
+
+        @Override
+        public void revalidate() {
+        }
+
+        @Override
+        public void validate() {
+        }
+
+        @Override
+        protected void firePropertyChange(String propertyName, Object oldValue, Object newValue) {
         }
 
         @Override
@@ -163,15 +403,8 @@ public class BattleshipGUI extends javax.swing.JFrame {
                 Object value, boolean isSelected,
                 boolean hasFocus, int row, int column) {
 
-            int shipSize;
+            int shipSize = game.currentShipSize();
             this.setBackground(Color.GRAY);//.gray);
-            this.setBorder(new LineBorder(Color.BLACK));
-
-            if (placements <= 5) {
-                shipSize = shipSizes[placements];
-            } else {
-                shipSize = 0;
-            }
 
             if (mode == SelectionMode.HORIZONTAL_HIGHLIGHT && table.equals(playerBoard)) {
                 if (table.equals(position.table) && column >= position.highlightedColumn && column < position.highlightedColumn + shipSize
@@ -190,460 +423,573 @@ public class BattleshipGUI extends javax.swing.JFrame {
             }
 
             // 1 is unhit ship, 2 is hit, 3 is miss
-            if (value == 1) {
+            int state = (Integer) value;
+            if (state == Board.SHIP) {
                 if (table.equals(playerBoard)) {
                     this.setBackground(Color.DARK_GRAY);//Color.blue);
                 }
-            } else if (value == 2) {
+            } else if (state == Board.HIT) {
                 this.setBackground(Color.RED);
-            } else if (value == 3) {
+            } else if (state == Board.MISS) {
                 this.setBackground(Color.BLUE);
             }
-            table.repaint();
             return this;
         }
     }
 
+    // Step, play and seek controls for a replay shown on the boards. Moves
+    // are applied on the event thread, and the boards repaint as they change.
+    public static class ReplayControls extends javax.swing.JDialog {
+
+        static final int[] SPEEDS = {1, 2, 5, 10, 25, 100};
+
+        final GameReplay replay;
+        final javax.swing.JSlider slider;
+        final JLabel moveLabel = new JLabel();
+        final javax.swing.JButton playButton = new javax.swing.JButton("Play");
+        final javax.swing.JComboBox<String> speed = new javax.swing.JComboBox<String>();
+        final javax.swing.Timer timer;
+        // set while the slider is moved to follow the replay, not by the user
+        boolean following;
+
+        public ReplayControls(java.awt.Frame owner, GameReplay replay) {
+            super(owner, "Replay", false);
+            this.replay = replay;
+            slider = new javax.swing.JSlider(0, replay.length(), 0);
+            for (int moves : SPEEDS) {
+                speed.addItem(moves + " moves/s");
+            }
+            speed.setSelectedIndex(2);
+            timer = new javax.swing.Timer(1000 / SPEEDS[2], new java.awt.event.ActionListener() {
+                @Override
+                public void actionPerformed(java.awt.event.ActionEvent e) {
+                    if (!showMove(replay.getPosition() + 1)) {
+                        pause();
+                    }
+                }
+            });
+            slider.addChangeListener(new javax.swing.event.ChangeListener() {
+                @Override
+                public void stateChanged(javax.swing.event.ChangeEvent e) {
+                    if (!following) {
+                        showMove(slider.getValue());
+                    }
+                }
+            });
+            speed.addActionListener(new java.awt.event.ActionListener() {
+                @Override
+                public void actionPerformed(java.awt.event.ActionEvent e) {
+                    timer.setDelay(1000 / SPEEDS[speed.getSelectedIndex()]);
+                }
+            });
+            playButton.addActionListener(new java.awt.event.ActionListener() {
+                @Override
+                public void actionPerformed(java.awt.event.ActionEvent e) {
+                    if (timer.isRunning()) {
+                        pause();
+                    } else {
+                        if (replay.getPosition() >= replay.length()) {
+                            showMove(0);
+                        }
+                        playButton.setText("Pause");
+                        timer.start();
+                    }
+                }
+            });
+            javax.swing.JPanel buttons = new javax.swing.JPanel();
+            buttons.add(seekButton("|<", Integer.MIN_VALUE));
+            buttons.add(seekButton("<", -1));
+            buttons.add(playButton);
+            buttons.add(seekButton(">", 1));
+            buttons.add(seekButton(">|", Integer.MAX_VALUE));
+            buttons.add(speed);
+            buttons.add(moveLabel);
+            getContentPane().add(slider, java.awt.BorderLayout.NORTH);
+            getContentPane().add(buttons, java.awt.BorderLayout.CENTER);
+            addWindowListener(new java.awt.event.WindowAdapter() {
+                @Override
+                public void windowClosed(java.awt.event.WindowEvent e) {
+                    timer.stop();
+                    if (mode == SelectionMode.REPLAY) {
+                        setMode(SelectionMode.PRE_GAME);
+                        prompt.setText("Replay closed.");
+                    }
+                }
+            });
+            setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+            showMove(0);
+            pack();
+            setLocationRelativeTo(owner);
+        }
+
+        // a button moving by a number of moves; the extremes go to either end
+        javax.swing.JButton seekButton(String text, final int moves) {
+            javax.swing.JButton button = new javax.swing.JButton(text);
+            button.addActionListener(new java.awt.event.ActionListener() {
+                @Override
+                public void actionPerformed(java.awt.event.ActionEvent e) {
+                    pause();
+                    long target = (long) replay.getPosition() + moves;
+                    showMove((int) Math.max(0, Math.min(target, replay.length())));
+                }
+            });
+            return button;
+        }
+
+        void pause() {
+            timer.stop();
+            playButton.setText("Play");
+        }
+
+        // Shows the game after the given number of moves; false if that is
+        // past the end or the recording is damaged there
+        boolean showMove(int move) {
+            if (mode != SelectionMode.REPLAY) {
+                // a game was started meanwhile; the boards are no longer ours
+                dispose();
+                return false;
+            }
+            if (move > replay.length()) {
+                return false;
+            }
+            try {
+                replay.seek(move);
+            } catch (IOException ex) {
+                pause();
+                moveLabel.setText("Damaged at move " + move);
+                return false;
+            }
+            following = true;
+            slider.setValue(replay.getPosition());
+            following = false;
+            moveLabel.setText("Move " + replay.getPosition() + " of " + replay.length());
+            if (replay.getPosition() == replay.length()) {
+                GameEngine.Phase phase = game.getPhase();
+                prompt.setText(phase == GameEngine.Phase.GAME_WIN ? "Replay: player wins."
+                        : phase == GameEngine.Phase.GAME_LOSE ? "Replay: CPU wins." : "Replay");
+            } else {
+                prompt.setText("Replay");
+            }
+            return true;
+        }
+    }
+
 // METHODS    
+    // A game on the board and fleet given by system properties (see
+    // GameEngine.boardSizeProperty), or the classic one if they are no good.
+    // -Dbattleship.cpu picks how the CPU plays (see Strategies).
+    static GameEngine configuredGame() {
+        GameEngine engine = new GameEngine();
+        try {
+            engine.setStrategy(Strategies.forName(System.getProperty("battleship.cpu", "hunt")));
+        } catch (IllegalArgumentException ex) {
+            java.util.logging.Logger.getLogger(BattleshipGUI.class.getName())
+                    .log(java.util.logging.Level.WARNING, "Using the hunt/target CPU", ex);
+        }
+        try {
+            int[] size = GameEngine.boardSizeProperty();
+            engine.configure(size[0], size[1], GameEngine.fleetProperty());
+        } catch (IllegalArgumentException ex) {
+            java.util.logging.Logger.getLogger(BattleshipGUI.class.getName())
+                    .log(java.util.logging.Level.WARNING, "Using the classic board", ex);
+        }
+        boardRows = engine.getPlayerBoard().getRows();
+        boardColumns = engine.getPlayerBoard().getColumns();
+        fleet = engine.getShipSizes().clone();
+        return engine;
+    }
+
+    // Points the tables at the engine's boards, which are replaced when a
+    // game of another size is loaded, and sizes the cells to fit the board
+    // in BOARD_VIEW pixels where they can; bigger boards scroll
+    static void showBoards() {
+        if (playerBoard == null) {
+            return;
+        }
+        showBoard(playerBoard, game.getPlayerBoard());
+        showBoard(computerBoard, game.getComputerBoard());
+    }
+
+    static void showBoard(JTable table, Board board) {
+        if (((BoardTableModel) table.getModel()).board != board) {
+            table.setModel(new BoardTableModel(board));
+        }
+        int cell = Math.max(MIN_CELL, BOARD_VIEW / Math.max(board.getRows(), board.getColumns()));
+        table.setRowHeight(cell);
+        for (int column = 0; column < board.getColumns(); column++) {
+            javax.swing.table.TableColumn tableColumn = table.getColumnModel().getColumn(column);
+            tableColumn.setMinWidth(0);
+            tableColumn.setPreferredWidth(cell);
+        }
+        table.setPreferredSize(null);
+        table.revalidate();
+    }
+
+    // Highlighting depends on the mode, so both boards are redrawn on a change
+    static void setMode(SelectionMode newMode) {
+        mode = newMode;
+        if (playerBoard != null) {
+            playerBoard.repaint();
+            computerBoard.repaint();
+        }
+    }
+
     // Clears board, resets scores for new game
     static void startNewGame() {
-        possibleMoves = new int[][]{null, null, null, null};
-        moveIndex = -1;
+        cpuTurn.cancel();
+        if (journal != null) {
+            journal.end();
+            recorder.stop();
+        }
+        game.configure(boardRows, boardColumns, fleet);
+        showBoards();
         position = new MousePosition(null, 0, 0);
-        placements = 0;
-        mode = SelectionMode.PRE_GAME;
-        squaresRemainingPlayer = 16;
-        squaresRemainingCPU = 16;
+        setMode(SelectionMode.PRE_GAME);
     }
 
     // Changes state of board square that player clicks
     static void playerMove(int row, int column) {
 
         //makes sure that the current guess is legal, then allows the computer to guess.
-        boolean goodGuess = true;
-
-        //0 is an empty square, 1 is occupied by a ship, 2 is a hit, 3 is a miss.
-        if (computerBoard.getValueAt(row, column) == 0) {
-            computerBoard.setValueAt(3, row, column);
+        int result = game.playerFire(row, column);
+        if (result == Board.MISS) {
             prompt.setText("Miss.");
-        } else if (computerBoard.getValueAt(row, column) == 1) {
-            computerBoard.setValueAt(2, row, column);
+        } else if (result == Board.HIT) {
             prompt.setText("Hit!");
-            squaresRemainingCPU--;
-        } else if (computerBoard.getValueAt(row, column) == 2) {
-            prompt.setText("Take a shot!");
-            goodGuess = false;
-        } else if (computerBoard.getValueAt(row, column) == 3) {
+        } else {
+            // already fired at this square
             prompt.setText("Take a shot!");
-            goodGuess = false;
         }
 
-        if (squaresRemainingCPU == 0) {
-            mode = SelectionMode.GAME_WIN;
-            prompt.setText("You win! Your score: " + squaresRemainingPlayer);
+        if (game.getPhase() == GameEngine.Phase.GAME_WIN) {
+            setMode(SelectionMode.GAME_WIN);
+            prompt.setText("You win! Your score: " + game.getSquaresRemainingPlayer());
+            gamesFinished.increment();
             if (!currentPlayerName.equals("")) {
-                recordStats(currentPlayerName, squaresRemainingPlayer);
+                recordStats(currentPlayerName, game.getSquaresRemainingPlayer());
             }
+            saveRecording();
         } else {
-            if (goodGuess) {
+            if (result != -1) {
                 computerMove();
             }
         }
+        checkJournal();
     }
 
-    // Similiar to playerMove but move is decided by an algorithm
+    // The CPU works out its reply off the event dispatch thread; clicks
+    // are ignored until it has fired, but the boards still paint
     static void computerMove() {
-
-        // indices of shot to be taken
-        int row;
-        int col;
-
-        //move Index corresponds to search direction in possibleMoves
-        // - 1: Try random squre
-        // 0: Try Up
-        // 1: Try Down
-        // 2: Try Left
-        // 3: Try Right
-        // possibleMoves[moveIndex] null if direction not possible
-
-        if (moveIndex == -1) {
-
-            // picks random, valid square
-            row = random.nextInt(10);
-            col = random.nextInt(10);
-            while ((int) playerBoard.getValueAt(row, col) > 1) {
-                row = random.nextInt(10);
-                col = random.nextInt(10);
+        setMode(SelectionMode.CPU_MOVE);
+        cpuTurn.start(game, CPU_MILLIS * 1000000, new ComputerTurn.Listener() {
+            @Override
+            public void moved(int row, int column, int result) {
+                computerMoved(result);
+                checkJournal();
             }
 
-            // if miss, no change
-            if ((int) playerBoard.getValueAt(row, col) == 0) {
-                playerBoard.setValueAt(3, row, col);
-
-                // random hit  
-            } else if ((int) playerBoard.getValueAt(row, col) == 1) {
-
-                squaresRemainingPlayer--;
-                playerBoard.setValueAt(2, row, col);
-                prompt.setText("Enemy hits your ship!");
-                // searches adjacent squares for possible moves
-                // search up
-                if (row - 1 >= 0) {
-                    if ((int) playerBoard.getValueAt(row - 1, col) < 2) {
-                        possibleMoves[0] = new int[]{row - 1, col};
-                    }
-                }
-                // search down
-                if (row + 1 < 10) {
-                    if ((int) playerBoard.getValueAt(row + 1, col) < 2) {
-                        possibleMoves[1] = new int[]{row + 1, col};
-                    }
-                }
-                // search left
-                if (col - 1 >= 0) {
-                    if ((int) playerBoard.getValueAt(row, col - 1) < 2) {
-                        possibleMoves[2] = new int[]{row, col - 1};
-                    }
-                }
-                // search right
-                if (col + 1 < 10) {
-                    if ((int) playerBoard.getValueAt(row, col + 1) < 2) {
-                        possibleMoves[3] = new int[]{row, col + 1};
-                    }
-                }
+            @Override
+            public void failed(RuntimeException ex) {
+                java.util.logging.Logger.getLogger(BattleshipGUI.class.getName())
+                        .log(java.util.logging.Level.SEVERE, "CPU move failed", ex);
+                prompt.setText("The CPU could not move. Start a new game.");
             }
-            // subsequent moves try next possible direction   
-        } else {
-
-            row = possibleMoves[moveIndex][0];
-            col = possibleMoves[moveIndex][1];
+        });
+    }
 
-            // if miss, eliminates as possible direction
-            if ((int) playerBoard.getValueAt(row, col) == 0) {
-                playerBoard.setValueAt(3, row, col);
-                possibleMoves[moveIndex] = null;
+    // Starts journaling the game as it now stands, under the current name
+    static void startJournal() {
+        if (journal != null) {
+            journal.start(currentPlayerName);
+        }
+        if (recorder != null) {
+            recorder.start(currentPlayerName);
+        }
+    }
 
-                // if hit, checks next spot in that direction 
-            } else if ((int) playerBoard.getValueAt(row, col) == 1) {
+    static void checkJournal() {
+        IOException failure = journal == null ? null : journal.takeFailure();
+        if (failure != null) {
+            prompt.setText("Moves not journaled: " + failure.getMessage());
+        }
+    }
 
-                squaresRemainingPlayer--;
-                playerBoard.setValueAt(2, row, col);
-                prompt.setText("Enemy hits your ship!");
+    // Picks up a game that was still in progress when the program last
+    // stopped, from its move journal. A journal that cannot be read is
+    // dropped, along with whatever of it got into the engine.
+    static void recoverGame() {
+        long start = System.nanoTime();
+        String name;
+        try {
+            name = MoveJournal.recover(Paths.get(JOURNAL_FILE), game);
+        } catch (IOException | IllegalArgumentException ex) {
+            ioFailed("Journal could not be recovered", ex);
+            discardJournal();
+            return;
+        }
+        if (name == null) {
+            return;
+        }
+        Metrics.shared().histogram("load.journal").recordSince(start);
+        if (game.getPhase() == GameEngine.Phase.GAME_WIN
+                || game.getPhase() == GameEngine.Phase.GAME_LOSE) {
+            discardJournal();
+            return;
+        }
+        showRestored(name, "Game recovered.");
+        gamesResumed.increment();
+        startJournal();
+        resumeComputerMove();
+    }
 
-                switch (moveIndex) {
+    static void discardJournal() {
+        game.configure(boardRows, boardColumns, fleet);
+        showBoards();
+        journal.end();
+    }
 
-                    case 0:
-                        if (row - 1 < 0) {
-                            possibleMoves[0] = null;
-                        } else {
-                            if ((int) playerBoard.getValueAt(row - 1, col) < 2) {
-                                possibleMoves[0] = new int[]{row - 1, col};
-                            } else {
-                                possibleMoves[0] = null;
-                            }
-                        }
-                        break;
-
-                    case 1:
-                        if (row + 1 > 9) {
-                            possibleMoves[1] = null;
-                        } else {
-                            if ((int) playerBoard.getValueAt(row + 1, col) < 2) {
-                                possibleMoves[1] = new int[]{row + 1, col};
-                            } else {
-                                possibleMoves[1] = null;
-                            }
-                        }
-                        break;
-
-                    case 2:
-                        if (col - 1 < 0) {
-                            possibleMoves[2] = null;
-                        } else {
-                            if ((int) playerBoard.getValueAt(row, col - 1) < 2) {
-                                possibleMoves[2] = new int[]{row, col - 1};
-                            } else {
-                                possibleMoves[2] = null;
-                            }
-                        }
-                        break;
-
-                    case 3:
-                        if (col + 1 > 9) {
-                            possibleMoves[3] = null;
-                        } else {
-                            if ((int) playerBoard.getValueAt(row, col + 1) < 2) {
-                                possibleMoves[3] = new int[]{row, col + 1};
-                            } else {
-                                possibleMoves[3] = null;
-                            }
-                        }
-                        break;
+    // Shows a game just put back into the engine, in the mode its phase
+    // calls for (CPU_MOVE if the CPU still owes a reply); false if it is
+    // already over
+    static boolean showRestored(String name, String what) {
+        showBoards();
+        position = new MousePosition(null, 0, 0);
+        currentPlayerName = name;
+        playerNameLabel.setText("Player: " + name);
+        switch (game.getPhase()) {
+            case PLACEMENT:
+                hVToggle.setVisible(true);
+                setMode(SelectionMode.HORIZONTAL_HIGHLIGHT);
+                prompt.setText(what + " Place your ships.");
+                return true;
+            case PLAYER_MOVE:
+                hVToggle.setVisible(false);
+                if (game.isComputerToMove()) {
+                    // the caller starts the CPU's reply with resumeComputerMove
+                    setMode(SelectionMode.CPU_MOVE);
+                    prompt.setText(what);
+                } else {
+                    setMode(SelectionMode.PLAYER_MOVE);
+                    prompt.setText(what + " Fire!");
                 }
-            }
-        }
-        // sets moveIndex for next move, back to -1 if all directions exhausted
-        boolean allNull = true;
-        for (int i = 3; i >= 0; i--) {
-            if (possibleMoves[i] != null) {
-                allNull = false;
-                moveIndex = i;
-            }
+                return true;
+            case GAME_WIN:
+                hVToggle.setVisible(false);
+                setMode(SelectionMode.GAME_WIN);
+                prompt.setText(what + " You had already won.");
+                return false;
+            default:
+                hVToggle.setVisible(false);
+                setMode(SelectionMode.GAME_LOSE);
+                prompt.setText(what + " The CPU had already won.");
+                return false;
         }
-        if (allNull == true) {
-            moveIndex = -1;
+    }
+
+    // Similiar to playerMove but move is decided by an algorithm; once the
+    // CPU has fired
+    static void computerMoved(int result) {
+
+        if (result == Board.HIT) {
+            prompt.setText("Enemy hits your ship!");
         }
         //If the player runs out of ships they lose.
-        if (squaresRemainingPlayer == 0 && mode != SelectionMode.GAME_LOSE) {
-            mode = SelectionMode.GAME_LOSE;
-            prompt.setText("You lose! Your Score: " + -squaresRemainingCPU);
+        if (game.getPhase() == GameEngine.Phase.GAME_LOSE && mode != SelectionMode.GAME_LOSE) {
+            setMode(SelectionMode.GAME_LOSE);
+            prompt.setText("You lose! Your Score: " + -game.getSquaresRemainingCPU());
+            gamesFinished.increment();
             if (!currentPlayerName.equals("")) {
-                recordStats(currentPlayerName, squaresRemainingCPU * -1);
+                recordStats(currentPlayerName, game.getSquaresRemainingCPU() * -1);
             }
+            saveRecording();
+        } else if (mode == SelectionMode.CPU_MOVE) {
+            setMode(SelectionMode.PLAYER_MOVE);
         }
     }
 
-    static void placeShip(int length, int row, int column, boolean isHorizontal) {
-// this method first checks that the location is not out of bounds and that
-// a ship has not already been placed there.
-// This and computerPlaceShip are synched;
-//computer places one for every player placement
-        boolean canPlace = true;
-
-        // Horizontal orientation
-        if (isHorizontal) {
-            try {
-                for (int i = column; i < column + length; i++) {
-                    if (playerBoard.getValueAt(row, i) == 1) {
-                        canPlace = false;
-                    }
-                }
-            } catch (ArrayIndexOutOfBoundsException e) {
-                canPlace = false;
-            }
-
-            if (canPlace) {
-                computerPlaceShip(length);
-                for (int i = column; i < column + length; i++) {
-                    playerBoard.setValueAt(1, row, i);
-                }
-                prompt.setText("Ship Placed.");
-
-            } else {
-                prompt.setText("Can't place here.");
-            }
+    // Writes the finished game to the replay folder, in the background
+    static void saveRecording() {
+        if (recorder != null && recorder.isFinished()) {
+            String name = new java.text.SimpleDateFormat("yyyyMMdd-HHmmss-SSS")
+                    .format(new java.util.Date()) + ".replay";
+            writer.submit("replay " + name, recorder.writeTask(Paths.get(REPLAY_DIR, name)));
+        }
+    }
 
-            //Vertical orientation
-        } else {
-            try {
-                for (int i = row; i < row + length; i++) {
-                    if (playerBoard.getValueAt(i, column) == 1) {
-                        canPlace = false;
-                    }
-                }
-            } catch (ArrayIndexOutOfBoundsException e) {
-                canPlace = false;
-            }
-            if (canPlace) {
-                computerPlaceShip(length);
-                for (int i = row; i < row + length; i++) {
-                    playerBoard.setValueAt(1, i, column);
-                }
-                prompt.setText("Ship Placed");
-            } else {
-                prompt.setText("Can't place here.");
-            }
+    // Shows a recorded game on the boards, with a window to step through it
+    static void startReplay(java.awt.Frame owner, GameRecording recording) {
+        if (replayControls != null) {
+            replayControls.dispose();
         }
-        //When all the ships are placed, start move phase.
-        if (placements > 5) {
-            hVToggle.setVisible(false);
-            prompt.setText("Fire!");
-            mode = SelectionMode.PLAYER_MOVE;
+        startNewGame();
+        GameReplay replay;
+        try {
+            replay = new GameReplay(recording, game);
+        } catch (IOException | IllegalArgumentException ex) {
+            game.newGame();
+            prompt.setText("Replay could not be shown.");
+            return;
         }
+        showBoards();
+        hVToggle.setVisible(false);
+        setMode(SelectionMode.REPLAY);
+        playerNameLabel.setText("Replay: " + recording.getPlayerName());
+        prompt.setText("Replay");
+        replayControls = new ReplayControls(owner, replay);
+        replayControls.setVisible(true);
     }
 
-    static void computerPlaceShip(int length) {
-        // this method first checks that the location is not out of bounds and that
-        // a ship has not already been placed there. Same as for player, except with random placement.
-
-
-        int r = random.nextInt(10);
-        int c = random.nextInt(10);
-        int isHorizontalInt = random.nextInt(2);
-        boolean isHorizontal;
-
-        if (isHorizontalInt == 1) {
-            isHorizontal = true;
+    static void placeShip(int row, int column, boolean isHorizontal) {
+// the engine checks that the location is not out of bounds and that
+// a ship has not already been placed there, and places the computer's
+// matching ship; computer places one for every player placement
+        if (game.placeShip(row, column, isHorizontal)) {
+            prompt.setText(isHorizontal ? "Ship Placed." : "Ship Placed");
+            // the hover strip now shows the next ship's length
+            HoverMouseAdapter.repaintHighlight(position.table,
+                    position.highlightedRow, position.highlightedColumn);
         } else {
-            isHorizontal = false;
+            prompt.setText("Can't place here.");
         }
-
-        boolean canPlace = true;
-
-        if (isHorizontal) {
-            try {
-                for (int i = c; i < c + length; i++) {
-                    if (computerBoard.getValueAt(r, i) == 1) {
-                        canPlace = false;
-                    }
-                }
-            } catch (ArrayIndexOutOfBoundsException e) {
-                canPlace = false;
-            }
-            if (canPlace) {
-                for (int i = c; i < c + length; i++) {
-                    computerBoard.setValueAt(1, r, i);
-                }
-                prompt.setText("Ship Placed");
-                placements++;
-            } else {
-                computerPlaceShip(length);
-            }
-
-        } else {
-            try {
-                for (int i = r; i < r + length; i++) {
-                    if (computerBoard.getValueAt(i, c) == 1) {
-                        canPlace = false;
-                    }
-                }
-            } catch (ArrayIndexOutOfBoundsException e) {
-                canPlace = false;
-            }
-            if (canPlace) {
-                for (int i = r; i < r + length; i++) {
-                    computerBoard.setValueAt(1, i, c);
-                }
-                placements++;
-            } else {
-                computerPlaceShip(length);
-            }
+        //When all the ships are placed, start move phase.
+        if (game.getPhase() == GameEngine.Phase.PLAYER_MOVE) {
+            hVToggle.setVisible(false);
+            prompt.setText("Fire!");
+            setMode(SelectionMode.PLAYER_MOVE);
         }
+        checkJournal();
     }
 
     static void recordStats(String name, int spread) {
-
-        // doesnt record if anonymous
-        boolean exists = false;
-
-        for (PlayerRecord r : stats) {
-            if (r.name.equals(name)) {
-                exists = true;
-                r.addMatch(spread);
-            }
+        long start = System.nanoTime();
+        try {
+            stats.recordMatch(name, spread);
+        } catch (IOException ex) {
+            ioFailed("Stats not recorded for " + name, ex);
         }
+        Metrics.shared().histogram("stats.record").recordSince(start);
+    }
 
-        if (!exists) {
-            PlayerRecord r = new PlayerRecord(name);
-            r.addMatch(spread);
-            stats.add(r);
-        }
-        saveStats();
+    // Failures nothing else reports are logged and counted (errors.io)
+    static void ioFailed(String what, Exception ex) {
+        ioErrors.increment();
+        java.util.logging.Logger.getLogger(BattleshipGUI.class.getName())
+                .log(java.util.logging.Level.WARNING, what, ex);
     }
 
+    // Saves are encoded here and written by the persistence writer, which
+    // reports back when they are on disk or have failed
     static void saveGameState() {
-        // values of both boards
-        int[][][] currentBoardState =
-                new int[2][10][10];
-
-        for (int r = 0; r < 10; r++) {
+        long start = System.nanoTime();
+        state = new SavedGame(game, currentPlayerName);
+        Metrics.shared().histogram("save.game").recordSince(start);
+        writer.submit("game", state.writeTask(Paths.get(SAVE_FILE)));
+    }
 
-            for (int c = 0; c < 10; c++) {
-                currentBoardState[0][r][c] = (int) playerBoard.getValueAt(r, c);
-                currentBoardState[1][r][c] = (int) computerBoard.getValueAt(r, c);
-            }
+    static void savesWritten(String key, long nanos) {
+        if (key.equals("game")) {
+            showSaveStatus("Game saved (" + nanos / 1000000 + " ms).");
         }
+    }
 
-        state = new GameState(currentBoardState, currentPlayerName,
-                placements, possibleMoves, moveIndex);
-
-        String fileName = "gamestate.ser";
-        //  if (file.exists()){
-        try {
-
-            ObjectOutputStream out = new ObjectOutputStream(
-                    new FileOutputStream(fileName));
-            out.writeObject(state);
+    static void saveFailed(String key, IOException ex) {
+        String what = key.equals("game") ? "Game" : key.equals("stats") ? "Stats" : "Replay";
+        showSaveStatus(what + " not saved: " + ex.getMessage());
+    }
 
-        } catch (IOException ex) {
-        }
+    static void showSaveStatus(final String text) {
+        java.awt.EventQueue.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                if (prompt != null) {
+                    prompt.setText(text);
+                }
+            }
+        });
     }
 
     static void resumeGameState() {
+        // the CPU's move is dropped while the game is loaded, and worked
+        // out again if the game it was for is still on
+        cpuTurn.cancel();
 
-        String fileName = "gamestate.ser";
-
-        File file = new File(fileName);
+        File file = new File(SAVE_FILE);
         if (file.exists()) {
             try {
-
-                ObjectInputStream in = new ObjectInputStream(
-                        new FileInputStream(fileName));
-                state = (GameState) in.readObject();
-
-                position = new MousePosition(null, 0, 0);
-                currentPlayerName = state.playerName;
-                possibleMoves = state.computerMoves;
-                moveIndex = state.computerMoveIndex;
-                mode = SelectionMode.PLAYER_MOVE;
-                squaresRemainingPlayer = 0;
-                squaresRemainingCPU = 0;
-                placements = state.shipsPlaced;
-                hVToggle.setVisible(false);
-                prompt.setText("Fire!");
-                playerNameLabel.setText("Player: "+state.playerName);
-                
-                int[][] pBoard = state.boardState[0];
-                int[][] cBoard = state.boardState[1];
-
-                for (int r = 0; r < 10; r++) {
-                    for (int c = 0; c < 10; c++) {
-                        playerBoard.setValueAt(pBoard[r][c], r, c);
-                        computerBoard.setValueAt(cBoard[r][c], r, c);
-                        if (pBoard[r][c] == 1) {
-                            squaresRemainingPlayer++;
-                        }
-                        if (cBoard[r][c] == 1) {
-                            squaresRemainingCPU++;
-                        }
-                    }
+                long start = System.nanoTime();
+                state = readGameState(SAVE_FILE);
+                state.restore(game);
+                Metrics.shared().histogram("load.game").recordSince(start);
+                gamesResumed.increment();
+                if (showRestored(state.getPlayerName(), "Game loaded.")) {
+                    startJournal();
+                    resumeComputerMove();
+                } else if (journal != null) {
+                    journal.end();
                 }
-            } catch (ClassNotFoundException | IOException ex) {
+            } catch (IOException | IllegalArgumentException ex) {
+                ioErrors.increment();
+                prompt.setText("Saved game could not be loaded.");
+                resumeComputerMove();
             }
         } else {
             prompt.setText("No saved game found.");
+            resumeComputerMove();
         }
     }
 
-    static void saveStats() {
+    static void resumeComputerMove() {
+        if (mode == SelectionMode.CPU_MOVE) {
+            computerMove();
+        }
+    }
 
-        String fileName = "record.ser";
-        try {
-            ObjectOutputStream out = new ObjectOutputStream(
-                    new FileOutputStream(fileName));
-            out.writeObject(stats);
+    static SavedGame readGameState(String fileName) throws IOException {
+        return SavedGame.read(Paths.get(fileName));
+    }
 
+    // Changes are saved as they happen; this makes them all durable at once,
+    // in the background
+    static void saveStats() {
+        try {
+            writer.submit("stats", stats.flushTask());
         } catch (IOException ex) {
+            saveFailed("stats", ex);
         }
     }
 
-    static void loadStats() {
-
-        String fileName = "record.ser";
-
-        File file = new File(fileName);
-        if (file.exists()) {
-            try {
-                ObjectInputStream in = new ObjectInputStream(
-                        new FileInputStream(fileName));
-                stats = (ArrayList<PlayerRecord>) in.readObject();
+    // Waits for saves still being written, for up to the given time
+    static boolean awaitSaves(long timeoutMillis) {
+        try {
+            return writer.drain(timeoutMillis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
 
-            } catch (ClassNotFoundException | IOException ex) {
+    // -Dbattleship.stats=mapped keeps stats in a memory-mapped file instead
+    // of in memory with a log
+    static void loadStats() {
+        awaitSaves(SAVE_TIMEOUT);
+        try {
+            stats.close();
+        } catch (IOException ex) {
+            ioFailed("Stats not closed", ex);
+        }
+        long start = System.nanoTime();
+        try {
+            if ("mapped".equals(System.getProperty("battleship.stats"))) {
+                stats = MappedStats.open(Paths.get("."));
+            } else {
+                stats = StatsStore.open(Paths.get("."));
             }
-        } else {
-            stats = new ArrayList();
-            saveStats();
+        } catch (IOException ex) {
+            ioFailed("Stats could not be loaded; starting empty", ex);
+            stats = new StatsStore();
         }
+        Metrics.shared().histogram("load.stats").recordSince(start);
+        statsModel.setStats(stats);
     }
 
     /**
@@ -669,6 +1015,7 @@ public class BattleshipGUI extends javax.swing.JFrame {
         gameStatsDialog = new javax.swing.JDialog();
         jScrollPane4 = new javax.swing.JScrollPane();
         statsTable = new javax.swing.JTable();
+        statsFilterField = new javax.swing.JTextField();
         clearPlayerStatsButton = new javax.swing.JButton();
         clearAllStatsButton = new javax.swing.JButton();
         jButton1 = new javax.swing.JButton();
@@ -690,6 +1037,8 @@ public class BattleshipGUI extends javax.swing.JFrame {
                 return false;
             }
         } ;
+        playerBoardScroll = new javax.swing.JScrollPane();
+        computerBoardScroll = new javax.swing.JScrollPane();
         jLabel4 = new javax.swing.JLabel();
         jMenuBar1 = new javax.swing.JMenuBar();
         jMenu1 = new javax.swing.JMenu();
@@ -697,6 +1046,7 @@ public class BattleshipGUI extends javax.swing.JFrame {
         playerStatsMenuItem = new javax.swing.JMenuItem();
         saveGameMenuItem = new javax.swing.JMenuItem();
         loadGameMenuItem = new javax.swing.JMenuItem();
+        watchReplayMenuItem = new javax.swing.JMenuItem();
 
         newGameDialog.setMinimumSize(new java.awt.Dimension(300, 200));
         newGameDialog.setModal(true);
@@ -738,16 +1088,29 @@ public class BattleshipGUI extends javax.swing.JFrame {
         gameStatsDialog.setMinimumSize(new java.awt.Dimension(500, 300));
         gameStatsDialog.setModal(true);
 
-        statsTable.setModel(new javax.swing.table.DefaultTableModel(
-            new Object [stats.size()][5]
-
-            ,
-            new String [] {
-                "Name", "Wins", "Losses", "Average Score","Best Score"
+        statsTable.setModel(statsModel);
+        statsTable.getTableHeader().addMouseListener(new java.awt.event.MouseAdapter() {
+            public void mouseClicked(java.awt.event.MouseEvent evt) {
+                statsTableHeaderMouseClicked(evt);
             }
-        ));
+        });
         jScrollPane4.setViewportView(statsTable);
 
+        statsFilterField.setToolTipText("Show names starting with...");
+        statsFilterField.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+            public void insertUpdate(javax.swing.event.DocumentEvent evt) {
+                statsModel.setFilter(statsFilterField.getText());
+            }
+
+            public void removeUpdate(javax.swing.event.DocumentEvent evt) {
+                statsModel.setFilter(statsFilterField.getText());
+            }
+
+            public void changedUpdate(javax.swing.event.DocumentEvent evt) {
+                statsModel.setFilter(statsFilterField.getText());
+            }
+        });
+
         clearPlayerStatsButton.setText("Clear Name");
         clearPlayerStatsButton.addActionListener(new java.awt.event.ActionListener() {
             public void actionPerformed(java.awt.event.ActionEvent evt) {
@@ -778,6 +1141,7 @@ public class BattleshipGUI extends javax.swing.JFrame {
                 .addComponent(jScrollPane4, javax.swing.GroupLayout.DEFAULT_SIZE, 334, Short.MAX_VALUE)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                 .addGroup(gameStatsDialogLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING, false)
+                    .addComponent(statsFilterField)
                     .addComponent(clearPlayerStatsButton, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
                     .addComponent(clearAllStatsButton, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
                     .addComponent(jButton1, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
@@ -786,7 +1150,9 @@ public class BattleshipGUI extends javax.swing.JFrame {
         gameStatsDialogLayout.setVerticalGroup(
             gameStatsDialogLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
             .addGroup(gameStatsDialogLayout.createSequentialGroup()
-                .addGap(83, 83, 83)
+                .addContainerGap()
+                .addComponent(statsFilterField, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
+                .addGap(45, 45, 45)
                 .addComponent(jButton1)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                 .addComponent(clearPlayerStatsButton)
@@ -819,22 +1185,7 @@ public class BattleshipGUI extends javax.swing.JFrame {
         jLabel2.setFont(new java.awt.Font("Calibri", 0, 18)); // NOI18N
         jLabel2.setText("Computer");
 
-        playerBoard.setModel(new javax.swing.table.DefaultTableModel(
-            new Object[][]{
-                {0, 0, 0, 0, 0, 0, 0, 0, 0, 0},
-                {0, 0, 0, 0, 0, 0, 0, 0, 0, 0},
-                {0, 0, 0, 0, 0, 0, 0, 0, 0, 0},
-                {0, 0, 0, 0, 0, 0, 0, 0, 0, 0},
-                {0, 0, 0, 0, 0, 0, 0, 0, 0, 0},
-                {0, 0, 0, 0, 0, 0, 0, 0, 0, 0},
-                {0, 0, 0, 0, 0, 0, 0, 0, 0, 0},
-                {0, 0, 0, 0, 0, 0, 0, 0, 0, 0},
-                {0, 0, 0, 0, 0, 0, 0, 0, 0, 0},
-                {0, 0, 0, 0, 0, 0, 0, 0, 0, 0}
-            }, new String[]{
-                "A", "B", "C", "D", "E", "F", "G", "H", "I", "J"
-            }
-        ));
+        playerBoard.setModel(new BoardTableModel(game.getPlayerBoard()));
         playerBoard.setName("player");
         playerBoard.setFillsViewportHeight(true);
         playerBoard.setMaximumSize(new java.awt.Dimension(300, 300));
@@ -847,21 +1198,7 @@ public class BattleshipGUI extends javax.swing.JFrame {
         playerBoard.setRowHeight(30);
         playerBoard.setSize(300, 300);
 
-        computerBoard.setModel(new javax.swing.table.DefaultTableModel( new Object [][] {
-            {0, 0, 0, 0,0,0,0,0,0,0},
-            {0, 0, 0, 0,0,0,0,0,0,0},
-            {0, 0, 0, 0,0,0,0,0,0,0},
-            {0, 0, 0, 0,0,0,0,0,0,0},
-            {0, 0, 0, 0,0,0,0,0,0,0},
-            {0, 0, 0, 0,0,0,0,0,0,0},
-            {0, 0, 0, 0,0,0,0,0,0,0},
-            {0, 0, 0, 0,0,0,0,0,0,0},
-            {0, 0, 0, 0,0,0,0,0,0,0},
-            {0, 0, 0, 0,0,0,0,0,0,0}
-        },
-        new String [] {
-            "A","B","C","D","E","F","G","H","I","J"
-        }));
+        computerBoard.setModel(new BoardTableModel(game.getComputerBoard()));
         computerBoard.setFillsViewportHeight(true);
         computerBoard.setMaximumSize(new java.awt.Dimension(300, 300));
         computerBoard.setMinimumSize(new java.awt.Dimension(300, 300));
@@ -872,6 +1209,19 @@ public class BattleshipGUI extends javax.swing.JFrame {
         computerBoard.setDefaultRenderer(Object.class, new BoardRenderer());
         computerBoard.setRowHeight(30);
 
+        playerBoardScroll.setBorder(null);
+        playerBoardScroll.setViewportView(playerBoard);
+
+        computerBoardScroll.setBorder(null);
+        computerBoardScroll.setViewportView(computerBoard);
+
+        // no header row, as before the boards could scroll
+        playerBoard.setTableHeader(null);
+        playerBoard.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
+        computerBoard.setTableHeader(null);
+        computerBoard.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
+        showBoards();
+
         jLabel4.setFont(new java.awt.Font("Calibri", 0, 14)); // NOI18N
         jLabel4.setText("Versus");
 
@@ -909,6 +1259,14 @@ public class BattleshipGUI extends javax.swing.JFrame {
         });
         jMenu1.add(loadGameMenuItem);
 
+        watchReplayMenuItem.setText("Watch Replay");
+        watchReplayMenuItem.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                watchReplayMenuItemActionPerformed(evt);
+            }
+        });
+        jMenu1.add(watchReplayMenuItem);
+
         jMenuBar1.add(jMenu1);
 
         setJMenuBar(jMenuBar1);
@@ -929,7 +1287,7 @@ public class BattleshipGUI extends javax.swing.JFrame {
                         .addContainerGap()
                         .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
                             .addGroup(layout.createSequentialGroup()
-                                .addComponent(playerBoard, javax.swing.GroupLayout.PREFERRED_SIZE, 300, javax.swing.GroupLayout.PREFERRED_SIZE)
+                                .addComponent(playerBoardScroll, javax.swing.GroupLayout.PREFERRED_SIZE, 300, javax.swing.GroupLayout.PREFERRED_SIZE)
                                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED, 44, Short.MAX_VALUE))
                             .addGroup(layout.createSequentialGroup()
                                 .addComponent(playerNameLabel)
@@ -937,7 +1295,7 @@ public class BattleshipGUI extends javax.swing.JFrame {
                                 .addComponent(jLabel4)
                                 .addGap(6, 6, 6)))
                         .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
-                            .addComponent(computerBoard, javax.swing.GroupLayout.Alignment.TRAILING, javax.swing.GroupLayout.PREFERRED_SIZE, 300, javax.swing.GroupLayout.PREFERRED_SIZE)
+                            .addComponent(computerBoardScroll, javax.swing.GroupLayout.Alignment.TRAILING, javax.swing.GroupLayout.PREFERRED_SIZE, 300, javax.swing.GroupLayout.PREFERRED_SIZE)
                             .addComponent(jLabel2, javax.swing.GroupLayout.Alignment.TRAILING))))
                 .addContainerGap())
         );
@@ -951,8 +1309,8 @@ public class BattleshipGUI extends javax.swing.JFrame {
                     .addComponent(jLabel4))
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
                 .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
-                    .addComponent(playerBoard, javax.swing.GroupLayout.PREFERRED_SIZE, 300, javax.swing.GroupLayout.PREFERRED_SIZE)
-                    .addComponent(computerBoard, javax.swing.GroupLayout.PREFERRED_SIZE, 300, javax.swing.GroupLayout.PREFERRED_SIZE))
+                    .addComponent(playerBoardScroll, javax.swing.GroupLayout.PREFERRED_SIZE, 300, javax.swing.GroupLayout.PREFERRED_SIZE)
+                    .addComponent(computerBoardScroll, javax.swing.GroupLayout.PREFERRED_SIZE, 300, javax.swing.GroupLayout.PREFERRED_SIZE))
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED, 50, Short.MAX_VALUE)
                 .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
                     .addComponent(prompt, javax.swing.GroupLayout.PREFERRED_SIZE, 43, javax.swing.GroupLayout.PREFERRED_SIZE)
@@ -966,27 +1324,23 @@ public class BattleshipGUI extends javax.swing.JFrame {
     // Listener methods for GUI components
     private void hVToggleActionPerformed(java.awt.event.ActionEvent evt) {                                         
         if (mode == SelectionMode.HORIZONTAL_HIGHLIGHT) {
-            mode = SelectionMode.VERTICAL_HIGHLIGHT;
+            setMode(SelectionMode.VERTICAL_HIGHLIGHT);
         } else if (mode == SelectionMode.VERTICAL_HIGHLIGHT) {
-            mode = SelectionMode.HORIZONTAL_HIGHLIGHT;
+            setMode(SelectionMode.HORIZONTAL_HIGHLIGHT);
         }
     }                                        
 
   private void startGameButtonActionPerformed(java.awt.event.ActionEvent evt) {                                                
       currentPlayerName = nameField.getText();
-      mode = SelectionMode.HORIZONTAL_HIGHLIGHT;
+      setMode(SelectionMode.HORIZONTAL_HIGHLIGHT);
       playerNameLabel.setText("Player: " + currentPlayerName);
       newGameDialog.setVisible(false);
       prompt.setText("Place your ships.");
+      gamesStarted.increment();
+      startJournal();
   }                                               
 
   private void newGameMenuItemActionPerformed(java.awt.event.ActionEvent evt) {                                                
-      for (int r = 0; r < playerBoard.getRowCount(); r++) {
-          for (int c = 0; c < playerBoard.getColumnCount(); c++) {
-              playerBoard.setValueAt(0, r, c);
-              computerBoard.setValueAt(0, r, c);
-          }
-      }
       hVToggle.setVisible(true);
       startNewGame();
       newGameDialog.setSize(300, 200);
@@ -994,19 +1348,7 @@ public class BattleshipGUI extends javax.swing.JFrame {
   }                                               
 
   private void playerStatsMenuItemActionPerformed(java.awt.event.ActionEvent evt) {                                                    
-      statsTable.setModel(new javax.swing.table.DefaultTableModel(
-              new Object[stats.size()][5],
-              new String[]{
-                  "Name", "Wins", "Losses", "Average", "Best"
-              }));
-      for (int i = 0; i < stats.size(); i++) {
-
-          statsTable.setValueAt(stats.get(i).name, i, 0);
-          statsTable.setValueAt(stats.get(i).wins, i, 1);
-          statsTable.setValueAt(stats.get(i).losses, i, 2);
-          statsTable.setValueAt(stats.get(i).averageScore, i, 3);
-          statsTable.setValueAt(stats.get(i).bestScore, i, 4);
-      }
+      statsModel.refresh();
       gameStatsDialog.setVisible(true);
 
   }                                                   
@@ -1019,45 +1361,59 @@ public class BattleshipGUI extends javax.swing.JFrame {
 
     private void loadGameMenuItemActionPerformed(java.awt.event.ActionEvent evt) {                                                 
         resumeGameState();
+    }
+
+    private void watchReplayMenuItemActionPerformed(java.awt.event.ActionEvent evt) {
+        javax.swing.JFileChooser chooser = new javax.swing.JFileChooser(REPLAY_DIR);
+        chooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("Replays", "replay"));
+        if (chooser.showOpenDialog(this) != javax.swing.JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        try {
+            startReplay(this, GameRecording.read(chooser.getSelectedFile().toPath()));
+        } catch (IOException ex) {
+            prompt.setText("Replay could not be loaded.");
+        }
     }                                                
 
     private void clearAllStatsButtonActionPerformed(java.awt.event.ActionEvent evt) {                                                    
-        stats = new ArrayList(0);
-        statsTable.setModel(new javax.swing.table.DefaultTableModel(
-                new Object[stats.size()][5],
-                new String[]{
-                    "Name", "Wins", "Losses", "Average", "Best"
-                }));
-
-        saveStats();
+        try {
+            stats.clear();
+        } catch (IOException ex) {
+            ioFailed("Stats not cleared", ex);
+        }
+        statsModel.refresh();
     }                                                   
 
     private void clearPlayerStatsButtonActionPerformed(java.awt.event.ActionEvent evt) {                                                       
 
         if (statsTable.getSelectedRow() >= 0) {
-            stats.remove(statsTable.getSelectedRow());
-        }
-        statsTable.setModel(new javax.swing.table.DefaultTableModel(
-                new Object[stats.size()][5],
-                new String[]{
-                    "Name", "Wins", "Losses", "Average", "Best"
-                }));
-        for (int i = 0; i < stats.size(); i++) {
-
-            statsTable.setValueAt(stats.get(i).name, i, 0);
-            statsTable.setValueAt(stats.get(i).wins, i, 1);
-            statsTable.setValueAt(stats.get(i).losses, i, 2);
-            statsTable.setValueAt(stats.get(i).averageScore, i, 3);
-            statsTable.setValueAt(stats.get(i).bestScore, i, 4);
-        }
-        saveStats();
+            PlayerRecord removed = statsModel.recordAt(statsTable.getSelectedRow());
+            try {
+                stats.remove(removed.name);
+            } catch (IOException ex) {
+                ioFailed("Stats not removed for " + removed.name, ex);
+            }
+        }
+        statsModel.refresh();
     }                                                      
 
     private void jButton1ActionPerformed(java.awt.event.ActionEvent evt) {                                         
          if (statsTable.getSelectedRow() >= 0) {
-            stats.get(statsTable.getSelectedRow()).bestScore = 0;
-            statsTable.setValueAt(0, statsTable.getSelectedRow(), 4);
-            saveStats();
+            String name = statsModel.recordAt(statsTable.getSelectedRow()).name;
+            try {
+                stats.clearBest(name);
+            } catch (IOException ex) {
+                ioFailed("Best score not cleared for " + name, ex);
+            }
+            statsModel.refresh();
+        }
+    }
+
+    private void statsTableHeaderMouseClicked(java.awt.event.MouseEvent evt) {
+        int column = statsTable.columnAtPoint(evt.getPoint());
+        if (column >= 0) {
+            statsModel.sortBy(statsTable.convertColumnIndexToModel(column));
         }
     }                                        
 
@@ -1083,16 +1439,44 @@ public class BattleshipGUI extends javax.swing.JFrame {
         }
         //</editor-fold>
 
+        Metrics.shared().register();
+        Metrics.shared().watchEventQueue();
         /* Create and display the form */
+        // everything that touches the tables runs here, on the event
+        // dispatch thread, once they have been built
         java.awt.EventQueue.invokeLater(new Runnable() {
             @Override
             public void run() {
                 new BattleshipGUI().setVisible(true);
+                //initializes fields and loads stats
+                startNewGame();
+                loadStats();
+                // after startNewGame, which would end the journal left to recover
+                journal = new MoveJournal(Paths.get(JOURNAL_FILE), game);
+                recorder = new GameRecording(game);
+                recoverGame();
             }
         });
-        //initializes fields and loads stats
-        startNewGame();
-        loadStats();
+        // the window exits the VM on close; let saves in progress finish
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                saveStats();
+                awaitSaves(SAVE_TIMEOUT);
+                // null if the window closed before it was set up
+                if (journal != null) {
+                    try {
+                        journal.drain(SAVE_TIMEOUT);
+                    } catch (InterruptedException ex) {
+                    }
+                }
+                try {
+                    stats.close();
+                } catch (IOException ex) {
+                    ioFailed("Stats not closed", ex);
+                }
+            }
+        }, "save-on-exit"));
     }
     // Variables declaration - do not modify                     
     private javax.swing.JButton clearAllStatsButton;
@@ -1112,11 +1496,15 @@ public class BattleshipGUI extends javax.swing.JFrame {
     private static javax.swing.JDialog newGameDialog;
     private javax.swing.JMenuItem newGameMenuItem;
     private static javax.swing.JTable playerBoard;
+    private javax.swing.JScrollPane playerBoardScroll;
+    private javax.swing.JScrollPane computerBoardScroll;
     private static javax.swing.JLabel playerNameLabel;
     private javax.swing.JMenuItem playerStatsMenuItem;
     private static javax.swing.JLabel prompt;
     private javax.swing.JMenuItem saveGameMenuItem;
+    private javax.swing.JMenuItem watchReplayMenuItem;
     private javax.swing.JButton startGameButton;
     private javax.swing.JTable statsTable;
+    private javax.swing.JTextField statsFilterField;
     // End of variables declaration                   
 }
@@ -0,0 +1,266 @@
+import java.util.Arrays;
+
+// One side's grid. Ship and shot positions are kept as bitmasks packed into
+// longs (one bit per square, row-major) so the game logic never touches a
+// table model. The state of a square is derived from the two masks:
+// hit = ship & shot, miss = shot & ~ship.
+public class Board {
+
+    // square states; same values the tables have always shown
+    public static final int EMPTY = 0;
+    public static final int SHIP = 1;
+    public static final int HIT = 2;
+    public static final int MISS = 3;
+
+    // Notified when squares change, e.g. so a table model can repaint them.
+    // Boards used for simulation have no listener and pay nothing for it.
+    public interface Listener {
+
+        void squareChanged(int row, int column);
+
+        void boardChanged();
+    }
+
+    final int rows;
+    final int columns;
+    final long[] ships;
+    final long[] shots;
+    int shipSquares;
+    int hits;
+    // ships in placement order: start square and length * 2 + (1 if horizontal)
+    int[] shipStart = new int[8];
+    int[] shipShape = new int[8];
+    int shipCount;
+    // placement tables for this board's size, by ship length
+    PlacementTable[] placementTables = new PlacementTable[8];
+    Listener listener;
+
+    public Board(int rows, int columns) {
+        this.rows = rows;
+        this.columns = columns;
+        int words = (rows * columns + 63) >>> 6;
+        this.ships = new long[words];
+        this.shots = new long[words];
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    boolean inBounds(int row, int column) {
+        return row >= 0 && row < rows && column >= 0 && column < columns;
+    }
+
+    static boolean isSet(long[] mask, int index) {
+        return (mask[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public int get(int row, int column) {
+        int index = row * columns + column;
+        long bit = 1L << index;
+        int word = index >>> 6;
+        boolean ship = (ships[word] & bit) != 0;
+        if ((shots[word] & bit) == 0) {
+            return ship ? SHIP : EMPTY;
+        }
+        return ship ? HIT : MISS;
+    }
+
+    public boolean isShot(int row, int column) {
+        return isSet(shots, row * columns + column);
+    }
+
+    // Returns HIT or MISS, or -1 if the square was already fired at
+    public int fire(int row, int column) {
+        int index = row * columns + column;
+        long bit = 1L << index;
+        int word = index >>> 6;
+        if ((shots[word] & bit) != 0) {
+            return -1;
+        }
+        shots[word] |= bit;
+        int result = MISS;
+        if ((ships[word] & bit) != 0) {
+            hits++;
+            result = HIT;
+        }
+        if (listener != null) {
+            listener.squareChanged(row, column);
+        }
+        return result;
+    }
+
+    public PlacementTable placementTable(int length) {
+        if (length >= placementTables.length) {
+            placementTables = Arrays.copyOf(placementTables, length + 1);
+        }
+        PlacementTable table = placementTables[length];
+        if (table == null) {
+            table = PlacementTable.of(rows, columns, length);
+            placementTables[length] = table;
+        }
+        return table;
+    }
+
+    // true if the ship fits on the board without overlapping another
+    public boolean canPlace(int row, int column, int length, boolean isHorizontal) {
+        PlacementTable table = placementTable(length);
+        int placement = table.indexOf(row, column, isHorizontal);
+        return placement != -1 && table.fits(this, placement);
+    }
+
+    public void place(int row, int column, int length, boolean isHorizontal) {
+        int index = row * columns + column;
+        int step = isHorizontal ? 1 : columns;
+        for (int i = 0; i < length; i++, index += step) {
+            ships[index >>> 6] |= 1L << index;
+        }
+        shipSquares += length;
+        addShip(row * columns + column, length * 2 + (isHorizontal ? 1 : 0));
+        if (listener != null) {
+            for (int i = 0; i < length; i++) {
+                if (isHorizontal) {
+                    listener.squareChanged(row, column + i);
+                } else {
+                    listener.squareChanged(row + i, column);
+                }
+            }
+        }
+    }
+
+    // Adds to the ship list only; the squares must already be set
+    void addShip(int start, int shape) {
+        if (shipCount == shipStart.length) {
+            shipStart = Arrays.copyOf(shipStart, shipCount * 2);
+            shipShape = Arrays.copyOf(shipShape, shipCount * 2);
+        }
+        shipStart[shipCount] = start;
+        shipShape[shipCount] = shape;
+        shipCount++;
+    }
+
+    // Index of the ship covering a square, or -1. Squares restored with set()
+    // are not part of any ship.
+    public int shipAt(int row, int column) {
+        int index = row * columns + column;
+        for (int ship = 0; ship < shipCount; ship++) {
+            int start = shipStart[ship];
+            int length = shipShape[ship] >> 1;
+            if ((shipShape[ship] & 1) == 1) {
+                if (index >= start && index < start + length
+                        && index / columns == start / columns) {
+                    return ship;
+                }
+            } else if (index >= start && (index - start) % columns == 0
+                    && (index - start) / columns < length) {
+                return ship;
+            }
+        }
+        return -1;
+    }
+
+    public int getShipStart(int ship) {
+        return shipStart[ship];
+    }
+
+    public int getShipLength(int ship) {
+        return shipShape[ship] >> 1;
+    }
+
+    public boolean isShipHorizontal(int ship) {
+        return (shipShape[ship] & 1) == 1;
+    }
+
+    // true once every square of the ship has been hit
+    public boolean isSunk(int ship) {
+        int index = shipStart[ship];
+        int step = isShipHorizontal(ship) ? 1 : columns;
+        for (int i = 0; i < getShipLength(ship); i++, index += step) {
+            if (!isSet(shots, index)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Overwrites a single square; used when restoring a saved game
+    public void set(int row, int column, int state) {
+        int index = row * columns + column;
+        long bit = 1L << index;
+        int word = index >>> 6;
+        int old = get(row, column);
+        if (old == SHIP || old == HIT) {
+            shipSquares--;
+        }
+        if (old == HIT) {
+            hits--;
+        }
+        ships[word] &= ~bit;
+        shots[word] &= ~bit;
+        if (state == SHIP || state == HIT) {
+            ships[word] |= bit;
+            shipSquares++;
+        }
+        if (state == HIT || state == MISS) {
+            shots[word] |= bit;
+        }
+        if (state == HIT) {
+            hits++;
+        }
+        if (listener != null) {
+            listener.squareChanged(row, column);
+        }
+    }
+
+    // Makes this board a copy of another of the same size, ship list
+    // included; used when restoring a saved game
+    public void copyFrom(Board other) {
+        if (other.rows != rows || other.columns != columns) {
+            throw new IllegalArgumentException("Board is " + other.rows + "x"
+                    + other.columns + ", expected " + rows + "x" + columns);
+        }
+        System.arraycopy(other.ships, 0, ships, 0, ships.length);
+        System.arraycopy(other.shots, 0, shots, 0, shots.length);
+        shipSquares = other.shipSquares;
+        hits = other.hits;
+        shipStart = Arrays.copyOf(other.shipStart, other.shipStart.length);
+        shipShape = Arrays.copyOf(other.shipShape, other.shipShape.length);
+        shipCount = other.shipCount;
+        if (listener != null) {
+            listener.boardChanged();
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(ships, 0L);
+        Arrays.fill(shots, 0L);
+        shipSquares = 0;
+        hits = 0;
+        shipCount = 0;
+        if (listener != null) {
+            listener.boardChanged();
+        }
+    }
+
+    // ship squares not yet hit
+    public int squaresRemaining() {
+        return shipSquares - hits;
+    }
+
+    // squares fired at so far
+    public int shotsFired() {
+        int count = 0;
+        for (long word : shots) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+}
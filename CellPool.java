@@ -0,0 +1,167 @@
+import java.util.Arrays;
+import java.util.Random;
+
+// The squares of a board not yet fired at, held so that removing one or
+// drawing one at random stays cheap however big or full the board is.
+// Squares are split by colour on a checkerboard, (row + column) & 1, so
+// draws can favour one colour for parity hunting.
+//
+// The squares left are a bitmask, one bit per square, row-major like
+// Board's. For each colour a Fenwick tree over the mask's words counts the
+// squares left in each word, so the k-th remaining square of a colour is
+// found in O(log words) and removing one costs the same. All of it comes to
+// about two bits per square, which matters on very large boards.
+public class CellPool {
+
+    static final long EVEN_BITS = 0x5555555555555555L;
+
+    final int rows;
+    final int columns;
+    final int squares;
+    final int words;
+    // bit set for each square still in the pool
+    final long[] free;
+    // per colour, a Fenwick tree (1-based) of the squares left in each word
+    final int[][] tree = new int[2][];
+    final int[] size = new int[2];
+    // highest power of two not above words, where tree searches start
+    final int topStep;
+
+    public CellPool(int rows, int columns) {
+        this.rows = rows;
+        this.columns = columns;
+        squares = rows * columns;
+        words = (squares + 63) >>> 6;
+        free = new long[words];
+        tree[0] = new int[words + 1];
+        tree[1] = new int[words + 1];
+        topStep = words == 0 ? 0 : Integer.highestOneBit(words);
+        fill();
+    }
+
+    static int colourOf(int row, int column) {
+        return (row + column) & 1;
+    }
+
+    // Puts every square back
+    public final void fill() {
+        setAll();
+        rebuild();
+    }
+
+    // Puts back every square but those set in taken (a mask laid out like
+    // Board's)
+    public void fillExcept(long[] taken) {
+        setAll();
+        for (int w = 0; w < words; w++) {
+            free[w] &= ~taken[w];
+        }
+        rebuild();
+    }
+
+    void setAll() {
+        Arrays.fill(free, -1L);
+        if ((squares & 63) != 0) {
+            free[words - 1] = (1L << squares) - 1;
+        }
+    }
+
+    // Recounts the trees from the mask, in O(words)
+    void rebuild() {
+        size[0] = 0;
+        size[1] = 0;
+        for (int colour = 0; colour < 2; colour++) {
+            int[] counts = tree[colour];
+            for (int w = 0; w < words; w++) {
+                int count = Long.bitCount(free[w] & colourMask(w, colour));
+                counts[w + 1] = count;
+                size[colour] += count;
+            }
+            // each node takes its count plus those it covers below it
+            for (int i = 1; i <= words; i++) {
+                int parent = i + (i & -i);
+                if (parent <= words) {
+                    counts[parent] += counts[i];
+                }
+            }
+        }
+    }
+
+    // The bits of word w whose squares have the given colour
+    long colourMask(int w, int colour) {
+        long mask = 0;
+        int square = w << 6;
+        int end = Math.min(square + 64, squares);
+        while (square < end) {
+            // squares along one row alternate colours
+            int column = square % columns;
+            int rowEnd = Math.min(square - column + columns, end);
+            int first = square & 63;
+            int last = ((rowEnd - 1) & 63) + 1;
+            long range = (last == 64 ? -1L : (1L << last) - 1) & (-1L << first);
+            int startColour = colourOf(square / columns, column);
+            int parity = (first + (startColour == colour ? 0 : 1)) & 1;
+            mask |= (parity == 0 ? EVEN_BITS : EVEN_BITS << 1) & range;
+            square = rowEnd;
+        }
+        return mask;
+    }
+
+    public int size() {
+        return size[0] + size[1];
+    }
+
+    public boolean contains(int square) {
+        return (free[square >>> 6] & (1L << square)) != 0;
+    }
+
+    public void remove(int square) {
+        int w = square >>> 6;
+        long bit = 1L << square;
+        if ((free[w] & bit) == 0) {
+            return;
+        }
+        free[w] &= ~bit;
+        int colour = colourOf(square / columns, square % columns);
+        size[colour]--;
+        int[] counts = tree[colour];
+        for (int i = w + 1; i <= words; i += i & -i) {
+            counts[i]--;
+        }
+    }
+
+    // The remaining square of the colour with k squares of it before it
+    int select(int colour, int k) {
+        int[] counts = tree[colour];
+        int w = 0;
+        for (int step = topStep; step > 0; step >>= 1) {
+            if (w + step <= words && counts[w + step] <= k) {
+                w += step;
+                k -= counts[w];
+            }
+        }
+        long bits = free[w] & colourMask(w, colour);
+        for (int i = 0; i < k; i++) {
+            bits &= bits - 1;
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    // Any remaining square, all equally likely
+    public int sample(Random random) {
+        int i = random.nextInt(size());
+        return i < size[0] ? select(0, i) : select(1, i - size[0]);
+    }
+
+    // A remaining square, each square of colour 0 weighted evenWeight and
+    // each of colour 1 oddWeight; e.g. (3, 1) favours colour 0 threefold
+    public int sample(Random random, int evenWeight, int oddWeight) {
+        long even = (long) evenWeight * size[0];
+        long total = even + (long) oddWeight * size[1];
+        if (total == 0) {
+            return sample(random);
+        }
+        int colour = random.nextDouble() * total < even ? 0 : 1;
+        return select(colour, random.nextInt(size[colour]));
+    }
+}
@@ -0,0 +1,190 @@
+import java.util.Random;
+
+// The CPU's ship placement and targeting algorithm: random shots until
+// something is hit, then walks up/down/left/right from the hit. Each instance
+// keeps its own search state and random source, so one can be created per game.
+// The baseline Strategy.
+public class ComputerPlayer implements Strategy {
+
+    final Random random;
+    //move Index corresponds to search direction in possibleMoves
+    // - 1: Try random squre
+    // 0: Try Up
+    // 1: Try Down
+    // 2: Try Left
+    // 3: Try Right
+    // possibleMoves[moveIndex] null if direction not possible
+    int[][] possibleMoves;
+    int moveIndex;
+    // free placements, reused between ships; large boards count them instead
+    int[] placementScratch = new int[0];
+    static final int SCRATCH_LIMIT = 1 << 16;
+    // squares of huntBoard not fired at yet; built on the first shot at it
+    CellPool untried;
+    Board huntBoard;
+    // how much likelier a random shot lands on a square with (row + column)
+    // even than on an odd one; 1 hunts every square evenly
+    int parityWeight = 1;
+    // hunting shots to take first, if any (see OpeningBook), and the first
+    // of them that may not have been fired at yet
+    OpeningBook book;
+    int bookAt;
+
+    public ComputerPlayer(Random random) {
+        this.random = random;
+        reset();
+    }
+
+    public void reset() {
+        possibleMoves = new int[][]{null, null, null, null};
+        moveIndex = -1;
+        huntBoard = null;
+    }
+
+    public void setParityWeight(int parityWeight) {
+        this.parityWeight = parityWeight;
+    }
+
+    // null for none; a book made for another board size is not used
+    public void setOpeningBook(OpeningBook book) {
+        this.book = book;
+    }
+
+    // Search state, for saving and restoring a game in progress
+    public int[][] getPossibleMoves() {
+        return possibleMoves;
+    }
+
+    public int getMoveIndex() {
+        return moveIndex;
+    }
+
+    public void restore(int[][] possibleMoves, int moveIndex) {
+        this.possibleMoves = possibleMoves;
+        this.moveIndex = moveIndex;
+        huntBoard = null;
+    }
+
+    // Places a ship at a random spot on the CPU's own board, chosen evenly
+    // among the spots that are free
+    @Override
+    public void placeShip(Board own, int length) {
+        PlacementTable table = own.placementTable(length);
+        if (placementScratch.length < table.size() && table.size() <= SCRATCH_LIMIT) {
+            placementScratch = new int[table.size()];
+        }
+        int placement = table.sample(own, random, placementScratch);
+        if (placement == -1) {
+            throw new IllegalStateException("No room left for a ship of length " + length);
+        }
+        table.place(own, placement);
+    }
+
+    // Picks the next square to fire at, as {row, column}. Does not fire.
+    @Override
+    public int[] nextShot(Board target) {
+        if (moveIndex != -1) {
+            return possibleMoves[moveIndex];
+        }
+        CellPool pool = untried(target);
+        if (book != null && book.fits(target)) {
+            while (bookAt < book.size() && target.isShot(book.shot(bookAt) / target.getColumns(),
+                    book.shot(bookAt) % target.getColumns())) {
+                bookAt++;
+            }
+            if (bookAt < book.size()) {
+                int square = book.shot(bookAt);
+                return new int[]{square / target.getColumns(), square % target.getColumns()};
+            }
+        }
+        // picks random, valid square
+        int square = parityWeight == 1
+                ? pool.sample(random) : pool.sample(random, parityWeight, 1);
+        return new int[]{square / target.getColumns(), square % target.getColumns()};
+    }
+
+    // The pool of unfired squares for target, rebuilt from the board if the
+    // last shots were at a different one (a new or resumed game)
+    CellPool untried(Board target) {
+        if (target != huntBoard) {
+            if (untried == null || untried.rows != target.getRows()
+                    || untried.columns != target.getColumns()) {
+                untried = new CellPool(target.getRows(), target.getColumns());
+            }
+            untried.fillExcept(target.shots);
+            huntBoard = target;
+            bookAt = 0;
+        }
+        return untried;
+    }
+
+    // Updates the search after a shot from nextShot has been fired
+    @Override
+    public void shotFired(Board target, int row, int col, int result) {
+        untried(target).remove(row * target.getColumns() + col);
+        if (moveIndex == -1) {
+            // if miss, no change; random hit searches around it
+            if (result == Board.HIT) {
+                // searches adjacent squares for possible moves
+                // search up
+                if (row - 1 >= 0 && target.get(row - 1, col) < 2) {
+                    possibleMoves[0] = new int[]{row - 1, col};
+                }
+                // search down
+                if (row + 1 < target.getRows() && target.get(row + 1, col) < 2) {
+                    possibleMoves[1] = new int[]{row + 1, col};
+                }
+                // search left
+                if (col - 1 >= 0 && target.get(row, col - 1) < 2) {
+                    possibleMoves[2] = new int[]{row, col - 1};
+                }
+                // search right
+                if (col + 1 < target.getColumns() && target.get(row, col + 1) < 2) {
+                    possibleMoves[3] = new int[]{row, col + 1};
+                }
+            }
+            // subsequent moves try next possible direction
+        } else {
+            // if miss, eliminates as possible direction
+            if (result == Board.MISS) {
+                possibleMoves[moveIndex] = null;
+
+                // if hit, checks next spot in that direction
+            } else if (result == Board.HIT) {
+                switch (moveIndex) {
+
+                    case 0:
+                        possibleMoves[0] = adjacent(target, row - 1, col);
+                        break;
+
+                    case 1:
+                        possibleMoves[1] = adjacent(target, row + 1, col);
+                        break;
+
+                    case 2:
+                        possibleMoves[2] = adjacent(target, row, col - 1);
+                        break;
+
+                    case 3:
+                        possibleMoves[3] = adjacent(target, row, col + 1);
+                        break;
+                }
+            }
+        }
+        // sets moveIndex for next move, back to -1 if all directions exhausted
+        moveIndex = -1;
+        for (int i = 3; i >= 0; i--) {
+            if (possibleMoves[i] != null) {
+                moveIndex = i;
+            }
+        }
+    }
+
+    // next square in a direction, or null if it is off the board or shot
+    static int[] adjacent(Board target, int row, int col) {
+        if (!target.inBounds(row, col) || target.get(row, col) >= 2) {
+            return null;
+        }
+        return new int[]{row, col};
+    }
+}
@@ -0,0 +1,145 @@
+import java.awt.EventQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Works out the CPU's moves on a worker thread, so the window keeps
+// painting however long the CPU thinks, and fires each one back on the
+// event dispatch thread. The engine is used by one thread at a time: the
+// worker only reads it while a move is worked out, the caller keeps input
+// away from it meanwhile, and cancel() waits for the worker to let go
+// before anything else touches the engine again. Everything but the
+// worker's share runs on the event dispatch thread.
+public class ComputerTurn {
+
+    static final Logger LOG = Logger.getLogger(ComputerTurn.class.getName());
+    // how long cancel() waits for a move that ignores being interrupted
+    // before it logs that it is still waiting
+    static final long CANCEL_WAIT_MILLIS = 2000;
+
+    // Told on the event dispatch thread how the CPU's move went
+    public interface Listener {
+
+        // the shot has been fired; result is Board.HIT or Board.MISS
+        void moved(int row, int column, int result);
+
+        void failed(RuntimeException ex);
+    }
+
+    final ExecutorService worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "cpu-move");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    final Metrics.Histogram turns = Metrics.shared().histogram("cpu.turn");
+    final Metrics.Counter cancels = Metrics.shared().counter("cpu.cancelled");
+    // the move being worked out, or null; answers from older turns than
+    // the current one are dropped
+    Future<?> running;
+    int turn;
+
+    public boolean isRunning() {
+        return running != null;
+    }
+
+    // Starts working out the CPU's move, to be done by the deadline where
+    // the strategy can (see Strategy.nextShot), and fires it once it is
+    public void start(final GameEngine game, long budgetNanos, final Listener listener) {
+        if (running != null) {
+            throw new IllegalStateException("The CPU is already moving");
+        }
+        final int current = ++turn;
+        final long start = System.nanoTime();
+        final long deadline = start + budgetNanos;
+        running = worker.submit(new Runnable() {
+            @Override
+            public void run() {
+                int[] shot = null;
+                RuntimeException failure = null;
+                try {
+                    shot = game.computerChoose(deadline);
+                } catch (RuntimeException ex) {
+                    failure = ex;
+                }
+                final int[] chosen = shot;
+                final RuntimeException failed = failure;
+                EventQueue.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (current != turn) {
+                            return;
+                        }
+                        running = null;
+                        if (failed != null) {
+                            listener.failed(failed);
+                            return;
+                        }
+                        int result;
+                        try {
+                            result = game.computerShot(chosen[0], chosen[1]);
+                        } catch (IllegalArgumentException ex) {
+                            listener.failed(ex);
+                            return;
+                        }
+                        turns.recordSince(start);
+                        listener.moved(chosen[0], chosen[1], result);
+                    }
+                });
+            }
+        });
+    }
+
+    // Drops the move being worked out, if any: the worker is interrupted,
+    // which a searching strategy takes as its deadline, and waited for, so
+    // the engine is free again when this returns. A strategy that does not
+    // stop for the interrupt is waited for all the same, however long it
+    // takes: the caller is about to change the boards and the strategy it
+    // is still using.
+    public void cancel() {
+        Future<?> task = running;
+        running = null;
+        turn++;
+        if (task == null) {
+            return;
+        }
+        cancels.increment();
+        task.cancel(true);
+        // the worker runs one task at a time, so this one ends the wait
+        // as soon as the cancelled move has let go
+        Future<?> letGo = worker.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        boolean interrupted = false;
+        boolean warned = false;
+        while (true) {
+            try {
+                letGo.get(CANCEL_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                break;
+            } catch (TimeoutException ex) {
+                if (!warned) {
+                    LOG.log(Level.WARNING, "CPU move still running after {0} ms; waiting for it",
+                            CANCEL_WAIT_MILLIS);
+                    warned = true;
+                }
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            } catch (ExecutionException ex) {
+                break;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,340 @@
+import java.util.Random;
+
+// Probability-density targeting. For every square it keeps the number of
+// ways the ships still afloat could lie across it without touching a square
+// already fired at, and fires at the highest count. Each shot only removes
+// the placements through that square, so the counts are updated in place
+// rather than recomputed. While a ship has been hit but not sunk it instead
+// fires where the most placements through those hits agree.
+public class DensityPlayer extends ComputerPlayer {
+
+    final int[] shipSizes;
+    // board the counts below describe; null until the first shot
+    Board tracked;
+    int rows;
+    int columns;
+    // ships still afloat, indexed by length
+    int[] afloat;
+    // placements of afloat ships covering each square; -1 once fired at
+    int[] density;
+    // random tie-break so equally good squares are picked at random
+    int[] priority;
+    // tournament tree over the squares; tree[1] is the best square to fire at.
+    // Squares are ranked by key: density in the high half, priority in the
+    // low half, Long.MIN_VALUE once fired at (and for padding leaves).
+    int[] tree;
+    long[] key;
+    int leaves;
+    // squares whose density changed since the tree was last brought up to date
+    long[] dirtyMask;
+    int[] dirty;
+    int dirtyCount;
+    // hits on ships that have not been sunk yet
+    long[] openMask;
+    int[] openHits;
+    int openHitCount;
+    // scratch for target mode
+    int[] score;
+    int[] touched;
+
+    public DensityPlayer(Random random, int[] shipSizes) {
+        super(random);
+        this.shipSizes = shipSizes;
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        tracked = null;
+    }
+
+    @Override
+    public int[] nextShot(Board target) {
+        if (target != tracked) {
+            rebuild(target);
+        }
+        int square = -1;
+        if (openHitCount > 0) {
+            square = targetShot();
+        }
+        if (square == -1) {
+            flush();
+            square = tree[1];
+        }
+        return new int[]{square / columns, square % columns};
+    }
+
+    @Override
+    public void shotFired(Board target, int row, int col, int result) {
+        int square = row * columns + col;
+        if (target != tracked) {
+            // counts were never built for this board; build them from what
+            // it shows now, which already includes this shot
+            rebuild(target);
+        } else {
+            removePlacementsThrough(square);
+            density[square] = -1;
+            markDirty(square);
+            if (result == Board.HIT) {
+                openMask[square >>> 6] |= 1L << square;
+                openHits[openHitCount++] = square;
+            }
+        }
+        if (result == Board.HIT) {
+            int ship = target.shipAt(row, col);
+            if (ship >= 0 && target.isSunk(ship)) {
+                sink(target, ship);
+            }
+        }
+    }
+
+    // Counts every placement from scratch; all hits are taken as unsunk
+    void rebuild(Board target) {
+        tracked = target;
+        rows = target.getRows();
+        columns = target.getColumns();
+        int squares = rows * columns;
+        int longest = 0;
+        for (int length : shipSizes) {
+            longest = Math.max(longest, length);
+        }
+        afloat = new int[longest + 1];
+        for (int length : shipSizes) {
+            afloat[length]++;
+        }
+        density = new int[squares];
+        priority = new int[squares];
+        openMask = new long[(squares + 63) >>> 6];
+        openHits = new int[squares];
+        openHitCount = 0;
+        score = new int[squares];
+        touched = new int[squares];
+        dirtyMask = new long[(squares + 63) >>> 6];
+        dirty = new int[squares];
+        dirtyCount = 0;
+        for (int square = 0; square < squares; square++) {
+            priority[square] = random.nextInt();
+            if (target.isShot(square / columns, square % columns)) {
+                density[square] = -1;
+                if (target.get(square / columns, square % columns) == Board.HIT) {
+                    openMask[square >>> 6] |= 1L << square;
+                    openHits[openHitCount++] = square;
+                }
+            }
+        }
+        for (int length = 1; length <= longest; length++) {
+            if (afloat[length] > 0) {
+                addAllPlacements(length, afloat[length]);
+            }
+        }
+        leaves = 1;
+        while (leaves < squares) {
+            leaves <<= 1;
+        }
+        tree = new int[2 * leaves];
+        key = new long[squares + 1];
+        key[squares] = Long.MIN_VALUE;
+        buildTree();
+    }
+
+    // Adds weight to every square of every placement of the given length
+    // that avoids all fired-at squares
+    void addAllPlacements(int length, int weight) {
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++) {
+                int start = r * columns + c;
+                if (c + length <= columns && isFree(start, length, 1, -1)) {
+                    addPlacement(start, length, 1, weight);
+                }
+                if (r + length <= rows && isFree(start, length, columns, -1)) {
+                    addPlacement(start, length, columns, weight);
+                }
+            }
+        }
+    }
+
+    // true if no square of the placement has been fired at, apart from `except`
+    boolean isFree(int start, int length, int step, int except) {
+        for (int i = 0, square = start; i < length; i++, square += step) {
+            if (square != except && density[square] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void addPlacement(int start, int length, int step, int weight) {
+        for (int i = 0, square = start; i < length; i++, square += step) {
+            if (density[square] >= 0) {
+                density[square] += weight;
+            }
+        }
+    }
+
+    // A shot at `square` rules out every placement that covered it
+    void removePlacementsThrough(int square) {
+        int row = square / columns;
+        int col = square % columns;
+        for (int length = 1; length < afloat.length; length++) {
+            int weight = afloat[length];
+            if (weight == 0) {
+                continue;
+            }
+            for (int k = 0; k < length; k++) {
+                if (col - k >= 0 && col - k + length <= columns) {
+                    int start = square - k;
+                    if (isFree(start, length, 1, square)) {
+                        removePlacement(start, length, 1, weight);
+                    }
+                }
+                if (row - k >= 0 && row - k + length <= rows) {
+                    int start = square - k * columns;
+                    if (isFree(start, length, columns, square)) {
+                        removePlacement(start, length, columns, weight);
+                    }
+                }
+            }
+        }
+    }
+
+    void removePlacement(int start, int length, int step, int weight) {
+        for (int i = 0, square = start; i < length; i++, square += step) {
+            if (density[square] >= 0) {
+                density[square] -= weight;
+                markDirty(square);
+            }
+        }
+    }
+
+    // A sunk ship no longer contributes placements, and its hits are resolved
+    void sink(Board target, int ship) {
+        int length = target.getShipLength(ship);
+        if (length < afloat.length && afloat[length] > 0) {
+            afloat[length]--;
+            addAllPlacements(length, -1);
+            for (int i = 0; i < dirtyCount; i++) {
+                dirtyMask[dirty[i] >>> 6] = 0;
+            }
+            dirtyCount = 0;
+            buildTree();
+        }
+        int step = target.isShipHorizontal(ship) ? 1 : columns;
+        int square = target.getShipStart(ship);
+        for (int i = 0; i < length; i++, square += step) {
+            if ((openMask[square >>> 6] & (1L << square)) != 0) {
+                openMask[square >>> 6] &= ~(1L << square);
+                for (int h = 0; h < openHitCount; h++) {
+                    if (openHits[h] == square) {
+                        openHits[h] = openHits[--openHitCount];
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    // Best unfired square among placements of afloat ships through open hits,
+    // or -1 if no such placement exists
+    int targetShot() {
+        int count = 0;
+        for (int h = 0; h < openHitCount; h++) {
+            int hit = openHits[h];
+            int row = hit / columns;
+            int col = hit % columns;
+            for (int length = 2; length < afloat.length; length++) {
+                int weight = afloat[length];
+                if (weight == 0) {
+                    continue;
+                }
+                for (int k = 0; k < length; k++) {
+                    if (col - k >= 0 && col - k + length <= columns) {
+                        count = scorePlacement(hit - k, length, 1, weight, count);
+                    }
+                    if (row - k >= 0 && row - k + length <= rows) {
+                        count = scorePlacement(hit - k * columns, length, columns, weight, count);
+                    }
+                }
+            }
+        }
+        int best = -1;
+        for (int i = 0; i < count; i++) {
+            int square = touched[i];
+            if (best == -1 || score[square] > score[best]
+                    || (score[square] == score[best] && isBetter(square, best))) {
+                best = square;
+            }
+            score[square] = 0;
+        }
+        return best;
+    }
+
+    // Scores the unfired squares of a placement if every fired-at square in it
+    // is an open hit; returns the new number of touched squares
+    int scorePlacement(int start, int length, int step, int weight, int count) {
+        for (int i = 0, square = start; i < length; i++, square += step) {
+            if (density[square] < 0 && (openMask[square >>> 6] & (1L << square)) == 0) {
+                return count;
+            }
+        }
+        for (int i = 0, square = start; i < length; i++, square += step) {
+            if (density[square] >= 0) {
+                if (score[square] == 0) {
+                    touched[count++] = square;
+                }
+                score[square] += weight;
+            }
+        }
+        return count;
+    }
+
+    boolean isBetter(int a, int b) {
+        return b == -1 || keyOf(a) > keyOf(b);
+    }
+
+    long keyOf(int square) {
+        if (density[square] < 0) {
+            return Long.MIN_VALUE;
+        }
+        return ((long) density[square] << 32) | (priority[square] & 0xFFFFFFFFL);
+    }
+
+    void buildTree() {
+        int squares = density.length;
+        for (int i = 0; i < leaves; i++) {
+            if (i < squares) {
+                key[i] = keyOf(i);
+                tree[leaves + i] = i;
+            } else {
+                tree[leaves + i] = squares;
+            }
+        }
+        for (int node = leaves - 1; node >= 1; node--) {
+            tree[node] = winner(tree[2 * node], tree[2 * node + 1]);
+        }
+    }
+
+    void markDirty(int square) {
+        long bit = 1L << square;
+        if ((dirtyMask[square >>> 6] & bit) == 0) {
+            dirtyMask[square >>> 6] |= bit;
+            dirty[dirtyCount++] = square;
+        }
+    }
+
+    // Re-ranks each changed square once, however many times it changed
+    void flush() {
+        for (int i = 0; i < dirtyCount; i++) {
+            int square = dirty[i];
+            dirtyMask[square >>> 6] &= ~(1L << square);
+            key[square] = keyOf(square);
+            for (int node = (leaves + square) >> 1; node >= 1; node >>= 1) {
+                tree[node] = winner(tree[2 * node], tree[2 * node + 1]);
+            }
+        }
+        dirtyCount = 0;
+    }
+
+    int winner(int a, int b) {
+        return key[b] > key[a] ? b : a;
+    }
+}
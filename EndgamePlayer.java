@@ -0,0 +1,104 @@
+import java.util.Random;
+
+// DensityPlayer until the endgame, then exact play: once the ships still
+// afloat could only be on a few squares (see EndgameSolver), every shot
+// goes where the most configurations of them put a ship. A search that
+// runs past its budget falls back to DensityPlayer's pick, and is not
+// tried again this game until the squares left have narrowed.
+//
+// The budget is a count of search steps, so a seeded Simulation plays the
+// same however busy the machine is; only a caller with a deadline (the
+// desktop game) has the search watch the clock instead.
+//
+// What a search finds depends on nothing but the evidence, so it is kept in
+// a ShotCache (the shared one unless given another; null for none) by the
+// position's key, and a position seen before is not searched again. Only
+// answers are kept: a search that gave up says no more than that this
+// player's budget was too small.
+public class EndgamePlayer extends DensityPlayer {
+
+    // search steps the solver may take for one shot, some 20 ms' worth
+    static final long BUDGET_NODES = 1L << 20;
+
+    final long budgetNodes;
+    final ShotCache cache;
+    // squares the solver last ran out of budget on, this game
+    int gaveUpAt = Integer.MAX_VALUE;
+    // key of the position on the board below; null until the first shot
+    Board keyed;
+    PositionKey key;
+
+    public EndgamePlayer(Random random, int[] shipSizes) {
+        this(random, shipSizes, BUDGET_NODES, ShotCache.shared());
+    }
+
+    public EndgamePlayer(Random random, int[] shipSizes, long budgetNodes, ShotCache cache) {
+        super(random, shipSizes);
+        this.budgetNodes = budgetNodes;
+        this.cache = cache;
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        gaveUpAt = Integer.MAX_VALUE;
+        keyed = null;
+    }
+
+    @Override
+    public int[] nextShot(Board target) {
+        return shoot(target, Long.MAX_VALUE, budgetNodes);
+    }
+
+    // Searches until the deadline rather than for the usual budget
+    @Override
+    public int[] nextShot(Board target, long deadline) {
+        return shoot(target, Math.max(0, deadline - System.nanoTime()), Long.MAX_VALUE);
+    }
+
+    int[] shoot(Board target, long budgetNanos, long maxNodes) {
+        int columns = target.getColumns();
+        if (target != keyed) {
+            keyed = target;
+            key = PositionKey.of(target, shipSizes);
+        }
+        if (cache != null) {
+            ShotCache.Entry known = cache.get(key.hash());
+            if (known != null) {
+                int square = known.pick(random);
+                if (square == -1) {
+                    return super.nextShot(target);
+                }
+                // a square already fired at can only come from two positions
+                // sharing a key; search this one instead
+                if (!target.isShot(square / columns, square % columns)) {
+                    return new int[]{square / columns, square % columns};
+                }
+            }
+        }
+        EndgameSolver solver = EndgameSolver.of(target, shipSizes);
+        if (solver != null && solver.cellCount() < gaveUpAt) {
+            if (solver.solve(budgetNanos, maxNodes)) {
+                ShotCache.Entry result = solver.result();
+                if (cache != null) {
+                    cache.put(key.hash(), result);
+                }
+                int square = result.pick(random);
+                if (square != -1) {
+                    return new int[]{square / columns, square % columns};
+                }
+            } else if (solver.timedOut && !solver.cancelled) {
+                gaveUpAt = solver.cellCount();
+            }
+        }
+        return super.nextShot(target);
+    }
+
+    @Override
+    public void shotFired(Board target, int row, int col, int result) {
+        super.shotFired(target, row, col, result);
+        if (target == keyed) {
+            key.fired(target, row, col, result);
+        }
+    }
+}
@@ -0,0 +1,500 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+
+// Exact play for the end of a game. Takes every way the ships still afloat
+// could lie on the target board given what the shots so far have shown
+// (no ship on a miss or on a sunk ship's squares, every hit not yet
+// accounted for by a sunk ship covered by one), counts how many of those
+// configurations put a ship on each square, and picks the square with the
+// most.
+//
+// It only applies once the squares any such ship could cover fit in a long
+// (MAX_CELLS): they are numbered in board order, so a set of them is a
+// bitmask. Ships are placed longest first, and the number of ways to place
+// the rest given the squares taken so far is memoized by (ships left,
+// squares taken). A second pass forward over the same states adds up, for
+// every placement, how many configurations use it, which gives the count
+// for each square. Identical ships are placed in every order, so every
+// configuration is counted the same number of times; the shares per square
+// are exact.
+//
+// Work is bounded by a deadline, or by a count of search steps where the
+// answer must not depend on how busy the machine is; solve() gives up past
+// either, once cancel() is called, or once the thread that called it is
+// interrupted. A step-bounded search runs on the caller's thread, so it
+// stops at the same point every time. Otherwise a large search
+// is split across cores by where the longest ship goes, each part with its
+// own memo (they hardly share states, as the longest ship is placed first).
+// The parts run on a pool of the solver's own, so they never queue behind
+// games a Simulation has put on the common pool; a solver called from a
+// pool thread, as in a Simulation, searches on that thread alone.
+public class EndgameSolver {
+
+    static final int MAX_CELLS = 64;
+    // boards with more unfired squares than this are not looked at at all
+    static final int MAX_UNFIRED = 4096;
+    // split across cores once there are this many placements of the
+    // longest ship and the squares are not too few to bother
+    static final int PARALLEL_PLACEMENTS = 8;
+    static final int PARALLEL_CELLS = 40;
+
+    static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    final int columns;
+    // the squares ships could still be on, ascending; bit i of a mask is
+    // squares[i]
+    final int[] squares;
+    // hits not yet accounted for by a sunk ship
+    final long openHits;
+    // per ship left, longest first: its placements as masks
+    final long[][] placements;
+    // squares the ships from each one on cover between them
+    final int[] lengthFrom;
+    // when solve() started, and how long it may take; kept apart, not as a
+    // deadline, so a budget of Long.MAX_VALUE cannot overflow
+    long start;
+    long budgetNanos;
+    long maxNodes;
+    volatile boolean timedOut;
+    // seen by every part of the search, on whatever thread
+    volatile boolean cancelled;
+    // results of solve(): configurations, and how many cover each square
+    double total;
+    double[] occupancy;
+
+    EndgameSolver(int columns, int[] squares, long openHits, long[][] placements, int[] lengthFrom) {
+        this.columns = columns;
+        this.squares = squares;
+        this.openHits = openHits;
+        this.placements = placements;
+        this.lengthFrom = lengthFrom;
+    }
+
+    // A solver for the target as it stands, or null if the ships still
+    // afloat could be on more than MAX_CELLS squares. Sunk ships are told
+    // by the board's ship list, as DensityPlayer does.
+    public static EndgameSolver of(Board target, int[] fleet) {
+        int rows = target.getRows();
+        int columns = target.getColumns();
+        int squareCount = rows * columns;
+        int fired = 0;
+        for (long word : target.shots) {
+            fired += Long.bitCount(word);
+        }
+        if (squareCount - fired > MAX_UNFIRED) {
+            return null;
+        }
+        // squares no ship left can be on: misses and sunk ships
+        long[] blocked = new long[target.shots.length];
+        for (int w = 0; w < blocked.length; w++) {
+            blocked[w] = target.shots[w] & ~target.ships[w];
+        }
+        int[] afloat = fleet.clone();
+        Arrays.sort(afloat);
+        int left = afloat.length;
+        for (int ship = 0; ship < target.shipCount; ship++) {
+            if (!target.isSunk(ship)) {
+                continue;
+            }
+            int length = target.getShipLength(ship);
+            int at = Arrays.binarySearch(afloat, 0, left, length);
+            if (at < 0) {
+                // not a ship of this fleet; nothing can be said
+                return null;
+            }
+            System.arraycopy(afloat, at + 1, afloat, at, left - at - 1);
+            left--;
+            int step = target.isShipHorizontal(ship) ? 1 : columns;
+            for (int i = 0, square = target.getShipStart(ship); i < length; i++, square += step) {
+                blocked[square >>> 6] |= 1L << square;
+            }
+        }
+        if (left == 0) {
+            return null;
+        }
+
+        // every spot a ship left could start: open squares, horizontal or
+        // vertical, all of whose squares are open
+        int[] lengths = new int[left];
+        for (int i = 0; i < left; i++) {
+            lengths[i] = afloat[left - 1 - i];
+        }
+        long[] relevant = new long[blocked.length];
+        int count = 0;
+        List<long[]> found = new ArrayList<long[]>();
+        for (int w = 0; w < blocked.length; w++) {
+            long open = ~blocked[w];
+            if (w == blocked.length - 1 && (squareCount & 63) != 0) {
+                open &= (1L << squareCount) - 1;
+            }
+            for (long bits = open; bits != 0; bits &= bits - 1) {
+                int start = (w << 6) + Long.numberOfTrailingZeros(bits);
+                for (int i = 0; i < left; i++) {
+                    if (i > 0 && lengths[i] == lengths[i - 1]) {
+                        continue;
+                    }
+                    int length = lengths[i];
+                    if (fits(blocked, start, length, 1, rows, columns)) {
+                        count = mark(relevant, start, length, 1, count);
+                        found.add(new long[]{length, start, 1});
+                    }
+                    if (length > 1 && fits(blocked, start, length, columns, rows, columns)) {
+                        count = mark(relevant, start, length, columns, count);
+                        found.add(new long[]{length, start, columns});
+                    }
+                    if (count > MAX_CELLS) {
+                        return null;
+                    }
+                }
+            }
+        }
+
+        int[] squares = new int[count];
+        int n = 0;
+        for (int w = 0; w < relevant.length; w++) {
+            for (long bits = relevant[w]; bits != 0; bits &= bits - 1) {
+                squares[n++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+            }
+        }
+        long openHits = 0;
+        for (int i = 0; i < count; i++) {
+            if (Board.isSet(target.shots, squares[i])) {
+                openHits |= 1L << i;
+            }
+        }
+        int hitsOnBoard = 0;
+        for (int w = 0; w < blocked.length; w++) {
+            hitsOnBoard += Long.bitCount(target.shots[w] & ~blocked[w]);
+        }
+        if (Long.bitCount(openHits) != hitsOnBoard) {
+            // a hit no ship left could cover
+            return null;
+        }
+        // masks for each length, shared by ships of the same length
+        long[][] placements = new long[left][];
+        int[] lengthFrom = new int[left + 1];
+        for (int i = left - 1; i >= 0; i--) {
+            lengthFrom[i] = lengthFrom[i + 1] + lengths[i];
+            if (i < left - 1 && lengths[i] == lengths[i + 1]) {
+                placements[i] = placements[i + 1];
+                continue;
+            }
+            int size = 0;
+            long[] masks = new long[found.size()];
+            for (long[] spot : found) {
+                if (spot[0] != lengths[i]) {
+                    continue;
+                }
+                long mask = 0;
+                int step = (int) spot[2];
+                for (int k = 0, square = (int) spot[1]; k < lengths[i]; k++, square += step) {
+                    mask |= 1L << Arrays.binarySearch(squares, square);
+                }
+                masks[size++] = mask;
+            }
+            placements[i] = Arrays.copyOf(masks, size);
+        }
+        return new EndgameSolver(columns, squares, openHits, placements, lengthFrom);
+    }
+
+    static boolean fits(long[] blocked, int start, int length, int step, int rows, int columns) {
+        if (step == 1 ? start % columns + length > columns : start / columns + length > rows) {
+            return false;
+        }
+        for (int k = 0, square = start; k < length; k++, square += step) {
+            if (Board.isSet(blocked, square)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int mark(long[] relevant, int start, int length, int step, int count) {
+        for (int k = 0, square = start; k < length; k++, square += step) {
+            if (!Board.isSet(relevant, square)) {
+                relevant[square >>> 6] |= 1L << square;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Squares the search covers
+    public int cellCount() {
+        return squares.length;
+    }
+
+    // Counts the configurations, in parallel if the search looks big enough
+    // to be worth it. Returns false if the budget ran out first or the
+    // search was cancelled.
+    public boolean solve(long budgetNanos) {
+        return solve(budgetNanos, Long.MAX_VALUE);
+    }
+
+    // solve, also giving up after maxNodes steps
+    public boolean solve(long budgetNanos, long maxNodes) {
+        start = System.nanoTime();
+        this.budgetNanos = budgetNanos;
+        this.maxNodes = maxNodes;
+        timedOut = false;
+        cancelled = false;
+        occupancy = new double[squares.length];
+        total = 0;
+        long[] first = placements[0];
+        int parts = POOL.getParallelism();
+        if (parts > 1 && first.length >= PARALLEL_PLACEMENTS && squares.length >= PARALLEL_CELLS
+                && maxNodes == Long.MAX_VALUE
+                && !(Thread.currentThread() instanceof ForkJoinWorkerThread)) {
+            solveInParallel(Math.min(parts * 2, first.length));
+        } else {
+            Search search = new Search(this);
+            total = search.count(0, first.length);
+            occupancy = search.occupancy;
+        }
+        return !stopped() && total > 0;
+    }
+
+    // Stops a solve() under way, from any thread
+    public void cancel() {
+        cancelled = true;
+    }
+
+    boolean stopped() {
+        return timedOut || cancelled;
+    }
+
+    void solveInParallel(int parts) {
+        final long[] first = placements[0];
+        List<Future<Search>> tasks = new ArrayList<Future<Search>>();
+        for (int part = 0; part < parts; part++) {
+            final int from = (int) ((long) first.length * part / parts);
+            final int to = (int) ((long) first.length * (part + 1) / parts);
+            tasks.add(POOL.submit(new Callable<Search>() {
+                @Override
+                public Search call() {
+                    Search search = new Search(EndgameSolver.this);
+                    search.total = search.count(from, to);
+                    return search;
+                }
+            }));
+        }
+        try {
+            for (Future<Search> done : tasks) {
+                Search search = done.get();
+                total += search.total;
+                for (int i = 0; i < occupancy.length; i++) {
+                    occupancy[i] += search.occupancy[i];
+                }
+            }
+        } catch (InterruptedException ex) {
+            // the parts see this and stop; the caller still sees the interrupt
+            cancel();
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            timedOut = true;
+        }
+    }
+
+    // Share of configurations with a ship on the square; after solve()
+    public double probability(int row, int column) {
+        int i = Arrays.binarySearch(squares, row * columns + column);
+        return i < 0 || total == 0 ? 0 : occupancy[i] / total;
+    }
+
+    // What solve() found, to fire from and to keep: the unfired squares most
+    // configurations put a ship on (none if no configuration does), and the
+    // share for every square
+    public ShotCache.Entry result() {
+        double most = 0;
+        int ties = 0;
+        int[] best = new int[squares.length];
+        float[] heat = new float[squares.length];
+        for (int i = 0; i < squares.length; i++) {
+            heat[i] = total == 0 ? 0 : (float) (occupancy[i] / total);
+            if ((openHits & (1L << i)) != 0 || occupancy[i] < most || occupancy[i] == 0) {
+                continue;
+            }
+            if (occupancy[i] > most) {
+                most = occupancy[i];
+                ties = 0;
+            }
+            best[ties++] = squares[i];
+        }
+        return new ShotCache.Entry(Arrays.copyOf(best, ties), squares, heat);
+    }
+
+    // One thread's share of the search, with its own memo
+    static class Search {
+
+        final EndgameSolver solver;
+        final long[][] placements;
+        final long openHits;
+        // per ship: completions from there on, by squares taken so far
+        final CountTable[] memo;
+        final double[] occupancy;
+        double total;
+        long nodes;
+
+        Search(EndgameSolver solver) {
+            this.solver = solver;
+            this.placements = solver.placements;
+            this.openHits = solver.openHits;
+            memo = new CountTable[placements.length + 1];
+            for (int i = 0; i < memo.length; i++) {
+                memo[i] = new CountTable();
+            }
+            occupancy = new double[solver.squares.length];
+        }
+
+        // Configurations with the longest ship at placements [from, to),
+        // adding how many cover each square to occupancy
+        double count(int from, int to) {
+            // ways to reach each state, ship by ship
+            CountTable frontier = new CountTable();
+            double found = 0;
+            long[] first = placements[0];
+            for (int p = from; p < to && !solver.stopped(); p++) {
+                double ways = completions(1, first[p]);
+                if (ways > 0) {
+                    found += ways;
+                    cover(first[p], ways);
+                    frontier.add(first[p], 1);
+                }
+            }
+            for (int ship = 1; ship < placements.length && !solver.stopped(); ship++) {
+                CountTable next = new CountTable();
+                for (int e = 0; e < frontier.keys.length; e++) {
+                    if (!frontier.full[e]) {
+                        continue;
+                    }
+                    long taken = frontier.keys[e];
+                    double reach = frontier.values[e];
+                    for (long placement : placements[ship]) {
+                        if ((placement & taken) != 0) {
+                            continue;
+                        }
+                        if (expired()) {
+                            return 0;
+                        }
+                        double ways = completions(ship + 1, taken | placement);
+                        if (ways > 0) {
+                            cover(placement, reach * ways);
+                            next.add(taken | placement, reach);
+                        }
+                    }
+                }
+                frontier = next;
+            }
+            return found;
+        }
+
+        // Counts a step, and checks the clock and this thread for an
+        // interrupt every so many steps of either pass; a part on the pool
+        // learns of the caller's interrupt through cancel()
+        boolean expired() {
+            if (++nodes > solver.maxNodes) {
+                solver.timedOut = true;
+            } else if ((nodes & 4095) == 0) {
+                if (System.nanoTime() - solver.start > solver.budgetNanos) {
+                    solver.timedOut = true;
+                } else if (Thread.currentThread().isInterrupted()) {
+                    solver.cancel();
+                }
+            }
+            return solver.stopped();
+        }
+
+        void cover(long placement, double ways) {
+            for (long bits = placement; bits != 0; bits &= bits - 1) {
+                occupancy[Long.numberOfTrailingZeros(bits)] += ways;
+            }
+        }
+
+        // Ways to place ships [ship, end) given the squares taken, such
+        // that every open hit ends up covered
+        double completions(int ship, long taken) {
+            if (expired()) {
+                return 0;
+            }
+            if (Long.bitCount(openHits & ~taken) > solver.lengthFrom[ship]) {
+                return 0;
+            }
+            if (ship == placements.length) {
+                return 1;
+            }
+            CountTable table = memo[ship];
+            int at = table.find(taken);
+            if (table.full[at]) {
+                return table.values[at];
+            }
+            double ways = 0;
+            for (long placement : placements[ship]) {
+                if ((placement & taken) == 0) {
+                    ways += completions(ship + 1, taken | placement);
+                }
+            }
+            table.put(taken, ways);
+            return ways;
+        }
+    }
+
+    // long -> double, open addressing with linear probing
+    static class CountTable {
+
+        long[] keys = new long[64];
+        double[] values = new double[64];
+        boolean[] full = new boolean[64];
+        int size;
+
+        // The slot holding key, or the empty one where it would go
+        int find(long key) {
+            int mask = keys.length - 1;
+            long h = key * 0x9E3779B97F4A7C15L;
+            int at = (int) (h ^ (h >>> 32)) & mask;
+            while (full[at] && keys[at] != key) {
+                at = (at + 1) & mask;
+            }
+            return at;
+        }
+
+        void put(long key, double value) {
+            int at = find(key);
+            if (!full[at]) {
+                if ((size + 1) * 2 > keys.length) {
+                    grow();
+                    at = find(key);
+                }
+                full[at] = true;
+                keys[at] = key;
+                size++;
+            }
+            values[at] = value;
+        }
+
+        void add(long key, double value) {
+            int at = find(key);
+            put(key, (full[at] ? values[at] : 0) + value);
+        }
+
+        void grow() {
+            long[] oldKeys = keys;
+            double[] oldValues = values;
+            boolean[] oldFull = full;
+            keys = new long[oldKeys.length * 2];
+            values = new double[oldKeys.length * 2];
+            full = new boolean[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldFull[i]) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,366 @@
+import java.util.Arrays;
+import java.util.Random;
+
+// The rules of one game, with no Swing dependency: both boards, ship
+// placement, shots and the CPU opponent. All state is per instance, so any
+// number of games can be hosted at once. An instance is not thread safe;
+// each game should be driven by one thread at a time.
+public class GameEngine {
+
+    public static final int BOARD_SIZE = 10;
+    public static final int[] DEFAULT_FLEET = new int[]{1, 1, 2, 2, 4, 6};
+    // largest number of rows or columns a board may have
+    public static final int MAX_BOARD_SIZE = 1000;
+
+    // timings over every engine in the program; see Metrics
+    static final Metrics.Histogram CPU_MOVE = Metrics.shared().histogram("cpu.move");
+    static final Metrics.Histogram PLACEMENT = Metrics.shared().histogram("placement");
+
+    public enum Phase {
+
+        PLACEMENT, PLAYER_MOVE, GAME_WIN, GAME_LOSE
+    }
+
+    // Told about every ship placed and shot fired, after the engine has
+    // applied it (so getPhase() already reflects a win or loss). player is
+    // true for the player's ship or shot, false for the CPU's.
+    public interface MoveListener {
+
+        void shipPlaced(boolean player, int row, int column, int length, boolean isHorizontal);
+
+        void shotFired(boolean player, int row, int column, int result);
+    }
+
+    int[] shipSizes;
+    final Random random;
+    Board playerBoard;
+    Board computerBoard;
+    // makes the CPU's strategy afresh for every game
+    Strategy.Factory strategy = Strategies.HUNT_TARGET;
+    Strategy computer;
+    Phase phase;
+    // ships placed so far; player and CPU place one each per step
+    int placements;
+    MoveListener[] moveListeners = new MoveListener[0];
+
+    public GameEngine() {
+        this(new Random());
+    }
+
+    public GameEngine(Random random) {
+        this(random, BOARD_SIZE, BOARD_SIZE, DEFAULT_FLEET);
+    }
+
+    public GameEngine(Random random, int rows, int columns, int[] shipSizes) {
+        checkConfiguration(rows, columns, shipSizes);
+        this.shipSizes = shipSizes.clone();
+        this.random = random;
+        this.playerBoard = new Board(rows, columns);
+        this.computerBoard = new Board(rows, columns);
+        newGame();
+    }
+
+    // Throws IllegalArgumentException unless the fleet can go on the board
+    public static void checkConfiguration(int rows, int columns, int[] shipSizes) {
+        if (rows < 1 || columns < 1 || rows > MAX_BOARD_SIZE || columns > MAX_BOARD_SIZE) {
+            throw new IllegalArgumentException("Board must be 1x1 to "
+                    + MAX_BOARD_SIZE + "x" + MAX_BOARD_SIZE + ", not " + rows + "x" + columns);
+        }
+        if (shipSizes.length == 0) {
+            throw new IllegalArgumentException("Fleet is empty");
+        }
+        long squares = 0;
+        for (int length : shipSizes) {
+            if (length < 1 || length > Math.max(rows, columns)) {
+                throw new IllegalArgumentException("Ship of length " + length
+                        + " does not fit a " + rows + "x" + columns + " board");
+            }
+            squares += length;
+        }
+        // room to spare, so random placement cannot paint itself into a corner
+        if (squares * 2 > (long) rows * columns) {
+            throw new IllegalArgumentException("Fleet of " + squares
+                    + " squares is too big for a " + rows + "x" + columns + " board");
+        }
+    }
+
+    // Parses a fleet given as ship lengths separated by commas, e.g. "1,1,2,2,4,6"
+    public static int[] parseFleet(String text) {
+        String[] parts = text.split(",");
+        int[] fleet = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            fleet[i] = Integer.parseInt(parts[i].trim());
+        }
+        return fleet;
+    }
+
+    // Parses a board size given as "ROWSxCOLUMNS", or one number for a
+    // square board; returns {rows, columns}
+    public static int[] parseBoardSize(String text) {
+        String[] parts = text.trim().toLowerCase().split("x");
+        if (parts.length > 2) {
+            throw new IllegalArgumentException("Bad board size: " + text);
+        }
+        int rows = Integer.parseInt(parts[0].trim());
+        int columns = parts.length == 2 ? Integer.parseInt(parts[1].trim()) : rows;
+        return new int[]{rows, columns};
+    }
+
+    // The board size and fleet from the battleship.board and battleship.fleet
+    // system properties, e.g. -Dbattleship.board=1000x1000, falling back to
+    // the classic game for any not given
+    public static int[] boardSizeProperty() {
+        String text = System.getProperty("battleship.board");
+        return text == null ? new int[]{BOARD_SIZE, BOARD_SIZE} : parseBoardSize(text);
+    }
+
+    public static int[] fleetProperty() {
+        String text = System.getProperty("battleship.fleet");
+        return text == null ? DEFAULT_FLEET.clone() : parseFleet(text);
+    }
+
+    // Changes the board size and fleet and starts a new game. The boards are
+    // replaced if the size changes, so views of them must be rebuilt.
+    public void configure(int rows, int columns, int[] shipSizes) {
+        checkConfiguration(rows, columns, shipSizes);
+        this.shipSizes = shipSizes.clone();
+        resize(rows, columns);
+        newGame();
+    }
+
+    void resize(int rows, int columns) {
+        if (rows != playerBoard.getRows() || columns != playerBoard.getColumns()) {
+            playerBoard = new Board(rows, columns);
+            computerBoard = new Board(rows, columns);
+        }
+    }
+
+    // Clears both boards and starts the placement phase
+    public final void newGame() {
+        playerBoard.clear();
+        computerBoard.clear();
+        computer = strategy.create(random, shipSizes);
+        placements = 0;
+        phase = Phase.PLACEMENT;
+    }
+
+    public void addMoveListener(MoveListener listener) {
+        moveListeners = Arrays.copyOf(moveListeners, moveListeners.length + 1);
+        moveListeners[moveListeners.length - 1] = listener;
+    }
+
+    public void removeMoveListener(MoveListener listener) {
+        for (int i = 0; i < moveListeners.length; i++) {
+            if (moveListeners[i] == listener) {
+                MoveListener[] fewer = new MoveListener[moveListeners.length - 1];
+                System.arraycopy(moveListeners, 0, fewer, 0, i);
+                System.arraycopy(moveListeners, i + 1, fewer, i, fewer.length - i);
+                moveListeners = fewer;
+                return;
+            }
+        }
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    public Board getPlayerBoard() {
+        return playerBoard;
+    }
+
+    public Board getComputerBoard() {
+        return computerBoard;
+    }
+
+    public Strategy getComputer() {
+        return computer;
+    }
+
+    // How the CPU plays from the next game on (see Strategies)
+    public void setStrategy(Strategy.Factory strategy) {
+        this.strategy = strategy;
+    }
+
+    public int[] getShipSizes() {
+        return shipSizes;
+    }
+
+    public int getPlacements() {
+        return placements;
+    }
+
+    // length of the next ship to place, 0 once all are placed
+    public int currentShipSize() {
+        return placements < shipSizes.length ? shipSizes[placements] : 0;
+    }
+
+    public int getSquaresRemainingPlayer() {
+        return playerBoard.squaresRemaining();
+    }
+
+    public int getSquaresRemainingCPU() {
+        return computerBoard.squaresRemaining();
+    }
+
+    // Places the player's next ship and a matching CPU ship. Returns false
+    // if the ship does not fit there.
+    public boolean placeShip(int row, int column, boolean isHorizontal) {
+        long start = System.nanoTime();
+        int length = currentShipSize();
+        if (phase != Phase.PLACEMENT
+                || !playerBoard.canPlace(row, column, length, isHorizontal)) {
+            return false;
+        }
+        computerPlaceShip(length);
+        playerBoard.place(row, column, length, isHorizontal);
+        //When all the ships are placed, start move phase.
+        if (placements >= shipSizes.length) {
+            phase = Phase.PLAYER_MOVE;
+        }
+        PLACEMENT.recordSince(start);
+        if (moveListeners.length > 0) {
+            int ship = computerBoard.shipCount - 1;
+            int at = computerBoard.getShipStart(ship);
+            for (MoveListener listener : moveListeners) {
+                listener.shipPlaced(false, at / computerBoard.getColumns(),
+                        at % computerBoard.getColumns(), length, computerBoard.isShipHorizontal(ship));
+                listener.shipPlaced(true, row, column, length, isHorizontal);
+            }
+        }
+        return true;
+    }
+
+    void computerPlaceShip(int length) {
+        computer.placeShip(computerBoard, length);
+        placements++;
+    }
+
+    // Places a ship as recorded in a journal; the CPU's ship of each step
+    // comes before the player's, as placeShip() makes them
+    void replayShip(boolean player, int row, int column, int length, boolean isHorizontal) {
+        Board board = player ? playerBoard : computerBoard;
+        // the player's ship matches the CPU's placed just before it
+        int step = player ? placements - 1 : placements;
+        if (phase != Phase.PLACEMENT || step < 0 || step >= shipSizes.length
+                || length != shipSizes[step] || playerBoard.shipCount != step
+                || !board.canPlace(row, column, length, isHorizontal)) {
+            throw new IllegalArgumentException("Ship does not fit at " + row + "," + column);
+        }
+        board.place(row, column, length, isHorizontal);
+        if (!player) {
+            placements++;
+        } else if (placements >= shipSizes.length) {
+            phase = Phase.PLAYER_MOVE;
+        }
+    }
+
+    // Fires a shot as recorded in a journal
+    void replayShot(boolean player, int row, int column) {
+        Board target = player ? computerBoard : playerBoard;
+        if (phase != Phase.PLAYER_MOVE || !target.inBounds(row, column)
+                || target.isShot(row, column)) {
+            throw new IllegalArgumentException("Shot not allowed at " + row + "," + column);
+        }
+        if (player) {
+            playerFire(row, column);
+        } else {
+            computerShot(row, column);
+        }
+    }
+
+    // Fires at the CPU's board. Returns Board.HIT or Board.MISS, or -1 if
+    // the shot is not allowed (square already tried or not player's turn).
+    public int playerFire(int row, int column) {
+        if (phase != Phase.PLAYER_MOVE) {
+            return -1;
+        }
+        int result = computerBoard.fire(row, column);
+        if (result == Board.HIT && computerBoard.squaresRemaining() == 0) {
+            phase = Phase.GAME_WIN;
+        }
+        if (result != -1) {
+            for (MoveListener listener : moveListeners) {
+                listener.shotFired(true, row, column, result);
+            }
+        }
+        return result;
+    }
+
+    // True while the player's shot is still waiting for the CPU's reply, as
+    // in a game saved or journaled while the CPU was thinking
+    public boolean isComputerToMove() {
+        return phase == Phase.PLAYER_MOVE
+                && computerBoard.shotsFired() > playerBoard.shotsFired();
+    }
+
+    // The CPU's reply; returns Board.HIT or Board.MISS
+    public int computerMove() {
+        long start = System.nanoTime();
+        int[] shot = computer.nextShot(playerBoard);
+        CPU_MOVE.recordSince(start);
+        return computerShot(shot[0], shot[1]);
+    }
+
+    // The CPU's reply as {row, column}, worked out by the deadline (a
+    // System.nanoTime() reading) where its strategy can, but not fired; see
+    // computerShot. The engine is only read, so this may run on another
+    // thread as long as nothing else uses the engine until it returns.
+    public int[] computerChoose(long deadline) {
+        long start = System.nanoTime();
+        int[] shot = computer.nextShot(playerBoard, deadline);
+        CPU_MOVE.recordSince(start);
+        return shot;
+    }
+
+    // Fires the CPU's shot; returns Board.HIT or Board.MISS. The square must
+    // be on the board and not fired at yet, and it must be a move's turn.
+    public int computerShot(int row, int column) {
+        if (phase != Phase.PLAYER_MOVE || !playerBoard.inBounds(row, column)
+                || playerBoard.isShot(row, column)) {
+            throw new IllegalArgumentException("CPU shot not allowed at " + row + "," + column);
+        }
+        int result = playerBoard.fire(row, column);
+        computer.shotFired(playerBoard, row, column, result);
+        //If the player runs out of ships they lose.
+        if (result == Board.HIT && playerBoard.squaresRemaining() == 0) {
+            phase = Phase.GAME_LOSE;
+        }
+        for (MoveListener listener : moveListeners) {
+            listener.shotFired(false, row, column, result);
+        }
+        return result;
+    }
+
+    // Puts a saved game back in play; the boards are copied, and replaced
+    // first if the saved ones are another size. The phase follows from the
+    // boards: placing until every ship is down, then moves until one side
+    // has nothing left.
+    public void restore(Board pBoard, Board cBoard, int[] fleet, int shipsPlaced,
+            int[][] possibleMoves, int moveIndex) {
+        checkConfiguration(pBoard.getRows(), pBoard.getColumns(), fleet);
+        if (shipsPlaced > fleet.length) {
+            throw new IllegalArgumentException("More ships placed than the fleet has");
+        }
+        shipSizes = fleet.clone();
+        resize(pBoard.getRows(), pBoard.getColumns());
+        playerBoard.copyFrom(pBoard);
+        computerBoard.copyFrom(cBoard);
+        placements = shipsPlaced;
+        // only the baseline player has search state to restore; others
+        // pick up from what the boards show
+        computer = strategy.create(random, shipSizes);
+        if (computer instanceof ComputerPlayer) {
+            ((ComputerPlayer) computer).restore(possibleMoves, moveIndex);
+        }
+        if (placements < shipSizes.length) {
+            phase = Phase.PLACEMENT;
+        } else if (computerBoard.squaresRemaining() == 0) {
+            phase = Phase.GAME_WIN;
+        } else if (playerBoard.squaresRemaining() == 0) {
+            phase = Phase.GAME_LOSE;
+        } else {
+            phase = Phase.PLAYER_MOVE;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// The game server's wire format, shared by GameServer and LoadClient. Every
+// message is a frame: an unsigned 16-bit length of the rest of the frame, a
+// type byte, then the fields. Numbers are big-endian; rows, columns and ship
+// lengths are unsigned 16-bit, flags and results one byte, and a name is
+// UTF-8 running to the end of the frame.
+//
+// A client sends JOIN, is told START (after WAITING if it has to wait for
+// an opponent), places its fleet with PLACE and then sends FIRE whenever it
+// is told TURN. SHOT reports every shot, either side's. After OVER the
+// connection can JOIN again.
+public final class GameProtocol {
+
+    public static final int DEFAULT_PORT = 7777;
+    // longest frame either side accepts, length field included
+    public static final int MAX_FRAME = 1024;
+    public static final int MAX_NAME = 64;
+
+    // client to server
+    public static final int JOIN = 1;        // mode, name
+    public static final int PLACE = 2;       // row, column, horizontal (1) or not (0)
+    public static final int FIRE = 3;        // row, column
+    public static final int LEAVE = 4;       // gives up the game in progress
+
+    // server to client
+    public static final int WAITING = 16;    // no opponent yet
+    public static final int START = 17;     // rows, columns, ship count, lengths, opponent's name
+    public static final int PLACED = 18;     // 1 if placed, 0 if it does not fit; next length (0 once all are down)
+    public static final int TURN = 19;       // fire when ready
+    public static final int SHOT = 20;       // 0 for yours, 1 for the opponent's; row, column, Board.HIT or MISS
+    public static final int OVER = 21;       // outcome
+    public static final int ERROR = 22;      // code
+
+    // JOIN modes
+    public static final int VS_CPU = 0;
+    public static final int VS_PLAYER = 1;
+
+    // OVER outcomes
+    public static final int WON = 0;
+    public static final int LOST = 1;
+    public static final int ABANDONED = 2;   // the opponent left or disconnected
+
+    // ERROR codes
+    public static final int BAD_MESSAGE = 1; // unknown type or wrong length
+    public static final int NOT_NOW = 2;     // not allowed in this phase or out of turn
+    public static final int BAD_SQUARE = 3;  // off the board or already fired at
+
+    private GameProtocol() {
+    }
+
+    // Starts a frame; returns where it starts, for end()
+    public static int begin(ByteBuffer out, int type) {
+        int start = out.position();
+        out.putShort((short) 0);
+        out.put((byte) type);
+        return start;
+    }
+
+    // Fills in the length of the frame begun at start
+    public static void end(ByteBuffer out, int start) {
+        out.putShort(start, (short) (out.position() - start - 2));
+    }
+
+    public static void putName(ByteBuffer out, String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        out.put(bytes, 0, Math.min(bytes.length, MAX_NAME));
+    }
+
+    // Reads a name running to the given position
+    public static String getName(ByteBuffer in, int end) {
+        byte[] bytes = new byte[Math.min(end - in.position(), MAX_NAME)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static int getUnsignedShort(ByteBuffer in) {
+        return in.getShort() & 0xFFFF;
+    }
+
+    public static void join(ByteBuffer out, int mode, String name) {
+        int start = begin(out, JOIN);
+        out.put((byte) mode);
+        putName(out, name);
+        end(out, start);
+    }
+
+    public static void place(ByteBuffer out, int row, int column, boolean isHorizontal) {
+        int start = begin(out, PLACE);
+        out.putShort((short) row);
+        out.putShort((short) column);
+        out.put((byte) (isHorizontal ? 1 : 0));
+        end(out, start);
+    }
+
+    public static void fire(ByteBuffer out, int row, int column) {
+        int start = begin(out, FIRE);
+        out.putShort((short) row);
+        out.putShort((short) column);
+        end(out, start);
+    }
+
+    public static void leave(ByteBuffer out) {
+        end(out, begin(out, LEAVE));
+    }
+
+    // Bytes a START frame takes, so room can be made for it first
+    public static int startSize(int[] fleet) {
+        return 2 + 1 + 5 + 2 * fleet.length + MAX_NAME;
+    }
+
+    public static void start(ByteBuffer out, int rows, int columns, int[] fleet, String opponent) {
+        int start = begin(out, START);
+        out.putShort((short) rows);
+        out.putShort((short) columns);
+        out.put((byte) fleet.length);
+        for (int length : fleet) {
+            out.putShort((short) length);
+        }
+        putName(out, opponent);
+        end(out, start);
+    }
+
+    // Messages with no fields, or one byte
+    public static void message(ByteBuffer out, int type) {
+        end(out, begin(out, type));
+    }
+
+    public static void message(ByteBuffer out, int type, int value) {
+        int start = begin(out, type);
+        out.put((byte) value);
+        end(out, start);
+    }
+
+    public static void placed(ByteBuffer out, boolean placed, int nextLength) {
+        int start = begin(out, PLACED);
+        out.put((byte) (placed ? 1 : 0));
+        out.putShort((short) nextLength);
+        end(out, start);
+    }
+
+    public static void shot(ByteBuffer out, boolean opponent, int row, int column, int result) {
+        int start = begin(out, SHOT);
+        out.put((byte) (opponent ? 1 : 0));
+        out.putShort((short) row);
+        out.putShort((short) column);
+        out.put((byte) result);
+        end(out, start);
+    }
+}
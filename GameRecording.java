@@ -0,0 +1,271 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+// A whole game as a stream of moves (ships placed and shots fired, both
+// sides) plus keyframes: the full game state every so many moves, encoded as
+// a SavedGame. Playing back to any move restores the keyframe at or before
+// it and applies the moves after it, so seeking costs at most one keyframe
+// interval of moves however long the game is (see GameReplay).
+//
+// Keyframes come every max(32, squares / 4) moves. Restoring one costs
+// about as much as applying that many moves, and the keyframes take about
+// as much room as the moves between them.
+//
+// .replay file (big-endian): magic "BSRP", version (1 byte), move count,
+// moves byte count, the moves, keyframe count, then each keyframe as move
+// number, offset into the moves, byte count and SavedGame bytes; all numbers
+// varints. CRC32 of everything before it ends the file.
+//
+// Each move is varint square * 4 + kind (CPU ship, player ship, CPU shot,
+// player shot), and for ships another varint length * 2 + (1 if horizontal).
+public class GameRecording implements GameEngine.MoveListener {
+
+    static final int MAGIC = 0x42535250;
+    static final int VERSION = 1;
+    static final int CPU_SHIP = 0;
+    static final int PLAYER_SHIP = 1;
+    static final int CPU_SHOT = 2;
+    static final int PLAYER_SHOT = 3;
+
+    final GameEngine game;
+    String playerName = "";
+    ByteBuffer moves = ByteBuffer.allocate(256);
+    int moveCount;
+    int keyframeEvery;
+    int keyframes;
+    int[] keyMoves = new int[8];
+    int[] keyOffsets = new int[8];
+    byte[][] keyStates = new byte[8][];
+    // true between start() and the end of the game
+    boolean recording;
+    boolean finished;
+
+    // A recorder for the game's moves; nothing is kept until start()
+    public GameRecording(GameEngine game) {
+        this.game = game;
+        game.addMoveListener(this);
+    }
+
+    GameRecording() {
+        this.game = null;
+    }
+
+    // Starts a new recording from the game as it stands
+    public void start(String playerName) {
+        this.playerName = playerName;
+        moves.clear();
+        moveCount = 0;
+        keyframes = 0;
+        Board board = game.getPlayerBoard();
+        keyframeEvery = Math.max(32, board.getRows() * board.getColumns() / 4);
+        keyframe();
+        recording = true;
+        finished = false;
+    }
+
+    public void stop() {
+        recording = false;
+    }
+
+    // true once a recorded game has been won or lost
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public String getPlayerName() {
+        return playerName;
+    }
+
+    public int size() {
+        return moveCount;
+    }
+
+    @Override
+    public void shipPlaced(boolean player, int row, int column, int length, boolean isHorizontal) {
+        if (recording) {
+            record(player ? PLAYER_SHIP : CPU_SHIP, row, column, length * 2 + (isHorizontal ? 1 : 0));
+        }
+    }
+
+    @Override
+    public void shotFired(boolean player, int row, int column, int result) {
+        if (recording) {
+            record(player ? PLAYER_SHOT : CPU_SHOT, row, column, -1);
+            GameEngine.Phase phase = game.getPhase();
+            if (phase == GameEngine.Phase.GAME_WIN || phase == GameEngine.Phase.GAME_LOSE) {
+                recording = false;
+                finished = true;
+            }
+        }
+    }
+
+    void record(int kind, int row, int column, int shape) {
+        if (moves.remaining() < 10) {
+            ByteBuffer larger = ByteBuffer.allocate(moves.capacity() * 2);
+            moves.flip();
+            moves = larger.put(moves);
+        }
+        SavedGame.putVarint(moves, (row * game.getPlayerBoard().getColumns() + column) * 4 + kind);
+        if (shape != -1) {
+            SavedGame.putVarint(moves, shape);
+        }
+        moveCount++;
+        if (moveCount % keyframeEvery == 0) {
+            keyframe();
+        }
+    }
+
+    void keyframe() {
+        ByteBuffer state = new SavedGame(game, playerName).encode();
+        byte[] bytes = new byte[state.remaining()];
+        state.get(bytes);
+        addKeyframe(moveCount, moves.position(), bytes);
+    }
+
+    void addKeyframe(int move, int offset, byte[] state) {
+        if (keyframes == keyMoves.length) {
+            keyMoves = Arrays.copyOf(keyMoves, keyframes * 2);
+            keyOffsets = Arrays.copyOf(keyOffsets, keyframes * 2);
+            keyStates = Arrays.copyOf(keyStates, keyframes * 2);
+        }
+        keyMoves[keyframes] = move;
+        keyOffsets[keyframes] = offset;
+        keyStates[keyframes] = state;
+        keyframes++;
+    }
+
+    // Index of the last keyframe at or before the move
+    int keyframeAt(int move) {
+        int low = 0;
+        int high = keyframes - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (keyMoves[middle] <= move) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    // Puts keyframe k into the engine
+    void restore(int k, GameEngine target) throws IOException {
+        SavedGame.decode(ByteBuffer.wrap(keyStates[k])).restore(target);
+    }
+
+    // Applies the move at the offset to the engine; returns the next offset
+    int apply(GameEngine target, int offset) throws IOException {
+        ByteBuffer in = moves.duplicate();
+        in.limit(in.capacity());
+        in.position(offset);
+        int code = SavedGame.getVarint(in);
+        int columns = target.getPlayerBoard().getColumns();
+        int square = code >>> 2;
+        int kind = code & 3;
+        try {
+            if (kind == CPU_SHIP || kind == PLAYER_SHIP) {
+                int shape = SavedGame.getVarint(in);
+                target.replayShip(kind == PLAYER_SHIP, square / columns, square % columns,
+                        shape >> 1, (shape & 1) == 1);
+            } else {
+                target.replayShot(kind == PLAYER_SHOT, square / columns, square % columns);
+            }
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("Bad move in recording: " + ex.getMessage(), ex);
+        }
+        return in.position();
+    }
+
+    // Encodes the recording now and returns a task that writes it out, which
+    // is safe to run on another thread
+    public PersistenceWriter.Task writeTask(final Path file) {
+        final ByteBuffer buffer = encode();
+        return new PersistenceWriter.Task() {
+            @Override
+            public void write() throws IOException {
+                Files.createDirectories(file.toAbsolutePath().getParent());
+                PersistenceWriter.writeAtomically(file, buffer);
+            }
+        };
+    }
+
+    ByteBuffer encode() {
+        int bound = 4 + 1 + 15 + moves.position() + 5;
+        for (int k = 0; k < keyframes; k++) {
+            bound += 15 + keyStates[k].length;
+        }
+        ByteBuffer out = ByteBuffer.allocate(bound + 4);
+        out.putInt(MAGIC);
+        out.put((byte) VERSION);
+        SavedGame.putVarint(out, moveCount);
+        SavedGame.putVarint(out, moves.position());
+        out.put(moves.array(), 0, moves.position());
+        SavedGame.putVarint(out, keyframes);
+        for (int k = 0; k < keyframes; k++) {
+            SavedGame.putVarint(out, keyMoves[k]);
+            SavedGame.putVarint(out, keyOffsets[k]);
+            SavedGame.putVarint(out, keyStates[k].length);
+            out.put(keyStates[k]);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(out.array(), 0, out.position());
+        out.putInt((int) crc.getValue());
+        out.flip();
+        return out;
+    }
+
+    public static GameRecording read(Path file) throws IOException {
+        return decode(ByteBuffer.wrap(Files.readAllBytes(file)));
+    }
+
+    static GameRecording decode(ByteBuffer in) throws IOException {
+        if (in.remaining() < 9 || in.getInt(0) != MAGIC) {
+            throw new IOException("Not a game recording");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(in.array(), 0, in.limit() - 4);
+        if ((int) crc.getValue() != in.getInt(in.limit() - 4)) {
+            throw new IOException("Recording is damaged (checksum mismatch)");
+        }
+        in.limit(in.limit() - 4);
+        in.position(4);
+        int version = in.get() & 0xFF;
+        if (version != VERSION) {
+            throw new IOException("Unsupported recording version " + version);
+        }
+        GameRecording recording = new GameRecording();
+        try {
+            recording.moveCount = SavedGame.getVarint(in);
+            byte[] moves = new byte[SavedGame.getVarint(in)];
+            in.get(moves);
+            recording.moves = ByteBuffer.wrap(moves);
+            recording.moves.position(moves.length);
+            int keyframes = SavedGame.getVarint(in);
+            for (int k = 0; k < keyframes; k++) {
+                int move = SavedGame.getVarint(in);
+                int offset = SavedGame.getVarint(in);
+                byte[] state = new byte[SavedGame.getVarint(in)];
+                in.get(state);
+                if (move > recording.moveCount || offset > moves.length
+                        || (k > 0 && move <= recording.keyMoves[k - 1])) {
+                    throw new IOException("Bad keyframe " + k);
+                }
+                recording.addKeyframe(move, offset, state);
+            }
+        } catch (BufferUnderflowException | NegativeArraySizeException ex) {
+            throw new IOException("Recording is truncated", ex);
+        }
+        if (recording.keyframes == 0 || recording.keyMoves[0] != 0) {
+            throw new IOException("Recording has no starting keyframe");
+        }
+        recording.playerName = SavedGame.decode(ByteBuffer.wrap(recording.keyStates[0])).getPlayerName();
+        recording.finished = true;
+        return recording;
+    }
+}
@@ -0,0 +1,73 @@
+import java.io.IOException;
+
+// Plays a recording back through an engine, whose boards (and so whatever
+// tables show them) follow along. Moving forward applies one move at a time;
+// a jump backwards, or forwards past a keyframe, restores the keyframe at or
+// before the target and applies the moves after it.
+public class GameReplay {
+
+    final GameRecording recording;
+    final GameEngine game;
+    // moves applied so far, and where the next one starts in the recording
+    int position;
+    int offset;
+
+    public GameReplay(GameRecording recording, GameEngine game) throws IOException {
+        this.recording = recording;
+        this.game = game;
+        position = -1;
+        seek(0);
+    }
+
+    public GameRecording getRecording() {
+        return recording;
+    }
+
+    // Number of moves in the recording; positions run from 0 to this
+    public int length() {
+        return recording.size();
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    // Shows the game as it was after the given number of moves
+    public void seek(int move) throws IOException {
+        move = Math.max(0, Math.min(move, length()));
+        int k = recording.keyframeAt(move);
+        if (position == -1 || move < position || recording.keyMoves[k] > position) {
+            recording.restore(k, game);
+            position = recording.keyMoves[k];
+            offset = recording.keyOffsets[k];
+        }
+        try {
+            while (position < move) {
+                offset = recording.apply(game, offset);
+                position++;
+            }
+        } catch (IOException ex) {
+            // the engine is part way through a move; start over next time
+            position = -1;
+            throw ex;
+        }
+    }
+
+    // Moves one forward; false at the end
+    public boolean step() throws IOException {
+        if (position >= length()) {
+            return false;
+        }
+        seek(position + 1);
+        return true;
+    }
+
+    // Moves one back; false at the start
+    public boolean back() throws IOException {
+        if (position <= 0) {
+            return false;
+        }
+        seek(position - 1);
+        return true;
+    }
+}
@@ -0,0 +1,575 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Hosts games over TCP, in the binary protocol of GameProtocol: a player
+// against the CPU, or two players matched in the order they join.
+//
+// One thread accepts connections and hands them out in turn to a few
+// selector loops (one per core by default), each of which reads, handles
+// and writes for all of its connections. A connection costs a few hundred
+// bytes between messages: reads go through one buffer per loop, and only a
+// partly received frame is kept per connection. Replies are queued on the
+// connection and written by its loop once the messages read with them are
+// all handled, so a shot and the CPU's answer go out in one write.
+//
+//   java -cp build/classes/java/main GameServer [port] [loops]
+//
+// The board and fleet come from -Dbattleship.board and -Dbattleship.fleet,
+// as for the desktop game.
+public class GameServer {
+
+    // queued output a client may leave unread before it is dropped
+    static final int MAX_PENDING = 64 * 1024;
+    static final int READ_BUFFER = 64 * 1024;
+    // over every server in the program; see Metrics
+    static final Metrics.Counter GAMES_STARTED = Metrics.shared().counter("games.started");
+    static final Metrics.Counter GAMES_FINISHED = Metrics.shared().counter("games.finished");
+
+    final int rows;
+    final int columns;
+    final int[] fleet;
+    final Loop[] loops;
+    final ServerSocketChannel listener;
+    final Thread acceptor;
+    final Random seeds = new Random();
+    int nextLoop;
+    // the player waiting for an opponent, or null; guarded by lobby
+    final Object lobby = new Object();
+    Connection waiting;
+    volatile boolean closed;
+    // counters
+    final AtomicInteger connections = new AtomicInteger();
+    final AtomicInteger sessions = new AtomicInteger();
+    final LongAdder games = new LongAdder();
+    final LongAdder moves = new LongAdder();
+    final LongAdder moveNanos = new LongAdder();
+
+    // Listens on the address (port 0 picks a free one; see getPort()) with
+    // the given number of selector loops
+    public GameServer(InetSocketAddress address, int loopCount,
+            int rows, int columns, int[] fleet) throws IOException {
+        GameEngine.checkConfiguration(rows, columns, fleet);
+        if (fleet.length > 255 || GameProtocol.startSize(fleet) > GameProtocol.MAX_FRAME) {
+            throw new IllegalArgumentException("Fleet of " + fleet.length + " ships is too big to send");
+        }
+        this.rows = rows;
+        this.columns = columns;
+        this.fleet = fleet.clone();
+        listener = ServerSocketChannel.open();
+        listener.bind(address, 4096);
+        loops = new Loop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new Loop(this, "game-loop-" + i);
+        }
+        acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "game-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return listener.socket().getLocalPort();
+    }
+
+    public int getConnections() {
+        return connections.get();
+    }
+
+    public int getSessions() {
+        return sessions.get();
+    }
+
+    public long getGames() {
+        return games.sum();
+    }
+
+    public long getMoves() {
+        return moves.sum();
+    }
+
+    // Time spent handling ship placements and shots, CPU replies included
+    public long getMoveNanos() {
+        return moveNanos.sum();
+    }
+
+    void acceptLoop() {
+        while (!closed) {
+            SocketChannel channel;
+            try {
+                channel = listener.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            } catch (ClosedChannelException ex) {
+                return;
+            } catch (IOException ex) {
+                // e.g. out of file descriptors; give closing ones a moment
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                continue;
+            }
+            loops[nextLoop].add(channel);
+            nextLoop = (nextLoop + 1) % loops.length;
+        }
+    }
+
+    // Stops listening and drops every connection
+    public void close() throws IOException {
+        closed = true;
+        listener.close();
+        for (Loop loop : loops) {
+            loop.selector.wakeup();
+        }
+        for (Loop loop : loops) {
+            try {
+                loop.thread.join(1000);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    void sessionStarted() {
+        sessions.incrementAndGet();
+        GAMES_STARTED.increment();
+    }
+
+    void sessionEnded() {
+        sessions.decrementAndGet();
+        games.increment();
+        GAMES_FINISHED.increment();
+    }
+
+    // Handles one frame, whose fields run from in's position to end
+    void handle(Connection connection, int type, ByteBuffer in, int end) {
+        int fields = end - in.position();
+        GameSession session = connection.session;
+        switch (type) {
+            case GameProtocol.JOIN:
+                if (fields < 1) {
+                    break;
+                }
+                int mode = in.get();
+                join(connection, mode, GameProtocol.getName(in, end));
+                return;
+            case GameProtocol.PLACE:
+            case GameProtocol.FIRE:
+                if (fields != (type == GameProtocol.PLACE ? 5 : 4)) {
+                    break;
+                }
+                if (session == null) {
+                    connection.send(GameProtocol.ERROR, GameProtocol.NOT_NOW);
+                    return;
+                }
+                long start = System.nanoTime();
+                int row = GameProtocol.getUnsignedShort(in);
+                int column = GameProtocol.getUnsignedShort(in);
+                if (type == GameProtocol.PLACE) {
+                    session.place(connection.seat, row, column, in.get() != 0);
+                } else {
+                    session.fire(connection.seat, row, column);
+                }
+                moves.increment();
+                moveNanos.add(System.nanoTime() - start);
+                return;
+            case GameProtocol.LEAVE:
+                if (fields != 0) {
+                    break;
+                }
+                leave(connection);
+                return;
+            default:
+        }
+        connection.send(GameProtocol.ERROR, GameProtocol.BAD_MESSAGE);
+    }
+
+    void join(Connection connection, int mode, String name) {
+        GameSession session = null;
+        boolean queued = false;
+        boolean busy;
+        synchronized (lobby) {
+            busy = connection.session != null || waiting == connection;
+        }
+        if (busy || (mode != GameProtocol.VS_CPU && mode != GameProtocol.VS_PLAYER)) {
+            // already playing or waiting, or no such mode
+        } else if (mode == GameProtocol.VS_CPU) {
+            // only this connection's thread starts its games, so no lock
+            connection.name = name;
+            session = new GameSession.CpuSession(this, connection, new Random(seeds.nextLong()));
+        } else {
+            synchronized (lobby) {
+                connection.name = name;
+                if (waiting == null) {
+                    waiting = connection;
+                    queued = true;
+                } else {
+                    session = new GameSession.PlayerSession(this, waiting, connection);
+                    waiting = null;
+                }
+            }
+        }
+        if (session != null) {
+            session.start();
+        } else if (queued) {
+            connection.send(GameProtocol.WAITING);
+        } else {
+            connection.send(GameProtocol.ERROR, GameProtocol.NOT_NOW);
+        }
+    }
+
+    // Gives up the game in progress, or stops waiting for one
+    void leave(Connection connection) {
+        synchronized (lobby) {
+            if (waiting == connection) {
+                waiting = null;
+                return;
+            }
+        }
+        GameSession session = connection.session;
+        if (session != null) {
+            session.leave(connection.seat);
+        }
+    }
+
+    // A selector thread and the connections it serves
+    static class Loop implements Runnable {
+
+        final GameServer server;
+        final Selector selector;
+        final Thread thread;
+        final ConcurrentLinkedQueue<SocketChannel> accepted = new ConcurrentLinkedQueue<SocketChannel>();
+        // connections with output to write
+        final ConcurrentLinkedQueue<Connection> flushes = new ConcurrentLinkedQueue<Connection>();
+        final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER);
+
+        Loop(GameServer server, String name) throws IOException {
+            this.server = server;
+            selector = Selector.open();
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void add(SocketChannel channel) {
+            accepted.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (!server.closed) {
+                try {
+                    selector.select();
+                } catch (IOException ex) {
+                    break;
+                }
+                SocketChannel channel;
+                while ((channel = accepted.poll()) != null) {
+                    register(channel);
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Connection connection = (Connection) key.attachment();
+                    if (key.isValid() && key.isReadable()) {
+                        connection.read();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.flush();
+                    }
+                }
+                Connection connection;
+                while ((connection = flushes.poll()) != null) {
+                    connection.flush();
+                }
+            }
+            for (SelectionKey key : selector.keys().toArray(new SelectionKey[0])) {
+                ((Connection) key.attachment()).close();
+            }
+            try {
+                selector.close();
+            } catch (IOException ex) {
+            }
+        }
+
+        void register(SocketChannel channel) {
+            Connection connection = new Connection(this, channel);
+            try {
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                server.connections.incrementAndGet();
+            } catch (IOException ex) {
+                try {
+                    channel.close();
+                } catch (IOException closing) {
+                }
+            }
+        }
+    }
+
+    // One client. Reading, writing and closing happen on the loop's thread;
+    // send() may be called from any thread.
+    static class Connection {
+
+        final Loop loop;
+        final SocketChannel channel;
+        SelectionKey key;
+        // the start of a frame not yet all received, or null
+        byte[] partial;
+        String name = "";
+        volatile GameSession session;
+        volatile int seat;
+        // output not yet written, and flags; guarded by this
+        ByteBuffer out;
+        boolean flushQueued;
+        boolean overflowed;
+        boolean closed;
+
+        Connection(Loop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+        }
+
+        void join(GameSession session, int seat) {
+            this.seat = seat;
+            this.session = session;
+        }
+
+        void read() {
+            ByteBuffer in = loop.readBuffer;
+            in.clear();
+            if (partial != null) {
+                in.put(partial);
+                partial = null;
+            }
+            try {
+                if (channel.read(in) == -1) {
+                    close();
+                    return;
+                }
+            } catch (IOException ex) {
+                close();
+                return;
+            }
+            in.flip();
+            while (in.remaining() >= 2) {
+                int length = in.getShort(in.position()) & 0xFFFF;
+                if (length == 0 || length + 2 > GameProtocol.MAX_FRAME) {
+                    close();
+                    return;
+                }
+                if (in.remaining() < length + 2) {
+                    break;
+                }
+                int end = in.position() + 2 + length;
+                in.position(in.position() + 2);
+                int type = in.get() & 0xFF;
+                loop.server.handle(this, type, in, end);
+                in.position(end);
+            }
+            if (in.hasRemaining()) {
+                partial = new byte[in.remaining()];
+                in.get(partial);
+            }
+        }
+
+        // Makes room for a message of up to the given size, under the lock;
+        // null if the client is too far behind or gone
+        ByteBuffer reserve(int bytes) {
+            if (closed || overflowed) {
+                return null;
+            }
+            if (out == null) {
+                out = ByteBuffer.allocate(256);
+            }
+            if (out.remaining() < bytes) {
+                if (out.position() + bytes > MAX_PENDING) {
+                    overflowed = true;
+                    return null;
+                }
+                int capacity = out.capacity();
+                while (capacity - out.position() < bytes) {
+                    capacity *= 2;
+                }
+                ByteBuffer larger = ByteBuffer.allocate(capacity);
+                out.flip();
+                out = larger.put(out);
+            }
+            return out;
+        }
+
+        // Has the loop write the output out, unless it is already due to
+        void queueFlush() {
+            synchronized (this) {
+                if (flushQueued) {
+                    return;
+                }
+                flushQueued = true;
+            }
+            loop.flushes.add(this);
+            if (Thread.currentThread() != loop.thread) {
+                loop.selector.wakeup();
+            }
+        }
+
+        void send(int type) {
+            synchronized (this) {
+                ByteBuffer buffer = reserve(3);
+                if (buffer != null) {
+                    GameProtocol.message(buffer, type);
+                }
+            }
+            queueFlush();
+        }
+
+        void send(int type, int value) {
+            synchronized (this) {
+                ByteBuffer buffer = reserve(4);
+                if (buffer != null) {
+                    GameProtocol.message(buffer, type, value);
+                }
+            }
+            queueFlush();
+        }
+
+        void sendStart(int rows, int columns, int[] fleet, String opponent) {
+            synchronized (this) {
+                ByteBuffer buffer = reserve(GameProtocol.startSize(fleet));
+                if (buffer != null) {
+                    GameProtocol.start(buffer, rows, columns, fleet, opponent);
+                }
+            }
+            queueFlush();
+        }
+
+        void sendPlaced(boolean placed, int nextLength) {
+            synchronized (this) {
+                ByteBuffer buffer = reserve(6);
+                if (buffer != null) {
+                    GameProtocol.placed(buffer, placed, nextLength);
+                }
+            }
+            queueFlush();
+        }
+
+        void sendShot(boolean opponent, int row, int column, int result) {
+            synchronized (this) {
+                ByteBuffer buffer = reserve(9);
+                if (buffer != null) {
+                    GameProtocol.shot(buffer, opponent, row, column, result);
+                }
+            }
+            queueFlush();
+        }
+
+        // Writes what it can; the rest waits for the socket to drain
+        void flush() {
+            boolean more;
+            synchronized (this) {
+                flushQueued = false;
+                if (closed) {
+                    return;
+                }
+                more = out != null && out.position() > 0;
+                if (more && !overflowed) {
+                    out.flip();
+                    try {
+                        channel.write(out);
+                    } catch (IOException ex) {
+                        overflowed = true;
+                    }
+                    out.compact();
+                    more = out.position() > 0;
+                }
+            }
+            if (overflowed) {
+                close();
+                return;
+            }
+            key.interestOps(more ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+
+        void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                out = null;
+            }
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ex) {
+            }
+            loop.server.connections.decrementAndGet();
+            loop.server.leave(this);
+        }
+    }
+
+    // The server's counters over JMX and in the metrics table, with the rest
+    static void publish(final GameServer server) {
+        Metrics metrics = Metrics.shared();
+        metrics.gauge("server.connections", new Metrics.Gauge() {
+            @Override
+            public double value() {
+                return server.getConnections();
+            }
+        });
+        metrics.gauge("server.sessions", new Metrics.Gauge() {
+            @Override
+            public double value() {
+                return server.getSessions();
+            }
+        });
+        metrics.gauge("server.moves", new Metrics.Gauge() {
+            @Override
+            public double value() {
+                return server.getMoves();
+            }
+        });
+        metrics.register();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : GameProtocol.DEFAULT_PORT;
+        int loopCount = args.length > 1 ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+        int[] size = GameEngine.boardSizeProperty();
+        GameServer server = new GameServer(new InetSocketAddress(port), loopCount,
+                size[0], size[1], GameEngine.fleetProperty());
+        System.out.println("Listening on port " + server.getPort() + " with " + loopCount + " loops");
+        publish(server);
+        long lastMoves = 0;
+        long lastNanos = 0;
+        while (true) {
+            Thread.sleep(10000);
+            long moves = server.getMoves();
+            long nanos = server.getMoveNanos();
+            System.out.printf("%d connections, %d games in progress, %d finished, %d moves/s, %.1f us a move%n",
+                    server.getConnections(), server.getSessions(), server.getGames(),
+                    (moves - lastMoves) / 10,
+                    moves == lastMoves ? 0.0 : (nanos - lastNanos) / 1000.0 / (moves - lastMoves));
+            lastMoves = moves;
+            lastNanos = nanos;
+        }
+    }
+}
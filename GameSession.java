@@ -0,0 +1,194 @@
+import java.util.Random;
+
+// A game hosted by GameServer: one player against the CPU, or two against
+// each other. Players sit in seats 0 and 1; against the CPU only seat 0 is
+// used. A session is driven by its players' connections, which may be
+// served by different selector threads, so everything that touches the game
+// is synchronized on the session. Messages to a player are queued on their
+// connection and written by its own thread.
+abstract class GameSession {
+
+    final GameServer server;
+    final GameServer.Connection[] players;
+    final int rows;
+    final int columns;
+    final int[] fleet;
+    boolean over;
+
+    GameSession(GameServer server, GameServer.Connection[] players) {
+        this.server = server;
+        this.players = players;
+        this.rows = server.rows;
+        this.columns = server.columns;
+        this.fleet = server.fleet;
+        for (int seat = 0; seat < players.length; seat++) {
+            players[seat].join(this, seat);
+        }
+        server.sessionStarted();
+    }
+
+    // Tells the players the game is on; placing starts at once
+    abstract void start();
+
+    abstract void place(int seat, int row, int column, boolean isHorizontal);
+
+    abstract void fire(int seat, int row, int column);
+
+    // The player in the seat gave up or went away; the other one, if any,
+    // is told the game was abandoned
+    synchronized void leave(int seat) {
+        if (over) {
+            return;
+        }
+        end();
+        for (int other = 0; other < players.length; other++) {
+            if (other != seat) {
+                players[other].send(GameProtocol.OVER, GameProtocol.ABANDONED);
+            }
+        }
+    }
+
+    // Frees the players to join another game. Done before they are told
+    // the game is over: a player on another loop's thread may answer OVER
+    // with JOIN before this thread gets any further.
+    void end() {
+        over = true;
+        for (GameServer.Connection player : players) {
+            player.join(null, 0);
+        }
+        server.sessionEnded();
+    }
+
+    // A player against the CPU, played by a GameEngine: the CPU places a ship
+    // for every one the player does, as in the desktop game, and answers
+    // every shot at once. SHOT messages for both sides come from the
+    // engine's move listener.
+    static class CpuSession extends GameSession implements GameEngine.MoveListener {
+
+        final GameEngine engine;
+
+        CpuSession(GameServer server, GameServer.Connection player, Random random) {
+            super(server, new GameServer.Connection[]{player});
+            engine = new GameEngine(random, rows, columns, fleet);
+            engine.addMoveListener(this);
+        }
+
+        @Override
+        synchronized void start() {
+            players[0].sendStart(rows, columns, fleet, "CPU");
+        }
+
+        @Override
+        synchronized void place(int seat, int row, int column, boolean isHorizontal) {
+            if (over || engine.getPhase() != GameEngine.Phase.PLACEMENT) {
+                players[0].send(GameProtocol.ERROR, GameProtocol.NOT_NOW);
+                return;
+            }
+            boolean placed = engine.placeShip(row, column, isHorizontal);
+            players[0].sendPlaced(placed, engine.currentShipSize());
+            if (engine.getPhase() == GameEngine.Phase.PLAYER_MOVE) {
+                players[0].send(GameProtocol.TURN);
+            }
+        }
+
+        @Override
+        synchronized void fire(int seat, int row, int column) {
+            if (over || engine.getPhase() != GameEngine.Phase.PLAYER_MOVE) {
+                players[0].send(GameProtocol.ERROR, GameProtocol.NOT_NOW);
+                return;
+            }
+            if (!engine.getComputerBoard().inBounds(row, column)
+                    || engine.playerFire(row, column) == -1) {
+                players[0].send(GameProtocol.ERROR, GameProtocol.BAD_SQUARE);
+                return;
+            }
+            if (engine.getPhase() == GameEngine.Phase.GAME_WIN) {
+                end();
+                players[0].send(GameProtocol.OVER, GameProtocol.WON);
+                return;
+            }
+            engine.computerMove();
+            if (engine.getPhase() == GameEngine.Phase.GAME_LOSE) {
+                end();
+                players[0].send(GameProtocol.OVER, GameProtocol.LOST);
+            } else {
+                players[0].send(GameProtocol.TURN);
+            }
+        }
+
+        @Override
+        public void shipPlaced(boolean player, int row, int column, int length, boolean isHorizontal) {
+        }
+
+        @Override
+        public void shotFired(boolean player, int row, int column, int result) {
+            players[0].sendShot(!player, row, column, result);
+        }
+    }
+
+    // Two players, each with their own board. Both place their fleets at
+    // once; then seat 0, who was waiting first, fires first and the turn
+    // passes after every shot.
+    static class PlayerSession extends GameSession {
+
+        final Board[] boards = new Board[2];
+        final int[] placed = new int[2];
+        int turn;
+
+        PlayerSession(GameServer server, GameServer.Connection first, GameServer.Connection second) {
+            super(server, new GameServer.Connection[]{first, second});
+            boards[0] = new Board(rows, columns);
+            boards[1] = new Board(rows, columns);
+        }
+
+        @Override
+        synchronized void start() {
+            players[0].sendStart(rows, columns, fleet, players[1].name);
+            players[1].sendStart(rows, columns, fleet, players[0].name);
+        }
+
+        @Override
+        synchronized void place(int seat, int row, int column, boolean isHorizontal) {
+            if (over || placed[seat] == fleet.length) {
+                players[seat].send(GameProtocol.ERROR, GameProtocol.NOT_NOW);
+                return;
+            }
+            Board board = boards[seat];
+            int length = fleet[placed[seat]];
+            boolean fits = board.canPlace(row, column, length, isHorizontal);
+            if (fits) {
+                board.place(row, column, length, isHorizontal);
+                placed[seat]++;
+            }
+            players[seat].sendPlaced(fits,
+                    placed[seat] < fleet.length ? fleet[placed[seat]] : 0);
+            if (fits && placed[0] == fleet.length && placed[1] == fleet.length) {
+                players[turn].send(GameProtocol.TURN);
+            }
+        }
+
+        @Override
+        synchronized void fire(int seat, int row, int column) {
+            if (over || seat != turn || placed[0] < fleet.length || placed[1] < fleet.length) {
+                players[seat].send(GameProtocol.ERROR, GameProtocol.NOT_NOW);
+                return;
+            }
+            Board target = boards[1 - seat];
+            int result = target.inBounds(row, column) ? target.fire(row, column) : -1;
+            if (result == -1) {
+                players[seat].send(GameProtocol.ERROR, GameProtocol.BAD_SQUARE);
+                return;
+            }
+            players[seat].sendShot(false, row, column, result);
+            players[1 - seat].sendShot(true, row, column, result);
+            if (target.squaresRemaining() == 0) {
+                end();
+                players[seat].send(GameProtocol.OVER, GameProtocol.WON);
+                players[1 - seat].send(GameProtocol.OVER, GameProtocol.LOST);
+                return;
+            }
+            turn = 1 - seat;
+            players[turn].send(GameProtocol.TURN);
+        }
+    }
+}
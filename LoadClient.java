@@ -0,0 +1,334 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+// Puts a GameServer under load from one machine: opens many connections,
+// each played by a bot that joins a game, places its fleet at random, fires
+// at random squares it has not tried, and joins again when the game ends.
+// Reports games and shots a second and the round trip from a shot to the
+// server's answer. Bots fire as soon as it is their turn, unless given a
+// think time (on average; each wait is drawn from half to one and a half
+// times it), which is how to see latency at a steady load rather than flat
+// out.
+//
+//   java -cp build/classes/java/main LoadClient [host] [port] [connections]
+//           [seconds] [cpu|player] [threads] [think ms]
+public class LoadClient {
+
+    // round trips are counted in microsecond buckets up to this; longer
+    // ones go in the last bucket
+    static final int LATENCY_BUCKETS = 100000;
+
+    // A selector thread and the bots on it
+    static class Worker implements Runnable {
+
+        final Selector selector;
+        final Random random;
+        final int mode;
+        final long thinkNanos;
+        // bots waiting out their think time, soonest due first
+        final PriorityQueue<Bot> thinking = new PriorityQueue<Bot>(64, new Comparator<Bot>() {
+            @Override
+            public int compare(Bot a, Bot b) {
+                return Long.compare(a.dueAt, b.dueAt);
+            }
+        });
+        volatile boolean running = true;
+        long games;
+        long shots;
+        long errors;
+        final long[] latency = new long[LATENCY_BUCKETS];
+        final ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024);
+
+        Worker(int mode, long thinkMillis, long seed) throws IOException {
+            this.mode = mode;
+            this.thinkNanos = thinkMillis * 1000000;
+            selector = Selector.open();
+            random = new Random(seed);
+        }
+
+        void add(SocketChannel channel, String name) throws IOException {
+            Bot bot = new Bot(this, channel, name);
+            bot.key = channel.register(selector, SelectionKey.OP_READ, bot);
+            bot.join();
+            bot.flush();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                long wait = 100;
+                if (!thinking.isEmpty()) {
+                    wait = Math.max(1, (thinking.peek().dueAt - System.nanoTime()) / 1000000);
+                }
+                try {
+                    selector.select(wait);
+                } catch (IOException ex) {
+                    break;
+                }
+                long now = System.nanoTime();
+                while (!thinking.isEmpty() && thinking.peek().dueAt <= now) {
+                    Bot bot = thinking.poll();
+                    if (bot.key.isValid()) {
+                        bot.fire();
+                        bot.flush();
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Bot bot = (Bot) key.attachment();
+                    if (key.isValid() && key.isReadable()) {
+                        bot.read();
+                    }
+                    if (key.isValid()) {
+                        bot.flush();
+                    }
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException ex) {
+                }
+            }
+        }
+    }
+
+    // One connection's player
+    static class Bot {
+
+        final Worker worker;
+        final SocketChannel channel;
+        final String name;
+        SelectionKey key;
+        final ByteBuffer out = ByteBuffer.allocate(GameProtocol.MAX_FRAME);
+        byte[] partial;
+        // our fleet goes on own; target holds the squares not yet fired at
+        Board own;
+        CellPool target;
+        ComputerPlayer placer;
+        int[] fleet;
+        int placed;
+        long dueAt;
+        long firedAt;
+
+        Bot(Worker worker, SocketChannel channel, String name) {
+            this.worker = worker;
+            this.channel = channel;
+            this.name = name;
+            placer = new ComputerPlayer(worker.random);
+        }
+
+        void join() {
+            GameProtocol.join(out, worker.mode, name);
+        }
+
+        void read() {
+            ByteBuffer in = worker.readBuffer;
+            in.clear();
+            if (partial != null) {
+                in.put(partial);
+                partial = null;
+            }
+            try {
+                if (channel.read(in) == -1) {
+                    close();
+                    return;
+                }
+            } catch (IOException ex) {
+                close();
+                return;
+            }
+            in.flip();
+            while (in.remaining() >= 2) {
+                int length = in.getShort(in.position()) & 0xFFFF;
+                if (in.remaining() < length + 2) {
+                    break;
+                }
+                int end = in.position() + 2 + length;
+                in.position(in.position() + 2);
+                handle(in.get() & 0xFF, in, end);
+                in.position(end);
+            }
+            if (in.hasRemaining()) {
+                partial = new byte[in.remaining()];
+                in.get(partial);
+            }
+        }
+
+        void handle(int type, ByteBuffer in, int end) {
+            switch (type) {
+                case GameProtocol.START:
+                    int rows = GameProtocol.getUnsignedShort(in);
+                    int columns = GameProtocol.getUnsignedShort(in);
+                    fleet = new int[in.get() & 0xFF];
+                    for (int i = 0; i < fleet.length; i++) {
+                        fleet[i] = GameProtocol.getUnsignedShort(in);
+                    }
+                    own = new Board(rows, columns);
+                    target = new CellPool(rows, columns);
+                    placed = 0;
+                    placeNext();
+                    break;
+                case GameProtocol.PLACED:
+                    if (in.get() == 0) {
+                        worker.errors++;
+                        close();
+                        return;
+                    }
+                    placed++;
+                    if (placed < fleet.length) {
+                        placeNext();
+                    }
+                    break;
+                case GameProtocol.TURN:
+                    if (worker.thinkNanos == 0) {
+                        fire();
+                    } else {
+                        // half to one and a half times the think time, so
+                        // bots that started together drift apart
+                        dueAt = System.nanoTime() + worker.thinkNanos / 2
+                                + (long) (worker.random.nextDouble() * worker.thinkNanos);
+                        worker.thinking.add(this);
+                    }
+                    break;
+                case GameProtocol.SHOT:
+                    if (in.get() == 0) {
+                        long micros = (System.nanoTime() - firedAt) / 1000;
+                        worker.latency[(int) Math.min(micros, LATENCY_BUCKETS - 1)]++;
+                        worker.shots++;
+                    }
+                    break;
+                case GameProtocol.OVER:
+                    worker.games++;
+                    if (worker.running) {
+                        join();
+                    }
+                    break;
+                case GameProtocol.ERROR:
+                    worker.errors++;
+                    break;
+                default:
+            }
+        }
+
+        void fire() {
+            int square = target.sample(worker.random);
+            target.remove(square);
+            firedAt = System.nanoTime();
+            GameProtocol.fire(out, square / own.getColumns(), square % own.getColumns());
+        }
+
+        // Picks a free spot for the next ship on our own board and sends it
+        void placeNext() {
+            placer.placeShip(own, fleet[placed]);
+            int ship = own.shipCount - 1;
+            int start = own.getShipStart(ship);
+            GameProtocol.place(out, start / own.getColumns(), start % own.getColumns(),
+                    own.isShipHorizontal(ship));
+        }
+
+        void flush() {
+            if (out.position() == 0) {
+                return;
+            }
+            out.flip();
+            try {
+                channel.write(out);
+            } catch (IOException ex) {
+                close();
+                return;
+            }
+            out.compact();
+            key.interestOps(out.position() > 0
+                    ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+
+        void close() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ex) {
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : GameProtocol.DEFAULT_PORT;
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        int mode = args.length > 4 && args[4].equals("player") ? GameProtocol.VS_PLAYER : GameProtocol.VS_CPU;
+        int threads = args.length > 5 ? Integer.parseInt(args[5])
+                : Runtime.getRuntime().availableProcessors();
+        long think = args.length > 6 ? Long.parseLong(args[6]) : 0;
+
+        Worker[] workers = new Worker[threads];
+        Thread[] running = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(mode, think, i);
+            running[i] = new Thread(workers[i], "load-" + i);
+        }
+        // connect before the bots start, so the workers never wait on a connect
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        for (int i = 0; i < connections; i++) {
+            SocketChannel channel = SocketChannel.open(address);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.configureBlocking(false);
+            workers[i % threads].add(channel, "bot" + i);
+        }
+        System.out.println(connections + " connections open");
+        long start = System.nanoTime();
+        for (Thread thread : running) {
+            thread.start();
+        }
+        Thread.sleep(seconds * 1000L);
+        for (Worker worker : workers) {
+            worker.running = false;
+        }
+        for (Thread thread : running) {
+            thread.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        long games = 0;
+        long shots = 0;
+        long errors = 0;
+        long[] latency = new long[LATENCY_BUCKETS];
+        for (Worker worker : workers) {
+            games += worker.games;
+            shots += worker.shots;
+            errors += worker.errors;
+            for (int i = 0; i < LATENCY_BUCKETS; i++) {
+                latency[i] += worker.latency[i];
+            }
+        }
+        System.out.printf("%d games (%.0f/s), %d shots (%.0f/s), %d errors%n",
+                games, games / elapsed, shots, shots / elapsed, errors);
+        System.out.printf("shot round trip: p50 %d us, p99 %d us, p99.9 %d us, max %d us%n",
+                percentile(latency, shots, 0.5), percentile(latency, shots, 0.99),
+                percentile(latency, shots, 0.999), percentile(latency, shots, 1.0));
+    }
+
+    static int percentile(long[] counts, long total, double fraction) {
+        long wanted = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= wanted && seen > 0) {
+                return i;
+            }
+        }
+        return 0;
+    }
+}
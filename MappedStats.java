@@ -0,0 +1,530 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+// Player stats kept in memory-mapped files rather than on the heap, for
+// installs with more players than fit comfortably in memory. Opening only
+// maps the files, and recording a match writes one record slot and reads a
+// few hash entries in place, so only the pages touched are ever loaded.
+//
+//   record.dat    header, then one 24-byte slot per player: name offset,
+//                 wins, losses, best, score sum (long). Slots are dense
+//                 and in joining order; removing a player moves the slots
+//                 after it down one.
+//   record.names  header, then each name as byte count and UTF-8, appended
+//                 once when the player first appears
+//   record.idx    header, then an open-addressing (linear probing) table of
+//                 longs: name hash << 32 | slot + 1, 0 when empty
+//
+// The sorted orders the stats dialog needs are built in memory on first use
+// (reading every slot once) and kept up to date after that.
+public class MappedStats implements PlayerStats {
+
+    static final int MAGIC = 0x42534D53;
+    static final int VERSION = 1;
+    static final int HEADER = 16;
+    static final int SLOT = 24;
+    // slot fields
+    static final int NAME = 0;
+    static final int WINS = 4;
+    static final int LOSSES = 8;
+    static final int BEST = 12;
+    static final int SUM = 16;
+    // header fields after magic and version
+    static final int COUNT = 8;
+    static final int CAPACITY = 12;
+
+    final Path directory;
+    FileChannel recordFile;
+    FileChannel nameFile;
+    FileChannel indexFile;
+    MappedByteBuffer records;
+    MappedByteBuffer names;
+    MappedByteBuffer index;
+    // players; slots [0, count) are in use
+    int count;
+    int capacity;
+    // bytes of record.names in use, header included
+    int nameBytes;
+    int nameCapacity;
+    // hash table entries, a power of two
+    int indexCapacity;
+    final StatsStore.SortedIndex[] orders = new StatsStore.SortedIndex[Order.values().length];
+
+    MappedStats(Path directory) {
+        this.directory = directory;
+    }
+
+    // Maps the stats files in the directory, creating them if needed. A new
+    // file starts with the players from the stats log, if there is one.
+    public static MappedStats open(Path directory) throws IOException {
+        MappedStats stats = new MappedStats(directory);
+        if (Files.exists(directory.resolve("record.dat"))) {
+            try {
+                stats.map();
+            } catch (IOException ex) {
+                try {
+                    stats.closeFiles();
+                } catch (IOException closeFailed) {
+                    ex.addSuppressed(closeFailed);
+                }
+                throw ex;
+            }
+        } else {
+            stats.create();
+            stats.importLog();
+        }
+        return stats;
+    }
+
+    void map() throws IOException {
+        recordFile = channel("record.dat");
+        nameFile = channel("record.names");
+        indexFile = channel("record.idx");
+        records = map(recordFile, recordFile.size());
+        names = map(nameFile, nameFile.size());
+        index = map(indexFile, indexFile.size());
+        for (ByteBuffer buffer : new ByteBuffer[]{records, names, index}) {
+            if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a stats file");
+            }
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException("Unsupported stats file version " + buffer.getInt(4));
+            }
+        }
+        count = records.getInt(COUNT);
+        capacity = records.getInt(CAPACITY);
+        nameBytes = names.getInt(COUNT);
+        nameCapacity = names.getInt(CAPACITY);
+        indexCapacity = index.getInt(CAPACITY);
+        // a damaged header would send reads and writes outside the mappings,
+        // or leave the hash table without the empty entry lookups stop at
+        if (capacity < 1 || count < 0 || count > capacity
+                || HEADER + (long) capacity * SLOT > records.capacity()
+                || nameBytes < HEADER || nameBytes > nameCapacity
+                || nameCapacity > names.capacity()
+                || indexCapacity < 2 || Integer.bitCount(indexCapacity) != 1
+                || HEADER + 8L * indexCapacity > index.capacity()
+                || 2L * count > indexCapacity) {
+            throw new IOException("Damaged stats file header");
+        }
+    }
+
+    void create() throws IOException {
+        recordFile = channel("record.dat");
+        nameFile = channel("record.names");
+        indexFile = channel("record.idx");
+        recordFile.truncate(0);
+        nameFile.truncate(0);
+        indexFile.truncate(0);
+        count = 0;
+        capacity = 1024;
+        nameBytes = HEADER;
+        nameCapacity = 1 << 16;
+        indexCapacity = 2048;
+        records = map(recordFile, HEADER + (long) capacity * SLOT);
+        names = map(nameFile, nameCapacity);
+        index = map(indexFile, HEADER + 8L * indexCapacity);
+        for (MappedByteBuffer buffer : new MappedByteBuffer[]{records, names, index}) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+        }
+        records.putInt(COUNT, count);
+        records.putInt(CAPACITY, capacity);
+        names.putInt(COUNT, nameBytes);
+        names.putInt(CAPACITY, nameCapacity);
+        index.putInt(CAPACITY, indexCapacity);
+    }
+
+    FileChannel channel(String name) throws IOException {
+        return FileChannel.open(directory.resolve(name), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    static MappedByteBuffer map(FileChannel channel, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Stats file too large to map: " + size + " bytes");
+        }
+        return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    // Takes over the players of the stats log (or an old record.ser)
+    void importLog() throws IOException {
+        StatsLog log = new StatsLog(directory);
+        if (!Files.exists(directory.resolve("record.snap"))
+                && !Files.exists(directory.resolve("record.ser"))
+                && log.logGenerations().isEmpty()) {
+            return;
+        }
+        List<BattleshipGUI.PlayerRecord> imported = log.open();
+        log.close();
+        for (BattleshipGUI.PlayerRecord record : imported) {
+            int hash = hash(record.name);
+            if (find(record.name, hash) == -1) {
+                int slot = add(record.name, hash);
+                int at = slotOffset(slot);
+                records.putInt(at + WINS, record.wins);
+                records.putInt(at + LOSSES, record.losses);
+                records.putInt(at + BEST, record.bestScore);
+                records.putLong(at + SUM, (long) record.averageScore * (record.wins + record.losses));
+            }
+        }
+    }
+
+    static int hash(String name) {
+        int h = name.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    static int slotOffset(int slot) {
+        return HEADER + slot * SLOT;
+    }
+
+    String nameOf(int slot) {
+        int offset = records.getInt(slotOffset(slot) + NAME);
+        byte[] bytes = new byte[names.getInt(offset)];
+        ByteBuffer view = names.duplicate();
+        view.position(offset + 4);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    BattleshipGUI.PlayerRecord record(int slot) {
+        int at = slotOffset(slot);
+        BattleshipGUI.PlayerRecord record = new BattleshipGUI.PlayerRecord(nameOf(slot));
+        record.wins = records.getInt(at + WINS);
+        record.losses = records.getInt(at + LOSSES);
+        record.bestScore = records.getInt(at + BEST);
+        int games = record.wins + record.losses;
+        record.averageScore = games == 0 ? 0 : (int) (records.getLong(at + SUM) / games);
+        return record;
+    }
+
+    int value(Order order, int slot) {
+        int at = slotOffset(slot);
+        switch (order) {
+            case WINS:
+                return records.getInt(at + WINS);
+            case LOSSES:
+                return records.getInt(at + LOSSES);
+            case BEST:
+                return records.getInt(at + BEST);
+            default:
+                int games = records.getInt(at + WINS) + records.getInt(at + LOSSES);
+                return games == 0 ? 0 : (int) (records.getLong(at + SUM) / games);
+        }
+    }
+
+    long entry(int i) {
+        return index.getLong(HEADER + 8 * i);
+    }
+
+    void setEntry(int i, long entry) {
+        index.putLong(HEADER + 8 * i, entry);
+    }
+
+    // Slot of the named player, or -1
+    int find(String name, int hash) {
+        int mask = indexCapacity - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            long entry = entry(i);
+            if (entry == 0) {
+                return -1;
+            }
+            if ((int) (entry >>> 32) == hash && nameOf((int) entry - 1).equals(name)) {
+                return (int) entry - 1;
+            }
+        }
+    }
+
+    // Table position of the entry pointing at a slot
+    int entryOf(int slot, int hash) {
+        int mask = indexCapacity - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            if ((int) entry(i) == slot + 1) {
+                return i;
+            }
+        }
+    }
+
+    void insertEntry(long entry) {
+        int mask = indexCapacity - 1;
+        int i = (int) (entry >>> 32) & mask;
+        while (entry(i) != 0) {
+            i = (i + 1) & mask;
+        }
+        setEntry(i, entry);
+    }
+
+    // Empties position i, shifting back later entries of the same run so
+    // every entry stays reachable from its home position
+    void deleteEntry(int i) {
+        int mask = indexCapacity - 1;
+        int hole = i;
+        for (int j = (i + 1) & mask; ; j = (j + 1) & mask) {
+            long entry = entry(j);
+            if (entry == 0) {
+                break;
+            }
+            int home = (int) (entry >>> 32) & mask;
+            boolean movable = j > hole ? home <= hole || home > j : home <= hole && home > j;
+            if (movable) {
+                setEntry(hole, entry);
+                hole = j;
+            }
+        }
+        setEntry(hole, 0);
+    }
+
+    // New zeroed slot for the player; returns the slot
+    int add(String name, int hash) throws IOException {
+        if (count == capacity) {
+            capacity *= 2;
+            records = map(recordFile, HEADER + (long) capacity * SLOT);
+            records.putInt(CAPACITY, capacity);
+        }
+        if ((count + 1) * 2 > indexCapacity) {
+            rehash(indexCapacity * 2);
+        }
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        while (nameBytes + 4 + bytes.length > nameCapacity) {
+            nameCapacity *= 2;
+            names = map(nameFile, nameCapacity);
+            names.putInt(CAPACITY, nameCapacity);
+        }
+        int offset = nameBytes;
+        names.putInt(offset, bytes.length);
+        ByteBuffer view = names.duplicate();
+        view.position(offset + 4);
+        view.put(bytes);
+        nameBytes += 4 + bytes.length;
+        names.putInt(COUNT, nameBytes);
+
+        int slot = count;
+        int at = slotOffset(slot);
+        records.putInt(at + NAME, offset);
+        records.putInt(at + WINS, 0);
+        records.putInt(at + LOSSES, 0);
+        records.putInt(at + BEST, 0);
+        records.putLong(at + SUM, 0);
+        count++;
+        records.putInt(COUNT, count);
+        insertEntry(((long) hash << 32) | (slot + 1));
+        return slot;
+    }
+
+    void rehash(int newCapacity) throws IOException {
+        long[] entries = new long[indexCapacity];
+        for (int i = 0; i < indexCapacity; i++) {
+            entries[i] = entry(i);
+        }
+        indexCapacity = newCapacity;
+        index = map(indexFile, HEADER + 8L * indexCapacity);
+        index.putInt(CAPACITY, indexCapacity);
+        for (int i = 0; i < indexCapacity; i++) {
+            setEntry(i, 0);
+        }
+        for (long entry : entries) {
+            if (entry != 0) {
+                insertEntry(entry);
+            }
+        }
+    }
+
+    // The order's index, built from every slot the first time it is needed
+    StatsStore.SortedIndex order(final Order order) {
+        StatsStore.SortedIndex sorted = orders[order.ordinal()];
+        if (sorted == null) {
+            sorted = new StatsStore.SortedIndex() {
+                @Override
+                int compare(int a, int b) {
+                    int result;
+                    if (order == Order.NAME) {
+                        result = nameOf(a).compareTo(nameOf(b));
+                    } else {
+                        result = Integer.compare(value(order, b), value(order, a));
+                    }
+                    return result != 0 ? result : Integer.compare(a, b);
+                }
+            };
+            int[] slots;
+            if (order == Order.NAME) {
+                slots = new int[count];
+                for (int i = 0; i < count; i++) {
+                    slots[i] = i;
+                }
+                sorted.sort(slots, new int[count], 0, count);
+            } else {
+                int[] values = new int[count];
+                for (int slot = 0; slot < count; slot++) {
+                    values[slot] = value(order, slot);
+                }
+                slots = StatsStore.sortDescending(values);
+            }
+            sorted.build(slots, count);
+            orders[order.ordinal()] = sorted;
+        }
+        return sorted;
+    }
+
+    // must be done before the slot changes, while the orders still agree with it
+    void unindex(int slot) {
+        for (StatsStore.SortedIndex sorted : orders) {
+            if (sorted != null) {
+                sorted.remove(slot);
+            }
+        }
+    }
+
+    void index(int slot) {
+        for (StatsStore.SortedIndex sorted : orders) {
+            if (sorted != null) {
+                sorted.add(slot);
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public BattleshipGUI.PlayerRecord get(String name) {
+        int slot = find(name, hash(name));
+        return slot == -1 ? null : record(slot);
+    }
+
+    @Override
+    public BattleshipGUI.PlayerRecord get(Order order, int position) {
+        if (order == Order.JOINED) {
+            if (position < 0 || position >= count) {
+                throw new IndexOutOfBoundsException("Position " + position + " of " + count);
+            }
+            return record(position);
+        }
+        return record(order(order).get(position));
+    }
+
+    @Override
+    public int rank(Order order, String name) {
+        int slot = find(name, hash(name));
+        if (slot == -1 || order == Order.JOINED) {
+            return slot;
+        }
+        return order(order).rank(slot);
+    }
+
+    @Override
+    public BattleshipGUI.PlayerRecord recordMatch(String name, int score) throws IOException {
+        int hash = hash(name);
+        int slot = find(name, hash);
+        if (slot == -1) {
+            slot = add(name, hash);
+        } else {
+            unindex(slot);
+        }
+        int at = slotOffset(slot);
+        if (score > 0) {
+            records.putInt(at + WINS, records.getInt(at + WINS) + 1);
+            if (score > records.getInt(at + BEST)) {
+                records.putInt(at + BEST, score);
+            }
+        } else {
+            records.putInt(at + LOSSES, records.getInt(at + LOSSES) + 1);
+        }
+        records.putLong(at + SUM, records.getLong(at + SUM) + score);
+        index(slot);
+        return record(slot);
+    }
+
+    @Override
+    public void clearBest(String name) {
+        int slot = find(name, hash(name));
+        if (slot != -1) {
+            unindex(slot);
+            records.putInt(slotOffset(slot) + BEST, 0);
+            index(slot);
+        }
+    }
+
+    // Removing a player is rare, so it pays for keeping the slots in joining
+    // order: every later slot moves down one, the index entries pointing at
+    // them with it, and the sorted orders are built again when next needed
+    @Override
+    public void remove(String name) {
+        int hash = hash(name);
+        int slot = find(name, hash);
+        if (slot == -1) {
+            return;
+        }
+        deleteEntry(entryOf(slot, hash));
+        for (int at = slotOffset(slot), end = slotOffset(count - 1); at < end; at += 8) {
+            records.putLong(at, records.getLong(at + SLOT));
+        }
+        for (int i = 0; i < indexCapacity; i++) {
+            long entry = entry(i);
+            if (entry != 0 && (int) entry - 1 > slot) {
+                setEntry(i, entry - 1);
+            }
+        }
+        count--;
+        records.putInt(COUNT, count);
+        forgetOrders();
+    }
+
+    // Empties the files in place; they stay mapped, at the size they are,
+    // as a flush still being written may hold the buffers
+    @Override
+    public void clear() {
+        count = 0;
+        records.putInt(COUNT, count);
+        nameBytes = HEADER;
+        names.putInt(COUNT, nameBytes);
+        for (int i = 0; i < indexCapacity; i++) {
+            setEntry(i, 0);
+        }
+        forgetOrders();
+    }
+
+    void forgetOrders() {
+        for (int i = 0; i < orders.length; i++) {
+            orders[i] = null;
+        }
+    }
+
+    // Forcing a mapping is safe alongside writes to it, so the task only
+    // needs the buffers as they are now
+    @Override
+    public PersistenceWriter.Task flushTask() {
+        final MappedByteBuffer[] buffers = {records, names, index};
+        return new PersistenceWriter.Task() {
+            @Override
+            public void write() {
+                for (MappedByteBuffer buffer : buffers) {
+                    buffer.force();
+                }
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        closeFiles();
+    }
+
+    void closeFiles() throws IOException {
+        for (FileChannel file : new FileChannel[]{recordFile, nameFile, indexFile}) {
+            if (file != null) {
+                file.close();
+            }
+        }
+    }
+}
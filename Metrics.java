@@ -0,0 +1,398 @@
+import java.awt.EventQueue;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+// Counters, latency histograms and gauges for the whole program, readable
+// over JMX (battleship:type=Metrics, one attribute per figure) and as a text
+// table. Recording never locks: counters and histogram buckets are
+// LongAdders, so threads bumping the same one do not wait on each other,
+// and timing something costs two clock reads and an add. Histograms use
+// Simulation's time buckets, four to a power of two, so figures read from
+// them are within 25%.
+//
+// register() publishes the figures over JMX and starts a daemon thread
+// that samples the allocation rate; -Dbattleship.metrics=<seconds> also has
+// it print the table that often.
+public class Metrics {
+
+    static final Logger LOG = Logger.getLogger(Metrics.class.getName());
+    static final String OBJECT_NAME = "battleship:type=Metrics";
+    // how often the event queue is pinged, and how late a ping must run to
+    // count as a stall
+    static final long PING_MILLIS = 100;
+    static final long STALL_NANOS = 200000000L;
+
+    static final Metrics SHARED = new Metrics();
+
+    public static class Counter {
+
+        final LongAdder count = new LongAdder();
+
+        public void increment() {
+            count.increment();
+        }
+
+        public void add(long n) {
+            count.add(n);
+        }
+
+        public long get() {
+            return count.sum();
+        }
+    }
+
+    public static class Histogram {
+
+        final LongAdder[] buckets = new LongAdder[Simulation.TIME_BUCKETS];
+        final LongAdder count = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void record(long nanos) {
+            buckets[Math.min(Simulation.timeBucket(nanos), buckets.length - 1)].increment();
+            count.increment();
+            totalNanos.add(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        // Records the time since start, a System.nanoTime() reading
+        public void recordSince(long start) {
+            record(System.nanoTime() - start);
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        public double meanNanos() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) totalNanos.sum() / n;
+        }
+
+        public long maxNanos() {
+            return maxNanos.get();
+        }
+
+        // The shortest time in the bucket holding the given fraction of the
+        // times recorded so far
+        public long percentileNanos(double fraction) {
+            long[] counts = new long[buckets.length];
+            long total = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets[i].sum();
+                total += counts[i];
+            }
+            long rank = (long) Math.ceil(fraction * total);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return Simulation.bucketNanos(i);
+                }
+            }
+            return 0;
+        }
+    }
+
+    // A figure read when asked for
+    public interface Gauge {
+
+        double value();
+    }
+
+    final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+    final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+    final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+    ScheduledExecutorService sampler;
+    // bytes allocated a second, as last sampled
+    volatile double allocationRate;
+    // when the event queue ping still waiting to run was sent; 0 if none
+    final AtomicLong pingSent = new AtomicLong();
+
+    public static Metrics shared() {
+        return SHARED;
+    }
+
+    // The counter of the given name, made on first use
+    public Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            counters.putIfAbsent(name, new Counter());
+            counter = counters.get(name);
+        }
+        return counter;
+    }
+
+    public Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histograms.putIfAbsent(name, new Histogram());
+            histogram = histograms.get(name);
+        }
+        return histogram;
+    }
+
+    // Adds a gauge, replacing any of the same name
+    public void gauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    // Every figure by name, in name order: counters and gauges as they are,
+    // histograms as count, mean, p50, p99 and max (times in microseconds)
+    public Map<String, Number> snapshot() {
+        Map<String, Number> figures = new TreeMap<String, Number>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            figures.put(entry.getKey(), entry.getValue().get());
+        }
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            figures.put(entry.getKey(), entry.getValue().value());
+        }
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            String name = entry.getKey();
+            Histogram histogram = entry.getValue();
+            figures.put(name + ".count", histogram.count());
+            figures.put(name + ".meanMicros", histogram.meanNanos() / 1000);
+            figures.put(name + ".p50Micros", histogram.percentileNanos(0.5) / 1000.0);
+            figures.put(name + ".p99Micros", histogram.percentileNanos(0.99) / 1000.0);
+            figures.put(name + ".maxMicros", histogram.maxNanos() / 1000.0);
+        }
+        return figures;
+    }
+
+    // The figures as a table, one histogram or other figure to a line
+    public String report() {
+        StringBuilder out = new StringBuilder();
+        for (String name : new TreeMap<String, Histogram>(histograms).keySet()) {
+            Histogram histogram = histograms.get(name);
+            out.append(String.format("%-24s %10d  mean %9.1f  p50 %9.1f  p99 %9.1f  max %9.1f us%n",
+                    name, histogram.count(), histogram.meanNanos() / 1000,
+                    histogram.percentileNanos(0.5) / 1000.0, histogram.percentileNanos(0.99) / 1000.0,
+                    histogram.maxNanos() / 1000.0));
+        }
+        for (Map.Entry<String, Counter> entry : new TreeMap<String, Counter>(counters).entrySet()) {
+            out.append(String.format("%-24s %10d%n", entry.getKey(), entry.getValue().get()));
+        }
+        for (Map.Entry<String, Gauge> entry : new TreeMap<String, Gauge>(gauges).entrySet()) {
+            out.append(String.format("%-24s %14.1f%n", entry.getKey(), entry.getValue().value()));
+        }
+        return out.toString();
+    }
+
+    // Publishes the figures over JMX, adds the JVM's, and starts sampling;
+    // the first call only
+    public synchronized void register() {
+        if (sampler != null) {
+            return;
+        }
+        sampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "metrics");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        addJvmGauges();
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MBean(), new ObjectName(OBJECT_NAME));
+        } catch (JMException ex) {
+            LOG.log(Level.WARNING, "Metrics not published over JMX", ex);
+        }
+        String period = System.getProperty("battleship.metrics");
+        if (period != null) {
+            long seconds = Long.parseLong(period.trim());
+            sampler.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    System.out.print(report());
+                    System.out.println();
+                }
+            }, seconds, seconds, TimeUnit.SECONDS);
+        }
+    }
+
+    void addJvmGauges() {
+        gauge("jvm.heapUsedBytes", new Gauge() {
+            @Override
+            public double value() {
+                return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            }
+        });
+        gauge("jvm.gcCount", new Gauge() {
+            @Override
+            public double value() {
+                long count = 0;
+                for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                    count += Math.max(collector.getCollectionCount(), 0);
+                }
+                return count;
+            }
+        });
+        gauge("jvm.gcMillis", new Gauge() {
+            @Override
+            public double value() {
+                long millis = 0;
+                for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                    millis += Math.max(collector.getCollectionTime(), 0);
+                }
+                return millis;
+            }
+        });
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        // the JVM only counts bytes per live thread, so this is sampled
+        // once a second and misses what threads that ended in between
+        // allocated
+        final com.sun.management.ThreadMXBean counting = (com.sun.management.ThreadMXBean) threads;
+        gauge("jvm.allocatedBytesPerSec", new Gauge() {
+            @Override
+            public double value() {
+                return allocationRate;
+            }
+        });
+        sampler.scheduleAtFixedRate(new Runnable() {
+            long lastBytes = -1;
+            long lastNanos;
+
+            @Override
+            public void run() {
+                long bytes = 0;
+                for (long allocated : counting.getThreadAllocatedBytes(counting.getAllThreadIds())) {
+                    bytes += Math.max(allocated, 0);
+                }
+                long now = System.nanoTime();
+                if (lastBytes >= 0) {
+                    allocationRate = Math.max(0, bytes - lastBytes) * 1e9 / (now - lastNanos);
+                }
+                lastBytes = bytes;
+                lastNanos = now;
+            }
+        }, 0, 1, TimeUnit.SECONDS);
+    }
+
+    // Times how long the event dispatch thread takes to get to a task put
+    // on its queue every PING_MILLIS: edt.lag is that wait, edt.stalls the
+    // waits over STALL_NANOS, and edt.waitingMillis how long the ping out
+    // now has been waiting, which shows a stall while it is still going on.
+    // After register().
+    public synchronized void watchEventQueue() {
+        final Histogram lag = histogram("edt.lag");
+        final Counter stalls = counter("edt.stalls");
+        gauge("edt.waitingMillis", new Gauge() {
+            @Override
+            public double value() {
+                long sent = pingSent.get();
+                return sent == 0 ? 0 : (System.nanoTime() - sent) / 1e6;
+            }
+        });
+        sampler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                final long sent = System.nanoTime();
+                // one ping at a time, so a stall does not fill the queue
+                if (!pingSent.compareAndSet(0, sent)) {
+                    return;
+                }
+                EventQueue.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        long waited = System.nanoTime() - sent;
+                        pingSent.set(0);
+                        lag.record(waited);
+                        if (waited > STALL_NANOS) {
+                            stalls.increment();
+                        }
+                    }
+                });
+            }
+        }, PING_MILLIS, PING_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // The figures as read-only JMX attributes, named as in snapshot()
+    class MBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String name) throws AttributeNotFoundException {
+            Number value = snapshot().get(name);
+            if (value == null) {
+                throw new AttributeNotFoundException(name);
+            }
+            return value;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] names) {
+            Map<String, Number> figures = snapshot();
+            AttributeList list = new AttributeList();
+            for (String name : names) {
+                if (figures.containsKey(name)) {
+                    list.add(new Attribute(name, figures.get(name)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(action));
+        }
+
+        // Lists what there is now; figures made since show up next time
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+            for (Map.Entry<String, Number> figure : snapshot().entrySet()) {
+                attributes.add(new MBeanAttributeInfo(figure.getKey(), figure.getValue().getClass().getName(),
+                        figure.getKey(), true, false, false));
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Battleship metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[0], null);
+        }
+    }
+}
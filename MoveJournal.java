@@ -0,0 +1,300 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Write-ahead journal of the game in progress, so a crash or kill loses at
+// most the last few moves. The journal starts with a checkpoint (the game
+// as a SavedGame) and then gets one entry per ship placed and shot fired,
+// from either side. Recovery restores the checkpoint and replays the entries
+// after it through the engine, which also rebuilds the CPU's search state.
+//
+// Recording a move only copies a few bytes into a buffer. A writer thread
+// appends whatever has collected since its last write in one go and forces
+// it to disk (group commit), so moves made while the disk is busy share the
+// next force. Every CHECKPOINT_AFTER entries the journal starts over from
+// a new checkpoint, which keeps recovery short on large boards. A write
+// that fails may leave part of a batch in the file, so nothing more is
+// appended after it; the next move starts the journal over instead.
+//
+// game.journal (big-endian): magic "BSJN", version, checkpoint byte count,
+// SavedGame bytes, then entries:
+//   'C' / 'P' square, length * 2 + (1 if horizontal)   CPU / player ship
+//   'G' / 'F' square                                    CPU / player shot
+// A torn or otherwise unreadable entry ends the replay.
+public class MoveJournal implements GameEngine.MoveListener {
+
+    static final int MAGIC = 0x42534A4E;
+    static final int VERSION = 1;
+    static final byte CPU_SHIP = 'C';
+    static final byte PLAYER_SHIP = 'P';
+    static final byte CPU_SHOT = 'G';
+    static final byte PLAYER_SHOT = 'F';
+    static final int CHECKPOINT_AFTER = 1 << 12;
+
+    final Path file;
+    final GameEngine game;
+    final Thread thread;
+    // guarded by this: entries not yet handed to the writer thread, and a
+    // new start (header and checkpoint) to write before them
+    ByteBuffer pending = ByteBuffer.allocate(4096);
+    ByteBuffer restart;
+    boolean delete;
+    boolean writing;
+    boolean closed;
+    // a write failed; entries are dropped until the journal starts over
+    boolean broken;
+    IOException failure;
+    // only used by the writer thread
+    ByteBuffer spare = ByteBuffer.allocate(4096);
+    FileChannel channel;
+    // entries since the checkpoint, or -1 while no game is being journaled
+    int entries = -1;
+    String playerName;
+
+    public MoveJournal(Path file, GameEngine game) {
+        this.file = file;
+        this.game = game;
+        game.addMoveListener(this);
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "move-journal");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Starts a new journal from the game as it stands
+    public void start(String playerName) {
+        this.playerName = playerName;
+        ByteBuffer checkpoint = new SavedGame(game, playerName).encode();
+        ByteBuffer header = ByteBuffer.allocate(12 + checkpoint.remaining());
+        header.putInt(MAGIC).putInt(VERSION).putInt(checkpoint.remaining()).put(checkpoint);
+        header.flip();
+        synchronized (this) {
+            restart = header;
+            delete = false;
+            pending.clear();
+            entries = 0;
+            notifyAll();
+        }
+    }
+
+    // Stops journaling and removes the journal; there is nothing to recover
+    public synchronized void end() {
+        entries = -1;
+        restart = null;
+        delete = true;
+        pending.clear();
+        notifyAll();
+    }
+
+    public boolean isActive() {
+        return entries != -1;
+    }
+
+    @Override
+    public void shipPlaced(boolean player, int row, int column, int length, boolean isHorizontal) {
+        if (entries != -1) {
+            append(player ? PLAYER_SHIP : CPU_SHIP, row, column,
+                    length * 2 + (isHorizontal ? 1 : 0));
+        }
+    }
+
+    @Override
+    public void shotFired(boolean player, int row, int column, int result) {
+        if (entries == -1) {
+            return;
+        }
+        GameEngine.Phase phase = game.getPhase();
+        if (phase == GameEngine.Phase.GAME_WIN || phase == GameEngine.Phase.GAME_LOSE) {
+            end();
+        } else {
+            append(player ? PLAYER_SHOT : CPU_SHOT, row, column, -1);
+        }
+    }
+
+    void append(byte type, int row, int column, int shape) {
+        boolean failed;
+        synchronized (this) {
+            failed = broken;
+        }
+        if (++entries >= CHECKPOINT_AFTER || failed) {
+            start(playerName);
+            return;
+        }
+        synchronized (this) {
+            if (pending.remaining() < 9) {
+                ByteBuffer larger = ByteBuffer.allocate(pending.capacity() * 2);
+                pending.flip();
+                pending = larger.put(pending);
+            }
+            pending.put(type).putInt(row * game.getPlayerBoard().getColumns() + column);
+            if (shape != -1) {
+                pending.putInt(shape);
+            }
+            notifyAll();
+        }
+    }
+
+    void writeLoop() {
+        while (true) {
+            ByteBuffer header;
+            boolean remove;
+            ByteBuffer batch;
+            synchronized (this) {
+                while (restart == null && !delete && pending.position() == 0 && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+                if (restart == null && !delete && pending.position() == 0) {
+                    return;
+                }
+                header = restart;
+                remove = delete;
+                restart = null;
+                delete = false;
+                if (header != null || remove) {
+                    broken = false;
+                }
+                // swap buffers, so moves go on collecting while this batch is written
+                batch = pending;
+                batch.flip();
+                spare.clear();
+                pending = spare;
+                spare = batch;
+                writing = true;
+                if (broken) {
+                    batch.position(batch.limit());
+                }
+            }
+            IOException error = null;
+            try {
+                if (remove) {
+                    closeChannel();
+                    Files.deleteIfExists(file);
+                }
+                if (header != null) {
+                    closeChannel();
+                    PersistenceWriter.writeAtomically(file, header);
+                }
+                if (batch.hasRemaining()) {
+                    if (channel == null) {
+                        channel = FileChannel.open(file, StandardOpenOption.WRITE,
+                                StandardOpenOption.APPEND);
+                    }
+                    while (batch.hasRemaining()) {
+                        channel.write(batch);
+                    }
+                    channel.force(false);
+                }
+            } catch (IOException ex) {
+                error = ex;
+                try {
+                    closeChannel();
+                } catch (IOException ignored) {
+                    // the channel is dropped either way
+                }
+            }
+            synchronized (this) {
+                writing = false;
+                if (error != null) {
+                    failure = error;
+                    broken = true;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    void closeChannel() throws IOException {
+        if (channel != null) {
+            FileChannel open = channel;
+            channel = null;
+            open.close();
+        }
+    }
+
+    // The last write error, if any, cleared once read
+    public synchronized IOException takeFailure() {
+        IOException taken = failure;
+        failure = null;
+        return taken;
+    }
+
+    // Waits until every move recorded so far is on disk
+    public synchronized boolean drain(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (restart != null || delete || pending.position() > 0 || writing) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0 || !thread.isAlive()) {
+                return false;
+            }
+            wait(left);
+        }
+        return true;
+    }
+
+    public void close(long timeoutMillis) throws InterruptedException, IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        thread.join(timeoutMillis);
+        closeChannel();
+    }
+
+    // Puts the journaled game back into the engine: the checkpoint, then
+    // every readable entry after it. Returns the player's name, or null if
+    // there is no journal or its checkpoint cannot be read.
+    public static String recover(Path file, GameEngine game) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+        SavedGame checkpoint;
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                return null;
+            }
+            int length = in.getInt();
+            if (length < 0 || length > in.remaining()) {
+                return null;
+            }
+            byte[] saved = new byte[length];
+            in.get(saved);
+            checkpoint = SavedGame.decode(ByteBuffer.wrap(saved));
+        } catch (BufferUnderflowException | IOException | IllegalArgumentException ex) {
+            return null;
+        }
+        checkpoint.restore(game);
+        int columns = game.getPlayerBoard().getColumns();
+        try {
+            while (in.hasRemaining()) {
+                byte type = in.get();
+                int square = in.getInt();
+                int row = square / columns;
+                int column = square % columns;
+                if (type == CPU_SHIP || type == PLAYER_SHIP) {
+                    int shape = in.getInt();
+                    game.replayShip(type == PLAYER_SHIP, row, column, shape >> 1, (shape & 1) == 1);
+                } else if (type == CPU_SHOT || type == PLAYER_SHOT) {
+                    game.replayShot(type == PLAYER_SHOT, row, column);
+                } else {
+                    break;
+                }
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException ex) {
+            // torn tail; the moves before it stand
+        }
+        return checkpoint.getPlayerName();
+    }
+}
@@ -0,0 +1,301 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Hunting shots worked out ahead of time for one board size and fleet, so
+// a ComputerPlayer hunting for ships fires by table lookup rather than at
+// random. The book is made by placing the fleet the way the computer does,
+// a great many times: the first shot is the square most of those fleets
+// cover, the second the square most of the fleets the first shot missed
+// cover, and so on, until the book is full or too few fleets are left to
+// say. While every shot so far has missed the book is the best line the
+// samples show; after a hit the player picks up again at the first book
+// square not yet fired at.
+//
+// The file is mapped, not read, so loading costs nothing however long the
+// book. All ints, big-endian:
+//
+//   magic, version, rows, columns, ships, shots,
+//   the ship lengths (ships of them), the squares (shots of them, row-major)
+//
+//   java OpeningBook [samples] [shots] [file] [seed]
+// writes the book for -Dbattleship.board and -Dbattleship.fleet;
+// -Dbattleship.book=<file> then has the hunt and parity players use it.
+public class OpeningBook {
+
+    static final Logger LOG = Logger.getLogger(OpeningBook.class.getName());
+
+    static final int MAGIC = 0x42534F42;
+    static final int VERSION = 1;
+    // header fields after magic and version
+    static final int ROWS = 8;
+    static final int COLUMNS = 12;
+    static final int SHIPS = 16;
+    static final int SHOTS = 20;
+    static final int HEADER = 24;
+    // a shot needs this many sampled fleets left to be picked from
+    static final int MIN_SAMPLES = 1000;
+
+    static OpeningBook loaded;
+    static boolean triedLoading;
+
+    final ByteBuffer book;
+    final int rows;
+    final int columns;
+    final int[] fleet;
+    final int size;
+    // where the squares start
+    final int shotsAt;
+
+    OpeningBook(ByteBuffer book) throws IOException {
+        this.book = book;
+        if (book.capacity() < HEADER || book.getInt(0) != MAGIC) {
+            throw new IOException("Not an opening book");
+        }
+        if (book.getInt(4) != VERSION) {
+            throw new IOException("Unsupported opening book version " + book.getInt(4));
+        }
+        rows = book.getInt(ROWS);
+        columns = book.getInt(COLUMNS);
+        int ships = book.getInt(SHIPS);
+        size = book.getInt(SHOTS);
+        // checked before the fleet array is made, as a huge count would
+        // also overflow shotsAt
+        if (ships < 0 || ships > (book.capacity() - HEADER) / 4) {
+            throw new IOException("Opening book is truncated or corrupt");
+        }
+        shotsAt = HEADER + 4 * ships;
+        if (rows < 1 || columns < 1 || size < 0
+                || (long) shotsAt + 4L * size > book.capacity()) {
+            throw new IOException("Opening book is truncated or corrupt");
+        }
+        fleet = new int[ships];
+        for (int i = 0; i < ships; i++) {
+            fleet[i] = book.getInt(HEADER + 4 * i);
+        }
+        // a shot off the board would be fired as it stands, so none may be
+        if (rows > GameEngine.MAX_BOARD_SIZE || columns > GameEngine.MAX_BOARD_SIZE) {
+            throw new IOException("Opening book is for a " + rows + "x" + columns + " board");
+        }
+        for (int i = 0; i < size; i++) {
+            int square = shot(i);
+            if (square < 0 || square >= rows * columns) {
+                throw new IOException("Opening book shot " + i + " is off the board");
+            }
+        }
+    }
+
+    // Maps a book file
+    public static OpeningBook open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Opening book is too large to map");
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new OpeningBook(mapped);
+        }
+    }
+
+    // The book named by -Dbattleship.book, mapped the first time it is
+    // asked for; null if there is none or it cannot be read
+    public static synchronized OpeningBook loaded() {
+        if (!triedLoading) {
+            triedLoading = true;
+            String file = System.getProperty("battleship.book");
+            if (file != null) {
+                try {
+                    loaded = open(Paths.get(file));
+                } catch (IOException ex) {
+                    LOG.log(Level.WARNING, "Opening book " + file + " not used", ex);
+                }
+            }
+        }
+        return loaded;
+    }
+
+    // The loaded book if it was made for this fleet, or null
+    public static OpeningBook forFleet(int[] shipSizes) {
+        OpeningBook book = loaded();
+        return book != null && book.isFor(shipSizes) ? book : null;
+    }
+
+    public boolean isFor(int[] shipSizes) {
+        int[] sorted = shipSizes.clone();
+        Arrays.sort(sorted);
+        return Arrays.equals(sorted, fleet);
+    }
+
+    public boolean fits(Board target) {
+        return target.getRows() == rows && target.getColumns() == columns;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // The i-th shot, as a square index
+    public int shot(int i) {
+        return book.getInt(shotsAt + 4 * i);
+    }
+
+    // Places the fleet samples times over, as ComputerPlayer does, and picks
+    // up to shots squares from them
+    static int[] generate(final int rows, final int columns, final int[] fleet, final int samples,
+            int shots, final long seed) {
+        int length = 0;
+        for (int ship : fleet) {
+            length += ship;
+        }
+        if ((long) samples * length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many samples for this fleet: " + samples);
+        }
+        // the squares of every sampled fleet, one after another
+        final int shipSquares = length;
+        final int[] placed = new int[samples * shipSquares];
+        int parts = Math.max(1, Math.min(samples / 1000, 4 * ForkJoinPool.getCommonPoolParallelism()));
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int part = 0; part < parts; part++) {
+            final int from = (int) ((long) samples * part / parts);
+            final int to = (int) ((long) samples * (part + 1) / parts);
+            final long partSeed = Simulation.mix(seed, part);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    sample(rows, columns, fleet, new Random(partSeed), placed, from, to, shipSquares);
+                    return null;
+                }
+            });
+        }
+        try {
+            for (Future<Void> done : ForkJoinPool.commonPool().invokeAll(tasks)) {
+                done.get();
+            }
+        } catch (InterruptedException | ExecutionException ex) {
+            throw new IllegalStateException("Sampling fleets failed", ex);
+        }
+
+        // fleets every shot so far would have missed
+        int[] alive = new int[samples];
+        for (int i = 0; i < samples; i++) {
+            alive[i] = i;
+        }
+        int aliveCount = samples;
+        int[] counts = new int[rows * columns];
+        int[] book = new int[Math.min(shots, rows * columns)];
+        int size = 0;
+        while (size < book.length && aliveCount >= MIN_SAMPLES) {
+            Arrays.fill(counts, 0);
+            for (int a = 0; a < aliveCount; a++) {
+                for (int k = alive[a] * shipSquares, end = k + shipSquares; k < end; k++) {
+                    counts[placed[k]]++;
+                }
+            }
+            // the book's squares so far are on none of these fleets, so they
+            // count 0 and are never picked again
+            int best = 0;
+            for (int square = 1; square < counts.length; square++) {
+                if (counts[square] > counts[best]) {
+                    best = square;
+                }
+            }
+            if (counts[best] == 0) {
+                break;
+            }
+            book[size++] = best;
+            int kept = 0;
+            for (int a = 0; a < aliveCount; a++) {
+                if (!covers(placed, alive[a] * shipSquares, shipSquares, best)) {
+                    alive[kept++] = alive[a];
+                }
+            }
+            aliveCount = kept;
+        }
+        return Arrays.copyOf(book, size);
+    }
+
+    static void sample(int rows, int columns, int[] fleet, Random random, int[] placed,
+            int from, int to, int shipSquares) {
+        // one board for all of them, so its placement tables are built once
+        Board board = new Board(rows, columns);
+        ComputerPlayer placer = new ComputerPlayer(random);
+        for (int i = from; i < to; i++) {
+            board.clear();
+            placer.placeFleet(board, fleet);
+            int at = i * shipSquares;
+            for (int ship = 0; ship < board.shipCount; ship++) {
+                int step = board.isShipHorizontal(ship) ? 1 : columns;
+                int square = board.getShipStart(ship);
+                for (int k = 0; k < board.getShipLength(ship); k++, square += step) {
+                    placed[at++] = square;
+                }
+            }
+        }
+    }
+
+    static boolean covers(int[] placed, int from, int count, int square) {
+        for (int k = from; k < from + count; k++) {
+            if (placed[k] == square) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static void write(Path file, int rows, int columns, int[] fleet, int[] shots) throws IOException {
+        int[] sorted = fleet.clone();
+        Arrays.sort(sorted);
+        ByteBuffer out = ByteBuffer.allocate(HEADER + 4 * (sorted.length + shots.length))
+                .order(ByteOrder.BIG_ENDIAN);
+        out.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(columns)
+                .putInt(sorted.length).putInt(shots.length);
+        for (int ship : sorted) {
+            out.putInt(ship);
+        }
+        for (int square : shots) {
+            out.putInt(square);
+        }
+        out.flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int samples = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int shots = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        Path file = Paths.get(args.length > 2 ? args[2] : "opening.book");
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+
+        int[] size = GameEngine.boardSizeProperty();
+        int[] fleet = GameEngine.fleetProperty();
+        GameEngine.checkConfiguration(size[0], size[1], fleet);
+        long start = System.nanoTime();
+        int[] book = generate(size[0], size[1], fleet, samples, shots, seed);
+        write(file, size[0], size[1], fleet, book);
+        System.out.printf("%d shots from %d fleets in %.1f s, written to %s%n", book.length,
+                samples, (System.nanoTime() - start) / 1e9, file);
+        StringBuilder line = new StringBuilder();
+        for (int square : book) {
+            line.append(' ').append(square / size[1]).append(',').append(square % size[1]);
+        }
+        System.out.println("book (row,column):" + line);
+    }
+}
@@ -0,0 +1,200 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Writes files on a background thread so a slow disk never holds up the
+// board. Callers capture what to write (cheaply, on their own thread) and
+// submit it under a key. A task still waiting when another comes in under
+// the same key is replaced, so a burst of saves becomes one write of the
+// latest state. Outcomes and how long each took go to the listener, on the
+// writer thread.
+public class PersistenceWriter {
+
+    public interface Task {
+
+        void write() throws IOException;
+    }
+
+    public interface Listener {
+
+        // nanos is from the first request the write covers until it was done
+        void written(String key, long nanos);
+
+        void failed(String key, IOException ex);
+    }
+
+    static class Pending {
+
+        Task task;
+        final long since;
+
+        Pending(Task task, long since) {
+            this.task = task;
+            this.since = since;
+        }
+    }
+
+    // waiting tasks by key, oldest key first; guarded by this
+    final LinkedHashMap<String, Pending> pending = new LinkedHashMap<String, Pending>();
+    final Thread thread;
+    final Listener listener;
+    boolean writing;
+    boolean closed;
+    // counters, guarded by this
+    long writes;
+    long failures;
+    long coalesced;
+    long lastNanos;
+    long maxNanos;
+
+    public PersistenceWriter(String name, Listener listener) {
+        this.listener = listener;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void submit(String key, Task task) {
+        if (closed) {
+            throw new IllegalStateException("Writer is closed");
+        }
+        Pending waiting = pending.get(key);
+        if (waiting != null) {
+            waiting.task = task;
+            coalesced++;
+        } else {
+            pending.put(key, new Pending(task, System.nanoTime()));
+            notifyAll();
+        }
+    }
+
+    void drainLoop() {
+        while (true) {
+            String key;
+            Pending next;
+            synchronized (this) {
+                while (pending.isEmpty() && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+                if (pending.isEmpty()) {
+                    return;
+                }
+                Map.Entry<String, Pending> first = pending.entrySet().iterator().next();
+                key = first.getKey();
+                next = first.getValue();
+                pending.remove(key);
+                writing = true;
+            }
+            IOException failure = null;
+            try {
+                next.task.write();
+            } catch (IOException ex) {
+                failure = ex;
+            } catch (RuntimeException ex) {
+                failure = new IOException(ex);
+            }
+            long nanos = System.nanoTime() - next.since;
+            // by kind, the key up to any space ("replay <file>" is a replay)
+            int space = key.indexOf(' ');
+            String kind = space == -1 ? key : key.substring(0, space);
+            if (failure == null) {
+                Metrics.shared().histogram("write." + kind).record(nanos);
+            } else {
+                Metrics.shared().counter("write." + kind + ".failures").increment();
+            }
+            synchronized (this) {
+                writing = false;
+                if (failure == null) {
+                    writes++;
+                    lastNanos = nanos;
+                    maxNanos = Math.max(maxNanos, nanos);
+                } else {
+                    failures++;
+                }
+                notifyAll();
+            }
+            if (listener != null) {
+                if (failure == null) {
+                    listener.written(key, nanos);
+                } else {
+                    listener.failed(key, failure);
+                }
+            }
+        }
+    }
+
+    // Waits until everything submitted so far has been written (or failed).
+    // Returns false if that took longer than the timeout.
+    public synchronized boolean drain(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!pending.isEmpty() || writing) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0 || !thread.isAlive()) {
+                return false;
+            }
+            wait(left);
+        }
+        return true;
+    }
+
+    // Writes whatever is waiting, then stops the thread
+    public boolean close(long timeoutMillis) throws InterruptedException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        thread.join(timeoutMillis);
+        return !thread.isAlive();
+    }
+
+    public synchronized long getWrites() {
+        return writes;
+    }
+
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    public synchronized long getCoalesced() {
+        return coalesced;
+    }
+
+    public synchronized long getLastNanos() {
+        return lastNanos;
+    }
+
+    public synchronized long getMaxNanos() {
+        return maxNanos;
+    }
+
+    // Replaces the file with the bytes left in data: they go to a temp file
+    // next to it, are forced to disk, and the temp file is renamed over the
+    // original, so a crash leaves either the old file or the new one
+    public static void writeAtomically(Path file, ByteBuffer data) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,197 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Every legal spot for a ship of one length on a board of one size, with the
+// squares each spot covers precomputed as bitmasks over the board's words.
+// Checking a spot against the ships already placed is then a few ANDs, and
+// a random free spot is drawn from the table rather than by retrying random
+// squares. Tables are immutable and shared by all games of the same size.
+// Masks take about 12 bytes per square covered by each spot, so on boards
+// above PRECOMPUTE_LIMIT squares they are worked out when needed instead.
+public class PlacementTable {
+
+    static final ConcurrentHashMap<Long, PlacementTable> tables =
+            new ConcurrentHashMap<Long, PlacementTable>();
+
+    // random draws tried before listing every free placement
+    static final int DRAWS = 8;
+    // largest board, in squares, whose masks are precomputed
+    static final int PRECOMPUTE_LIMIT = 1 << 14;
+
+    final int rows;
+    final int columns;
+    final int length;
+    // placements [0, horizontal) lie along a row, the rest down a column
+    final int horizontal;
+    final int count;
+    // the squares of placement p are maskBits[i] in word maskWord[i],
+    // for i in [maskOffset[p], maskOffset[p + 1]); null on large boards
+    final int[] maskOffset;
+    final int[] maskWord;
+    final long[] maskBits;
+
+    public static PlacementTable of(int rows, int columns, int length) {
+        Long key = ((long) rows << 42) | ((long) columns << 21) | length;
+        PlacementTable table = tables.get(key);
+        if (table == null) {
+            table = new PlacementTable(rows, columns, length);
+            PlacementTable existing = tables.putIfAbsent(key, table);
+            if (existing != null) {
+                table = existing;
+            }
+        }
+        return table;
+    }
+
+    PlacementTable(int rows, int columns, int length) {
+        this.rows = rows;
+        this.columns = columns;
+        this.length = length;
+        int across = Math.max(columns - length + 1, 0);
+        int down = Math.max(rows - length + 1, 0);
+        this.horizontal = rows * across;
+        this.count = horizontal + down * columns;
+        if ((long) rows * columns > PRECOMPUTE_LIMIT) {
+            maskOffset = null;
+            maskWord = null;
+            maskBits = null;
+            return;
+        }
+
+        maskOffset = new int[count + 1];
+        int[] words = new int[count * length];
+        long[] bits = new long[count * length];
+        int entries = 0;
+        for (int p = 0; p < count; p++) {
+            maskOffset[p] = entries;
+            int square = startOf(p);
+            int step = p < horizontal ? 1 : columns;
+            for (int i = 0; i < length; i++, square += step) {
+                int word = square >>> 6;
+                if (entries == maskOffset[p] || words[entries - 1] != word) {
+                    words[entries] = word;
+                    entries++;
+                }
+                bits[entries - 1] |= 1L << square;
+            }
+        }
+        maskOffset[count] = entries;
+        maskWord = Arrays.copyOf(words, entries);
+        maskBits = Arrays.copyOf(bits, entries);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int startOf(int placement) {
+        if (placement < horizontal) {
+            int across = columns - length + 1;
+            return (placement / across) * columns + placement % across;
+        }
+        return placement - horizontal;
+    }
+
+    public boolean isHorizontal(int placement) {
+        return placement < horizontal;
+    }
+
+    // The placement starting at (row, column), or -1 if the ship would
+    // leave the board
+    public int indexOf(int row, int column, boolean isHorizontal) {
+        if (row < 0 || column < 0 || length > (isHorizontal ? columns : rows)) {
+            return -1;
+        }
+        if (isHorizontal) {
+            int across = columns - length + 1;
+            return row < rows && column < across ? row * across + column : -1;
+        }
+        return row + length <= rows && column < columns
+                ? horizontal + row * columns + column : -1;
+    }
+
+    // true if the placement does not overlap a ship already on the board
+    public boolean fits(Board board, int placement) {
+        long[] ships = board.ships;
+        if (maskOffset == null) {
+            return fitsUncached(ships, placement);
+        }
+        for (int i = maskOffset[placement]; i < maskOffset[placement + 1]; i++) {
+            if ((ships[maskWord[i]] & maskBits[i]) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean fitsUncached(long[] ships, int placement) {
+        int square = startOf(placement);
+        if (placement < horizontal) {
+            // a run of length bits, over at most two words when length <= 64
+            int end = square + length;
+            while (square < end) {
+                int word = square >>> 6;
+                int bits = Math.min(end - square, 64 - (square & 63));
+                long run = (bits == 64 ? -1L : (1L << bits) - 1) << square;
+                if ((ships[word] & run) != 0) {
+                    return false;
+                }
+                square += bits;
+            }
+            return true;
+        }
+        for (int i = 0; i < length; i++, square += columns) {
+            if (Board.isSet(ships, square)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void place(Board board, int placement) {
+        int start = startOf(placement);
+        board.place(start / columns, start % columns, length, isHorizontal(placement));
+    }
+
+    // A placement chosen uniformly from those that fit, or -1 if none does.
+    // On a mostly empty board one of a few draws from the table fits; on a
+    // crowded one the free placements are listed and one picked from those.
+    // Either way every free placement is equally likely. The free ones are
+    // listed in scratch if it holds size() entries, or else counted and the
+    // chosen one found on a second pass.
+    public int sample(Board board, Random random, int[] scratch) {
+        if (count == 0) {
+            return -1;
+        }
+        for (int i = 0; i < DRAWS; i++) {
+            int p = random.nextInt(count);
+            if (fits(board, p)) {
+                return p;
+            }
+        }
+        int free = 0;
+        if (scratch != null && scratch.length >= count) {
+            for (int p = 0; p < count; p++) {
+                if (fits(board, p)) {
+                    scratch[free++] = p;
+                }
+            }
+            return free == 0 ? -1 : scratch[random.nextInt(free)];
+        }
+        for (int p = 0; p < count; p++) {
+            if (fits(board, p)) {
+                free++;
+            }
+        }
+        if (free == 0) {
+            return -1;
+        }
+        int chosen = random.nextInt(free);
+        for (int p = 0; ; p++) {
+            if (fits(board, p) && chosen-- == 0) {
+                return p;
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Where player records are kept. StatsStore holds them all in memory and
+// appends each change to a StatsLog; MappedStats keeps them in fixed-size
+// slots of a memory-mapped file and reads only the pages it needs.
+// Records handed out are copies or live objects depending on the backend;
+// change them only through these methods.
+public interface PlayerStats {
+
+    // Orders the records can be listed in. JOINED is the order players
+    // first appeared; NAME is alphabetical; the rest list the highest first.
+    // Ties go to whoever joined first.
+    enum Order {
+
+        JOINED, NAME, WINS, LOSSES, AVERAGE, BEST
+    }
+
+    int size();
+
+    // null if there is no such player
+    BattleshipGUI.PlayerRecord get(String name);
+
+    // The record at a position in the given order, 0 being the first
+    BattleshipGUI.PlayerRecord get(Order order, int position);
+
+    // Position of the player in the given order, or -1 if there is no such player
+    int rank(Order order, String name);
+
+    BattleshipGUI.PlayerRecord recordMatch(String name, int score) throws IOException;
+
+    void clearBest(String name) throws IOException;
+
+    void remove(String name) throws IOException;
+
+    void clear() throws IOException;
+
+    // Captures what flush() would write, on the calling thread, and returns
+    // a task that writes it. The task may run on another thread while the
+    // stats go on changing.
+    PersistenceWriter.Task flushTask() throws IOException;
+
+    // Makes everything durable now rather than as the backend sees fit
+    default void flush() throws IOException {
+        flushTask().write();
+    }
+
+    void close() throws IOException;
+
+    // Number of players whose names sort before the given name. Players
+    // whose names start with a prefix are the NAME positions from
+    // nameRank(prefix) up to nameRank(prefix + '\uffff').
+    default int nameRank(String name) {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (get(Order.NAME, middle).name.compareTo(name) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    default List<BattleshipGUI.PlayerRecord> top(Order order, int count) {
+        count = Math.min(count, size());
+        ArrayList<BattleshipGUI.PlayerRecord> top = new ArrayList<BattleshipGUI.PlayerRecord>(count);
+        for (int i = 0; i < count; i++) {
+            top.add(get(order, i));
+        }
+        return top;
+    }
+}
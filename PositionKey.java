@@ -0,0 +1,104 @@
+// Zobrist hash of what the shots at a board have shown: which squares are
+// misses, hits on ships still afloat or squares of sunk ships, how many
+// ships of each length are still afloat, and the board's size. Positions
+// with the same evidence get the same key whatever order the shots came in,
+// so anything worked out from the evidence alone can be looked up by it.
+//
+// The key is the XOR of one random number per (square, state) and per
+// (length, ships of that length afloat), so each shot only XORs in a number
+// or two. The numbers are made on the fly by Simulation.mix rather than kept
+// in tables, which a 1000x1000 board would make large.
+public class PositionKey {
+
+    static final int MISS = 0;
+    static final int HIT = 1;
+    static final int SUNK = 2;
+
+    static final long SQUARE_SEED = 0x2545F4914F6CDD1DL;
+    static final long FLEET_SEED = 0x5851F42D4C957F2DL;
+    static final long SIZE_SEED = 0x14057B7EF767814FL;
+
+    final int columns;
+    // ships afloat, indexed by length
+    final int[] afloat;
+    long hash;
+
+    PositionKey(int columns, int[] afloat, long hash) {
+        this.columns = columns;
+        this.afloat = afloat;
+        this.hash = hash;
+    }
+
+    // The key for the board as it stands, fired at by a side whose fleet is
+    // the one given. Sunk ships are told by the board's ship list.
+    public static PositionKey of(Board target, int[] fleet) {
+        int columns = target.getColumns();
+        int longest = 0;
+        for (int length : fleet) {
+            longest = Math.max(longest, length);
+        }
+        int[] afloat = new int[longest + 1];
+        for (int length : fleet) {
+            afloat[length]++;
+        }
+        long hash = Simulation.mix(SIZE_SEED, ((long) target.getRows() << 32) | columns);
+        for (int w = 0; w < target.shots.length; w++) {
+            for (long bits = target.shots[w]; bits != 0; bits &= bits - 1) {
+                int square = (w << 6) + Long.numberOfTrailingZeros(bits);
+                hash ^= squareKey(square, Board.isSet(target.ships, square) ? HIT : MISS);
+            }
+        }
+        PositionKey key = new PositionKey(columns, afloat, hash);
+        for (int length = 1; length <= longest; length++) {
+            key.hash ^= fleetKey(length, afloat[length]);
+        }
+        for (int ship = 0; ship < target.shipCount; ship++) {
+            if (target.isSunk(ship)) {
+                key.sink(target, ship);
+            }
+        }
+        return key;
+    }
+
+    static long squareKey(int square, int state) {
+        return Simulation.mix(SQUARE_SEED, square * 3L + state);
+    }
+
+    // none afloat adds nothing, so a length the fleet never had does not
+    // change the key
+    static long fleetKey(int length, int count) {
+        return count == 0 ? 0 : Simulation.mix(FLEET_SEED, ((long) length << 32) | count);
+    }
+
+    public long hash() {
+        return hash;
+    }
+
+    // Adds a shot just fired at the board
+    public void fired(Board target, int row, int column, int result) {
+        int square = row * columns + column;
+        if (result != Board.HIT) {
+            hash ^= squareKey(square, MISS);
+            return;
+        }
+        hash ^= squareKey(square, HIT);
+        int ship = target.shipAt(row, column);
+        if (ship >= 0 && target.isSunk(ship)) {
+            sink(target, ship);
+        }
+    }
+
+    // The ship's squares go from hits to sunk, and one fewer of its length
+    // is afloat
+    void sink(Board target, int ship) {
+        int length = target.getShipLength(ship);
+        int step = target.isShipHorizontal(ship) ? 1 : columns;
+        for (int i = 0, square = target.getShipStart(ship); i < length; i++, square += step) {
+            hash ^= squareKey(square, HIT) ^ squareKey(square, SUNK);
+        }
+        if (length < afloat.length && afloat[length] > 0) {
+            hash ^= fleetKey(length, afloat[length]) ^ fleetKey(length, afloat[length] - 1);
+            afloat[length]--;
+        }
+    }
+}
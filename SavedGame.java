@@ -0,0 +1,315 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+// A game in progress as stored in the save file. The file is a small
+// versioned binary record, big-endian, written and read through a channel:
+//
+//   magic "BSAV", version (1 byte)
+//   rows, columns, ships placed (varints)
+//   player name (varint byte count, UTF-8)
+//   player board, then CPU board:
+//     squares, 4 to a byte, 2 bits each (Board.EMPTY..MISS), row-major
+//     ship count, then start square and length * 2 + (1 if horizontal)
+//     for each ship (varints)
+//   CPU search: move index + 1 (1 byte), a byte with bit i set if
+//     direction i has a square, then those squares (varints)
+//   version 2 on: ship count and each ship's length (varints); version 1
+//     files are the default fleet
+//   CRC32 of everything before it (4 bytes)
+//
+// Varints are unsigned LEB128, at most 31 bits: every number in the file is
+// a count, a length or a square, and a larger one means the file is bad.
+// Squares must be on the board. A 10x10 game comes to about 100 bytes. Newer
+// versions may only add fields after the ones above; readers reject versions
+// they do not know rather than guess.
+public class SavedGame {
+
+    static final int MAGIC = 0x42534156;
+    static final int VERSION = 2;
+    // far larger than any board we allow; guards against reading junk
+    static final long MAX_SIZE = 1 << 26;
+
+    final Board playerBoard;
+    final Board computerBoard;
+    final String playerName;
+    final int[] fleet;
+    final int shipsPlaced;
+    final int[][] computerMoves;
+    final int computerMoveIndex;
+
+    // Captures the game as it stands; the engine's boards are shared, not
+    // copied, so write it out (or take a writeTask) before the game moves on
+    public SavedGame(GameEngine game, String playerName) {
+        this(game.getPlayerBoard(), game.getComputerBoard(), playerName,
+                game.getShipSizes(), game.getPlacements(),
+                searchMoves(game.getComputer()), searchIndex(game.getComputer()));
+    }
+
+    // The CPU's search state, for the baseline player; other strategies
+    // are saved as having none
+    static int[][] searchMoves(Strategy computer) {
+        return computer instanceof ComputerPlayer
+                ? ((ComputerPlayer) computer).getPossibleMoves() : new int[][]{null, null, null, null};
+    }
+
+    static int searchIndex(Strategy computer) {
+        return computer instanceof ComputerPlayer ? ((ComputerPlayer) computer).getMoveIndex() : -1;
+    }
+
+    SavedGame(Board playerBoard, Board computerBoard, String playerName, int[] fleet,
+            int shipsPlaced, int[][] computerMoves, int computerMoveIndex) {
+        this.playerBoard = playerBoard;
+        this.computerBoard = computerBoard;
+        this.playerName = playerName == null ? "" : playerName;
+        this.fleet = fleet;
+        this.shipsPlaced = shipsPlaced;
+        this.computerMoves = computerMoves;
+        this.computerMoveIndex = computerMoveIndex;
+    }
+
+    public String getPlayerName() {
+        return playerName;
+    }
+
+    // Puts the saved game into the engine, boards, fleet and all.
+    // Throws IllegalArgumentException if the engine cannot take it.
+    public void restore(GameEngine game) {
+        game.restore(playerBoard, computerBoard, fleet, shipsPlaced,
+                computerMoves, computerMoveIndex);
+    }
+
+    public int getRows() {
+        return playerBoard.getRows();
+    }
+
+    public int getColumns() {
+        return playerBoard.getColumns();
+    }
+
+    public void write(Path file) throws IOException {
+        writeTask(file).write();
+    }
+
+    // Encodes the game now and returns a task that writes it out, which is
+    // safe to run on another thread while the game moves on
+    public PersistenceWriter.Task writeTask(final Path file) {
+        final ByteBuffer buffer = encode();
+        return new PersistenceWriter.Task() {
+            @Override
+            public void write() throws IOException {
+                PersistenceWriter.writeAtomically(file, buffer);
+            }
+        };
+    }
+
+    public static SavedGame read(Path file) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > MAX_SIZE) {
+                throw new IOException("Save file too large: " + size + " bytes");
+            }
+            buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+            }
+        }
+        buffer.flip();
+        return decode(buffer);
+    }
+
+    ByteBuffer encode() {
+        byte[] name = playerName.getBytes(StandardCharsets.UTF_8);
+        int rows = playerBoard.getRows();
+        int columns = playerBoard.getColumns();
+        int bound = 4 + 1 + 3 * 5 + 5 + name.length + 1 + 2 + 4 * 5
+                + 5 + fleet.length * 5 + 4;
+        for (Board board : new Board[]{playerBoard, computerBoard}) {
+            bound += (rows * columns + 3) / 4 + 5 + board.shipCount * 10;
+        }
+        ByteBuffer out = ByteBuffer.allocate(bound);
+        out.putInt(MAGIC);
+        out.put((byte) VERSION);
+        putVarint(out, rows);
+        putVarint(out, columns);
+        putVarint(out, shipsPlaced);
+        putVarint(out, name.length);
+        out.put(name);
+        putBoard(out, playerBoard);
+        putBoard(out, computerBoard);
+
+        out.put((byte) (computerMoveIndex + 1));
+        int present = 0;
+        for (int i = 0; i < 4; i++) {
+            if (computerMoves[i] != null) {
+                present |= 1 << i;
+            }
+        }
+        out.put((byte) present);
+        for (int i = 0; i < 4; i++) {
+            if (computerMoves[i] != null) {
+                putVarint(out, computerMoves[i][0] * columns + computerMoves[i][1]);
+            }
+        }
+        putVarint(out, fleet.length);
+        for (int length : fleet) {
+            putVarint(out, length);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(out.array(), 0, out.position());
+        out.putInt((int) crc.getValue());
+        out.flip();
+        return out;
+    }
+
+    static void putBoard(ByteBuffer out, Board board) {
+        int squares = board.getRows() * board.getColumns();
+        int packed = 0;
+        for (int i = 0; i < squares; i++) {
+            packed |= board.get(i / board.getColumns(), i % board.getColumns()) << ((i & 3) * 2);
+            if ((i & 3) == 3 || i == squares - 1) {
+                out.put((byte) packed);
+                packed = 0;
+            }
+        }
+        putVarint(out, board.shipCount);
+        for (int ship = 0; ship < board.shipCount; ship++) {
+            putVarint(out, board.shipStart[ship]);
+            putVarint(out, board.shipShape[ship]);
+        }
+    }
+
+    static SavedGame decode(ByteBuffer in) throws IOException {
+        if (in.remaining() < 9 || in.getInt(0) != MAGIC) {
+            throw new IOException("Not a saved game");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(in.array(), 0, in.limit() - 4);
+        if ((int) crc.getValue() != in.getInt(in.limit() - 4)) {
+            throw new IOException("Saved game is damaged (checksum mismatch)");
+        }
+        in.limit(in.limit() - 4);
+        in.position(4);
+        int version = in.get() & 0xFF;
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported save version " + version);
+        }
+        try {
+            int rows = getVarint(in);
+            int columns = getVarint(in);
+            if (rows <= 0 || columns <= 0 || rows > GameEngine.MAX_BOARD_SIZE
+                    || columns > GameEngine.MAX_BOARD_SIZE) {
+                throw new IOException("Bad board size " + rows + "x" + columns);
+            }
+            int shipsPlaced = getVarint(in);
+            byte[] name = new byte[getCount(in)];
+            in.get(name);
+            Board player = getBoard(in, rows, columns);
+            Board computer = getBoard(in, rows, columns);
+
+            int moveIndex = (in.get() & 0xFF) - 1;
+            int present = in.get() & 0xFF;
+            int[][] moves = new int[4][];
+            for (int i = 0; i < 4; i++) {
+                if ((present & (1 << i)) != 0) {
+                    int square = getVarint(in);
+                    if (square >= rows * columns) {
+                        throw new IOException("Bad CPU search state");
+                    }
+                    moves[i] = new int[]{square / columns, square % columns};
+                }
+            }
+            if (moveIndex < -1 || moveIndex > 3
+                    || (moveIndex >= 0 && moves[moveIndex] == null)) {
+                throw new IOException("Bad CPU search state");
+            }
+            int[] fleet = GameEngine.DEFAULT_FLEET;
+            if (version >= 2) {
+                fleet = new int[getCount(in)];
+                for (int i = 0; i < fleet.length; i++) {
+                    fleet[i] = getVarint(in);
+                }
+            }
+            return new SavedGame(player, computer, new String(name, StandardCharsets.UTF_8),
+                    fleet, shipsPlaced, moves, moveIndex);
+        } catch (BufferUnderflowException ex) {
+            throw new IOException("Saved game is truncated", ex);
+        }
+    }
+
+    static Board getBoard(ByteBuffer in, int rows, int columns) throws IOException {
+        Board board = new Board(rows, columns);
+        int squares = rows * columns;
+        int packed = 0;
+        for (int i = 0; i < squares; i++) {
+            if ((i & 3) == 0) {
+                packed = in.get() & 0xFF;
+            }
+            int state = (packed >> ((i & 3) * 2)) & 3;
+            if (state != Board.EMPTY) {
+                board.set(i / columns, i % columns, state);
+            }
+        }
+        int ships = getVarint(in);
+        for (int ship = 0; ship < ships; ship++) {
+            int start = getVarint(in);
+            int shape = getVarint(in);
+            int length = shape >> 1;
+            boolean horizontal = (shape & 1) == 1;
+            int row = start / columns;
+            int column = start % columns;
+            if (start >= squares || length == 0
+                    || (horizontal ? column + length > columns : row + length > rows)) {
+                throw new IOException("Bad ship in saved game");
+            }
+            for (int i = 0; i < length; i++) {
+                int state = horizontal ? board.get(row, column + i) : board.get(row + i, column);
+                if (state != Board.SHIP && state != Board.HIT) {
+                    throw new IOException("Bad ship in saved game");
+                }
+            }
+            board.addShip(start, shape);
+        }
+        return board;
+    }
+
+    static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static int getVarint(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.get() & 0xFF;
+            // the fifth byte holds bits 28 to 30; anything above is too big
+            if (shift == 28 && (b & 0x78) != 0) {
+                break;
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Bad number in saved game");
+    }
+
+    // A count of things still to be read, each at least a byte, so no more
+    // than there are bytes left
+    static int getCount(ByteBuffer in) throws IOException {
+        int count = getVarint(in);
+        if (count > in.remaining()) {
+            throw new IOException("Saved game is truncated");
+        }
+        return count;
+    }
+}
@@ -0,0 +1,150 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+// Results worked out for a position, by PositionKey, shared by every thread
+// that plays: a tournament plays many games at once and keeps reaching the
+// same positions. It is bounded. The entries are split into stripes by key,
+// each with its own lock and its share of the capacity, and a full stripe
+// drops its least recently used entry. Threads only wait on each other when
+// they want the same stripe at the same moment.
+//
+// The capacity (entries) can be set with -Dbattleship.cache.
+public class ShotCache {
+
+    static final int STRIPES = 64;
+    static final int DEFAULT_CAPACITY = 1 << 14;
+
+    static final ShotCache SHARED = new ShotCache(capacityProperty());
+
+    // What was worked out for one position
+    public static class Entry {
+
+        // the squares tied for best; a shot picks one of them at random
+        final int[] best;
+        // the squares looked at, ascending, and the share of configurations
+        // putting a ship on each
+        final int[] squares;
+        final float[] heat;
+
+        public Entry(int[] best, int[] squares, float[] heat) {
+            this.best = best;
+            this.squares = squares;
+            this.heat = heat;
+        }
+
+        // A best square, or -1 if there is none
+        public int pick(Random random) {
+            return best.length == 0 ? -1 : best[best.length == 1 ? 0 : random.nextInt(best.length)];
+        }
+
+        public float heat(int square) {
+            int i = Arrays.binarySearch(squares, square);
+            return i < 0 ? 0 : heat[i];
+        }
+    }
+
+    // A share of the entries, least recently used first
+    static class Stripe extends LinkedHashMap<Long, Entry> {
+
+        final int capacity;
+
+        Stripe(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, ShotCache.Entry> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    final Stripe[] stripes = new Stripe[STRIPES];
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+
+    public ShotCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Cache capacity must be at least 1, got " + capacity);
+        }
+        for (int i = 0; i < STRIPES; i++) {
+            // spread the capacity, the first few stripes taking the remainder
+            stripes[i] = new Stripe(capacity / STRIPES + (i < capacity % STRIPES ? 1 : 0));
+        }
+    }
+
+    public static ShotCache shared() {
+        return SHARED;
+    }
+
+    static int capacityProperty() {
+        String text = System.getProperty("battleship.cache");
+        return text == null ? DEFAULT_CAPACITY : Integer.parseInt(text.trim());
+    }
+
+    // every key is an XOR of well mixed numbers, so its low bits will do
+    Stripe stripe(long key) {
+        return stripes[(int) key & (STRIPES - 1)];
+    }
+
+    // The entry for a position, or null
+    public Entry get(long key) {
+        Stripe stripe = stripe(key);
+        Entry entry;
+        synchronized (stripe) {
+            entry = stripe.get(key);
+        }
+        if (entry == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return entry;
+    }
+
+    public void put(long key, Entry entry) {
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            stripe.put(key, entry);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+        hits.reset();
+        misses.reset();
+    }
+
+    @Override
+    public String toString() {
+        long hit = getHits();
+        long looked = hit + getMisses();
+        return String.format("%d entries, %d of %d lookups hit (%.1f%%)", size(), hit, looked,
+                looked == 0 ? 0 : 100.0 * hit / looked);
+    }
+}
@@ -0,0 +1,302 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Batch mode: plays CPU against CPU with no GUI, spread over all cores.
+// Every game gets its own random streams derived from the seed and the game's
+// number, so results are the same whatever the thread count or work split.
+//
+// usage: java Simulation [games] [seed] [first strategy] [second strategy]
+// (strategies by name, see Strategies)
+public class Simulation {
+
+    // games per fork-join leaf task
+    static final int BATCH = 512;
+    // buckets of the move time histograms; see timeBucket()
+    static final int TIME_BUCKETS = 256;
+
+    final int rows;
+    final int columns;
+    final int[] shipSizes;
+    final Strategy.Factory[] players;
+    final long seed;
+    // whether each shot is timed; costs a clock read or two per shot
+    boolean timed;
+
+    public Simulation(Strategy.Factory first, Strategy.Factory second, long seed) {
+        this(GameEngine.BOARD_SIZE, GameEngine.BOARD_SIZE,
+                GameEngine.DEFAULT_FLEET, first, second, seed);
+    }
+
+    public Simulation(int rows, int columns, int[] shipSizes,
+            Strategy.Factory first, Strategy.Factory second, long seed) {
+        this.rows = rows;
+        this.columns = columns;
+        this.shipSizes = shipSizes;
+        this.players = new Strategy.Factory[]{first, second};
+        this.seed = seed;
+    }
+
+    // Times every shot (picking the square, firing, updating the search),
+    // for Result's move times
+    public void setTimed(boolean timed) {
+        this.timed = timed;
+    }
+
+    // Histogram bucket for a time: exact below 8ns, then four buckets per
+    // power of two, so each is within 25% of the times in it
+    static int timeBucket(long nanos) {
+        if (nanos < 8) {
+            return (int) Math.max(nanos, 0);
+        }
+        int log = 63 - Long.numberOfLeadingZeros(nanos);
+        return 8 + (log - 3) * 4 + (int) ((nanos >>> (log - 2)) & 3);
+    }
+
+    // The shortest time in a bucket
+    static long bucketNanos(int bucket) {
+        if (bucket < 8) {
+            return bucket;
+        }
+        int log = (bucket - 8) / 4 + 3;
+        return (4L + (bucket - 8) % 4) << (log - 2);
+    }
+
+    // Totals for a range of games; merged up the fork-join tree
+    public static class Result {
+
+        final long[] wins = new long[2];
+        // [winner][shots the winner needed] -> games; both as long as the
+        // longest game so far needs, which on a large board is far short of
+        // one slot per square
+        long[][] shotsToWin = new long[2][0];
+        // shots each side fired, won or lost
+        final long[] moves = new long[2];
+        // when timed: [side][timeBucket] -> shots, and their total time
+        final long[][] moveTimes = new long[2][TIME_BUCKETS];
+        final long[] moveNanos = new long[2];
+        long nanos;
+
+        void won(int side, int shots) {
+            if (shots >= shotsToWin[0].length) {
+                grow(Math.max(shots + 1, 2 * shotsToWin[0].length));
+            }
+            wins[side]++;
+            shotsToWin[side][shots]++;
+        }
+
+        void grow(int length) {
+            for (int side = 0; side < 2; side++) {
+                shotsToWin[side] = Arrays.copyOf(shotsToWin[side], length);
+            }
+        }
+
+        void add(Result other) {
+            if (other.shotsToWin[0].length > shotsToWin[0].length) {
+                grow(other.shotsToWin[0].length);
+            }
+            for (int side = 0; side < 2; side++) {
+                wins[side] += other.wins[side];
+                for (int i = 0; i < other.shotsToWin[side].length; i++) {
+                    shotsToWin[side][i] += other.shotsToWin[side][i];
+                }
+                moves[side] += other.moves[side];
+                moveNanos[side] += other.moveNanos[side];
+                for (int i = 0; i < TIME_BUCKETS; i++) {
+                    moveTimes[side][i] += other.moveTimes[side][i];
+                }
+            }
+        }
+
+        // Mean time a shot took, when timed
+        public double meanMoveNanos(int side) {
+            return moves[side] == 0 ? 0 : (double) moveNanos[side] / moves[side];
+        }
+
+        // e.g. percentileMoveNanos(0, 0.99); to within 25%, see timeBucket()
+        public long percentileMoveNanos(int side, double fraction) {
+            long rank = (long) Math.ceil(fraction * moves[side]);
+            long seen = 0;
+            for (int i = 0; i < TIME_BUCKETS; i++) {
+                seen += moveTimes[side][i];
+                if (seen >= rank && seen > 0) {
+                    return bucketNanos(i);
+                }
+            }
+            return 0;
+        }
+
+        public long games() {
+            return wins[0] + wins[1];
+        }
+
+        public double winRate(int side) {
+            return games() == 0 ? 0 : (double) wins[side] / games();
+        }
+
+        public double gamesPerSecond() {
+            return nanos == 0 ? 0 : games() * 1e9 / nanos;
+        }
+
+        // side 0 or 1, or -1 for both
+        public double meanShots(int side) {
+            long count = 0;
+            long total = 0;
+            for (int s = 0; s < 2; s++) {
+                if (side == -1 || side == s) {
+                    for (int i = 0; i < shotsToWin[s].length; i++) {
+                        count += shotsToWin[s][i];
+                        total += shotsToWin[s][i] * i;
+                    }
+                }
+            }
+            return count == 0 ? 0 : (double) total / count;
+        }
+
+        // e.g. percentileShots(-1, 0.9) is the 90th percentile over both sides
+        public int percentileShots(int side, double fraction) {
+            long count = 0;
+            for (int s = 0; s < 2; s++) {
+                if (side == -1 || side == s) {
+                    for (long n : shotsToWin[s]) {
+                        count += n;
+                    }
+                }
+            }
+            long rank = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for (int i = 0; i < shotsToWin[0].length; i++) {
+                for (int s = 0; s < 2; s++) {
+                    if (side == -1 || side == s) {
+                        seen += shotsToWin[s][i];
+                    }
+                }
+                if (seen >= rank && seen > 0) {
+                    return i;
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder out = new StringBuilder();
+            out.append(String.format("games      %d in %.2fs (%.0f games/sec)%n",
+                    games(), nanos / 1e9, gamesPerSecond()));
+            for (int side = -1; side < 2; side++) {
+                out.append(String.format("%-10s mean %.2f  p50 %d  p90 %d  p99 %d",
+                        side == -1 ? "all" : "player " + (side + 1), meanShots(side),
+                        percentileShots(side, 0.5), percentileShots(side, 0.9),
+                        percentileShots(side, 0.99)));
+                if (side >= 0) {
+                    out.append(String.format("  wins %.2f%%", 100 * winRate(side)));
+                    if (moveNanos[side] > 0) {
+                        out.append(String.format("  move %.0fns p99 %dns", meanMoveNanos(side),
+                                percentileMoveNanos(side, 0.99)));
+                    }
+                }
+                out.append(String.format("%n"));
+            }
+            return out.toString();
+        }
+    }
+
+    class Batch extends RecursiveTask<Result> {
+
+        final long from;
+        final long to;
+
+        Batch(long from, long to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Result compute() {
+            if (to - from <= BATCH) {
+                Result result = new Result();
+                Board[] boards = new Board[]{
+                    new Board(rows, columns), new Board(rows, columns)
+                };
+                for (long game = from; game < to; game++) {
+                    play(game, boards, result);
+                }
+                return result;
+            }
+            long middle = (from + to) >>> 1;
+            Batch right = new Batch(middle, to);
+            right.fork();
+            Result result = new Batch(from, middle).compute();
+            result.add(right.join());
+            return result;
+        }
+    }
+
+    // Plays game number `game`; sides alternate who shoots first
+    void play(long game, Board[] boards, Result result) {
+        Strategy[] sides = new Strategy[2];
+        for (int side = 0; side < 2; side++) {
+            sides[side] = players[side].create(
+                    new Random(mix(seed, 2 * game + side)), shipSizes);
+            boards[side].clear();
+            sides[side].placeFleet(boards[side], shipSizes);
+        }
+        int[] shots = new int[2];
+        int turn = (int) (game & 1);
+        while (true) {
+            Board target = boards[1 - turn];
+            shots[turn]++;
+            int shot;
+            if (timed) {
+                long start = System.nanoTime();
+                shot = sides[turn].fire(target);
+                long took = System.nanoTime() - start;
+                result.moveNanos[turn] += took;
+                result.moveTimes[turn][timeBucket(took)]++;
+            } else {
+                shot = sides[turn].fire(target);
+            }
+            if (shot == Board.HIT && target.squaresRemaining() == 0) {
+                result.won(turn, shots[turn]);
+                result.moves[0] += shots[0];
+                result.moves[1] += shots[1];
+                return;
+            }
+            turn = 1 - turn;
+        }
+    }
+
+    // SplitMix64 finalizer; spreads (seed, stream) into an independent seed
+    static long mix(long seed, long stream) {
+        long z = seed + (stream + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    public Result run(long games) {
+        return run(games, ForkJoinPool.commonPool());
+    }
+
+    public Result run(long games, ForkJoinPool pool) {
+        long start = System.nanoTime();
+        Result result = pool.invoke(new Batch(0, games));
+        result.nanos = System.nanoTime() - start;
+        return result;
+    }
+
+    public static void main(String[] args) {
+        long games = args.length > 0 ? Long.parseLong(args[0]) : 1000000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        Strategy.Factory first = Strategies.forName(args.length > 2 ? args[2] : "hunt");
+        Strategy.Factory second = Strategies.forName(args.length > 3 ? args[3] : "hunt");
+
+        // board and fleet as for the game, from -Dbattleship.board and -Dbattleship.fleet
+        int[] size = GameEngine.boardSizeProperty();
+        int[] fleet = GameEngine.fleetProperty();
+        GameEngine.checkConfiguration(size[0], size[1], fleet);
+        Simulation simulation = new Simulation(size[0], size[1], fleet, first, second, seed);
+        System.out.print(simulation.run(games));
+    }
+}
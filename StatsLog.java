@@ -0,0 +1,603 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// Player stats on disk as an append-only log. Each change is one entry
+// appended to record.<generation>.log, so recording a match costs the same
+// however many players there are. Every COMPACT_AFTER entries the log moves
+// on to a new generation and a background thread folds the finished ones
+// into record.snap. Loading reads the snapshot, then replays the logs after it.
+//
+// Recording only copies the entry into a buffer; a writer thread appends
+// whatever has collected and moves on to new generations in the same order,
+// so the event dispatch thread never waits on the disk. Write failures are
+// reported through BattleshipGUI.ioFailed. Replay stops at the first torn
+// entry in a log, so after a failed write the writer starts a new one.
+//
+// Log entries (big-endian; players are numbered as they first appear):
+//   'N' id, byte count, UTF-8 name    a new player
+//   'M' id, score                     a match, 9 bytes
+//   'R' id                            player removed
+//   'B' id                            best score reset
+//   'C'                               everything removed
+//
+// record.snap: magic "BSST", version, next id, first log generation it does
+// not cover, player count, then each player as id, name (byte count, UTF-8),
+// wins, losses, best, average. It is replaced by atomic rename.
+public class StatsLog {
+
+    static final byte NAME = 'N';
+    static final byte MATCH = 'M';
+    static final byte REMOVE = 'R';
+    static final byte CLEAR_BEST = 'B';
+    static final byte CLEAR = 'C';
+
+    static final int SNAPSHOT_MAGIC = 0x42535354;
+    static final int VERSION = 1;
+    // entries per log generation
+    static final int COMPACT_AFTER = 1 << 14;
+
+    final Path directory;
+    final ExecutorService compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "stats-compactor");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    // held while record.snap is rewritten or old logs deleted
+    final Object snapshotLock = new Object();
+    // first log generation record.snap does not cover; guarded by snapshotLock
+    long snapshotGeneration = -1;
+    final Thread thread;
+    // guarded by this: entries and new generations not yet taken by the
+    // writer thread, oldest first
+    final ArrayDeque<Batch> queue = new ArrayDeque<Batch>();
+    boolean writing;
+    boolean closed;
+    // ids of the players in the log; ids of removed players are not reused
+    final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+    int nextId;
+    // entries since the last new generation
+    int entries;
+    final ByteBuffer entry = ByteBuffer.allocate(9);
+    // only used by the writer thread once open() has returned
+    long generation;
+    FileChannel log;
+
+    public StatsLog(Path directory) {
+        this.directory = directory;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "stats-log");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Players as of the last entry written, in the order they first played.
+    // A record.ser from older versions is taken over on first use.
+    public List<BattleshipGUI.PlayerRecord> open() throws IOException {
+        Replay replay = new Replay();
+        Path snapshot = directory.resolve("record.snap");
+        List<Long> generations = logGenerations();
+        Path legacy = directory.resolve("record.ser");
+        if (!Files.exists(snapshot) && generations.isEmpty() && Files.exists(legacy)) {
+            List<BattleshipGUI.PlayerRecord> records = readLegacy(legacy);
+            generation = -1;
+            snapshot(records);
+            Files.move(legacy, directory.resolve("record.ser.migrated"),
+                    StandardCopyOption.REPLACE_EXISTING);
+            return records;
+        }
+        if (Files.exists(snapshot)) {
+            replay.readSnapshot(snapshot);
+        }
+        synchronized (snapshotLock) {
+            snapshotGeneration = replay.firstGeneration;
+        }
+        long valid = 0;
+        for (long g : generations) {
+            if (g < replay.firstGeneration) {
+                Files.deleteIfExists(logFile(g));
+            } else {
+                replay.entries = 0;
+                valid = replay.readLog(logFile(g));
+                generation = g;
+            }
+        }
+        if (generation < replay.firstGeneration) {
+            generation = replay.firstGeneration;
+            valid = 0;
+        }
+        ids.clear();
+        ids.putAll(replay.ids);
+        nextId = replay.nextId;
+        entries = replay.entries;
+        log = FileChannel.open(logFile(generation), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        // drop a half-written entry left by a crash
+        log.truncate(valid);
+        log.position(valid);
+        return new ArrayList<BattleshipGUI.PlayerRecord>(replay.records.values());
+    }
+
+    public void match(String name, int score) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = nextId++;
+            ids.put(name, id);
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer definition = ByteBuffer.allocate(9 + bytes.length);
+            definition.put(NAME).putInt(id).putInt(bytes.length).put(bytes);
+            append(definition);
+        }
+        entry.clear();
+        append(entry.put(MATCH).putInt(id).putInt(score));
+    }
+
+    public void remove(String name) {
+        Integer id = ids.remove(name);
+        if (id != null) {
+            entry.clear();
+            append(entry.put(REMOVE).putInt(id));
+        }
+    }
+
+    public void clearBest(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            entry.clear();
+            append(entry.put(CLEAR_BEST).putInt(id));
+        }
+    }
+
+    public void clear() {
+        ids.clear();
+        entry.clear();
+        append(entry.put(CLEAR));
+    }
+
+    void append(ByteBuffer buffer) {
+        buffer.flip();
+        synchronized (this) {
+            Batch last = queue.peekLast();
+            if (last == null) {
+                last = new Batch(false, false);
+                queue.add(last);
+            }
+            last.add(buffer);
+            notifyAll();
+        }
+        if (++entries >= COMPACT_AFTER) {
+            nextGeneration(true);
+        }
+    }
+
+    // Has the writer start a new generation after the entries so far, and
+    // fold the ones before it into the snapshot if asked. Returns the
+    // marker, which learns the new generation once the writer gets to it.
+    synchronized Batch nextGeneration(boolean compact) {
+        entries = 0;
+        Batch marker = new Batch(true, compact);
+        queue.add(marker);
+        notifyAll();
+        return marker;
+    }
+
+    void writeLoop() {
+        ArrayList<Batch> batches = new ArrayList<Batch>();
+        while (true) {
+            synchronized (this) {
+                while (queue.isEmpty() && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+                if (queue.isEmpty()) {
+                    return;
+                }
+                batches.addAll(queue);
+                queue.clear();
+                writing = true;
+            }
+            for (Batch batch : batches) {
+                write(batch);
+            }
+            batches.clear();
+            synchronized (this) {
+                writing = false;
+                notifyAll();
+            }
+        }
+    }
+
+    void write(Batch batch) {
+        if (batch.startsGeneration) {
+            closeLog();
+            generation++;
+            synchronized (this) {
+                batch.generation = generation;
+                notifyAll();
+            }
+            if (batch.compact) {
+                compactBefore(generation);
+            }
+        }
+        // Replay stops at a torn entry, so a log a write failed on gets
+        // nothing more: the batch is taken back out if it can be and
+        // written again to a new log, or else dropped
+        batch.bytes.flip();
+        for (int attempt = 0; batch.bytes.hasRemaining(); attempt++) {
+            long start = -1;
+            try {
+                if (log == null) {
+                    log = FileChannel.open(logFile(generation), StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                }
+                start = log.position();
+                while (batch.bytes.hasRemaining()) {
+                    log.write(batch.bytes);
+                }
+            } catch (IOException ex) {
+                boolean undone = start == -1;
+                try {
+                    if (!undone) {
+                        log.truncate(start);
+                        undone = true;
+                    }
+                } catch (IOException truncateFailed) {
+                    ex.addSuppressed(truncateFailed);
+                }
+                closeLog();
+                generation++;
+                if (!undone || attempt > 0) {
+                    BattleshipGUI.ioFailed("Stats log entries lost", ex);
+                    return;
+                }
+                BattleshipGUI.ioFailed("Stats log not written; trying a new log", ex);
+                batch.bytes.position(0);
+            }
+        }
+    }
+
+    // Closes the log being appended to; the next write opens the current
+    // generation's
+    void closeLog() {
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException ex) {
+                // dropped either way
+            }
+            log = null;
+        }
+    }
+
+    void compactBefore(final long upTo) {
+        compactor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compact(upTo);
+                } catch (IOException ex) {
+                    // the logs stay; the next compaction tries again
+                    BattleshipGUI.ioFailed("Stats log not compacted", ex);
+                }
+            }
+        });
+    }
+
+    // Writes every record out now and starts an empty log after it
+    public void snapshot(List<BattleshipGUI.PlayerRecord> records) throws IOException {
+        snapshotTask(records).write();
+    }
+
+    // Starts an empty log and returns a task that writes the records out as
+    // the snapshot before it. The records must be copies the caller no
+    // longer changes; the task may run on another thread while entries go
+    // on being appended. Until it has run the old snapshot and logs still
+    // hold everything, and ids are kept as they are so the new log replays
+    // on top of either.
+    public PersistenceWriter.Task snapshotTask(List<BattleshipGUI.PlayerRecord> records)
+            throws IOException {
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Stats log closed");
+            }
+        }
+        final Batch marker = nextGeneration(false);
+        final Replay replay = new Replay();
+        for (BattleshipGUI.PlayerRecord record : records) {
+            Integer id = ids.get(record.name);
+            if (id == null) {
+                id = nextId++;
+                ids.put(record.name, id);
+            }
+            replay.records.put(id, record);
+        }
+        replay.nextId = nextId;
+        return new PersistenceWriter.Task() {
+            @Override
+            public void write() throws IOException {
+                long firstGeneration = generationOf(marker);
+                synchronized (snapshotLock) {
+                    // a compaction that ran first already covers these records
+                    if (snapshotGeneration < firstGeneration) {
+                        writeSnapshot(replay, firstGeneration);
+                    }
+                }
+            }
+        };
+    }
+
+    // The generation the marker started, once the writer thread has got to it
+    synchronized long generationOf(Batch marker) throws IOException {
+        while (marker.generation == -1) {
+            if (!thread.isAlive()) {
+                throw new IOException("Stats log closed");
+            }
+            try {
+                wait(100);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Stats snapshot not written");
+            }
+        }
+        return marker.generation;
+    }
+
+    // Folds the logs before generation upTo into the snapshot
+    void compact(long upTo) throws IOException {
+        synchronized (snapshotLock) {
+            Replay replay = new Replay();
+            Path snapshot = directory.resolve("record.snap");
+            if (Files.exists(snapshot)) {
+                replay.readSnapshot(snapshot);
+            }
+            if (replay.firstGeneration >= upTo) {
+                return;
+            }
+            for (long g = replay.firstGeneration; g < upTo; g++) {
+                if (Files.exists(logFile(g))) {
+                    replay.readLog(logFile(g));
+                }
+            }
+            writeSnapshot(replay, upTo);
+        }
+    }
+
+    void writeSnapshot(Replay replay, long firstGeneration) throws IOException {
+        ArrayList<byte[]> names = new ArrayList<byte[]>(replay.records.size());
+        int size = 24;
+        for (BattleshipGUI.PlayerRecord record : replay.records.values()) {
+            byte[] name = record.name.getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            size += 24 + name.length;
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(SNAPSHOT_MAGIC).putInt(VERSION).putInt(replay.nextId)
+                .putLong(firstGeneration).putInt(replay.records.size());
+        int i = 0;
+        for (Map.Entry<Integer, BattleshipGUI.PlayerRecord> player : replay.records.entrySet()) {
+            BattleshipGUI.PlayerRecord record = player.getValue();
+            byte[] name = names.get(i++);
+            out.putInt(player.getKey()).putInt(name.length).put(name)
+                    .putInt(record.wins).putInt(record.losses)
+                    .putInt(record.bestScore).putInt(record.averageScore);
+        }
+        out.flip();
+        PersistenceWriter.writeAtomically(directory.resolve("record.snap"), out);
+        snapshotGeneration = firstGeneration;
+        for (long g : logGenerations()) {
+            if (g < firstGeneration) {
+                Files.deleteIfExists(logFile(g));
+            }
+        }
+    }
+
+    Path logFile(long generation) {
+        return directory.resolve("record." + generation + ".log");
+    }
+
+    List<Long> logGenerations() throws IOException {
+        ArrayList<Long> generations = new ArrayList<Long>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "record.*.log")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    generations.add(Long.parseLong(
+                            name.substring("record.".length(), name.length() - ".log".length())));
+                } catch (NumberFormatException ex) {
+                }
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<BattleshipGUI.PlayerRecord> readLegacy(Path file) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file.toFile()))) {
+            return (List<BattleshipGUI.PlayerRecord>) in.readObject();
+        } catch (ClassNotFoundException ex) {
+            throw new IOException("Unreadable record.ser", ex);
+        }
+    }
+
+    // Writes the entries still queued, then stops background compaction,
+    // waiting for one in progress
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            thread.join(TimeUnit.MINUTES.toMillis(1));
+            compactor.shutdown();
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    // Entries to append in one write, after starting a new generation if
+    // startsGeneration is set
+    static class Batch {
+
+        final boolean startsGeneration;
+        final boolean compact;
+        ByteBuffer bytes = ByteBuffer.allocate(256);
+        // set by the writer thread once it has started the new generation;
+        // guarded by the StatsLog
+        long generation = -1;
+
+        Batch(boolean startsGeneration, boolean compact) {
+            this.startsGeneration = startsGeneration;
+            this.compact = compact;
+        }
+
+        void add(ByteBuffer entry) {
+            if (bytes.remaining() < entry.remaining()) {
+                ByteBuffer larger = ByteBuffer.allocate(
+                        Math.max(bytes.capacity() * 2, bytes.position() + entry.remaining()));
+                bytes.flip();
+                bytes = larger.put(bytes);
+            }
+            bytes.put(entry);
+        }
+    }
+
+    // Players rebuilt from a snapshot and the logs after it
+    static class Replay {
+
+        final LinkedHashMap<Integer, BattleshipGUI.PlayerRecord> records =
+                new LinkedHashMap<Integer, BattleshipGUI.PlayerRecord>();
+        final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+        int nextId;
+        long firstGeneration;
+        int entries;
+
+        void readSnapshot(Path file) throws IOException {
+            ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+            if (in.remaining() < 24 || in.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a stats snapshot: " + file);
+            }
+            int version = in.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported stats snapshot version " + version);
+            }
+            nextId = in.getInt();
+            firstGeneration = in.getLong();
+            int count = in.getInt();
+            for (int i = 0; i < count; i++) {
+                int id = in.getInt();
+                byte[] name = new byte[in.getInt()];
+                in.get(name);
+                BattleshipGUI.PlayerRecord record =
+                        new BattleshipGUI.PlayerRecord(new String(name, StandardCharsets.UTF_8));
+                record.wins = in.getInt();
+                record.losses = in.getInt();
+                record.bestScore = in.getInt();
+                record.averageScore = in.getInt();
+                records.put(id, record);
+                ids.put(record.name, id);
+            }
+        }
+
+        // Applies the log's entries; returns the length of its complete entries
+        long readLog(Path file) throws IOException {
+            ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+            while (in.hasRemaining()) {
+                int start = in.position();
+                if (!apply(in)) {
+                    return start;
+                }
+                entries++;
+            }
+            return in.position();
+        }
+
+        // false if the entry is cut short
+        boolean apply(ByteBuffer in) throws IOException {
+            byte type = in.get();
+            if (type == CLEAR) {
+                records.clear();
+                ids.clear();
+                return true;
+            }
+            if (in.remaining() < 4) {
+                return false;
+            }
+            int id = in.getInt();
+            BattleshipGUI.PlayerRecord record = records.get(id);
+            switch (type) {
+                case NAME:
+                    if (in.remaining() < 4) {
+                        return false;
+                    }
+                    int length = in.getInt();
+                    if (length < 0 || in.remaining() < length) {
+                        return false;
+                    }
+                    byte[] name = new byte[length];
+                    in.get(name);
+                    record = new BattleshipGUI.PlayerRecord(new String(name, StandardCharsets.UTF_8));
+                    records.put(id, record);
+                    ids.put(record.name, id);
+                    nextId = Math.max(nextId, id + 1);
+                    return true;
+                case MATCH:
+                    if (in.remaining() < 4) {
+                        return false;
+                    }
+                    int score = in.getInt();
+                    if (record != null) {
+                        record.addMatch(score);
+                    }
+                    return true;
+                case REMOVE:
+                    if (record != null) {
+                        records.remove(id);
+                        ids.remove(record.name);
+                    }
+                    return true;
+                case CLEAR_BEST:
+                    if (record != null) {
+                        record.bestScore = 0;
+                    }
+                    return true;
+                default:
+                    throw new IOException("Bad stats log entry type " + type);
+            }
+        }
+    }
+}
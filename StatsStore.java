@@ -0,0 +1,433 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+// All player records, looked up by name through a hash map and kept in
+// order by each stats column. A match result updates one record and moves
+// it within each order, so recording, top-N and rank-of-player queries stay
+// cheap with hundreds of thousands of players. Changes are appended to the
+// stats log, if there is one.
+public class StatsStore implements PlayerStats {
+
+    // slot of each player; slots are handed out in joining order
+    final HashMap<String, Integer> slots = new HashMap<String, Integer>();
+    BattleshipGUI.PlayerRecord[] records = new BattleshipGUI.PlayerRecord[64];
+    int nextSlot;
+    final SortedIndex[] indexes = new SortedIndex[Order.values().length];
+    StatsLog log;
+
+    // The store kept in the given directory's stats log
+    public static StatsStore open(Path directory) throws IOException {
+        StatsStore store = new StatsStore();
+        StatsLog log = new StatsLog(directory);
+        try {
+            store.load(log.open());
+        } catch (IOException ex) {
+            log.close();
+            throw ex;
+        }
+        store.log = log;
+        return store;
+    }
+
+    public StatsStore() {
+        for (final Order order : Order.values()) {
+            indexes[order.ordinal()] = new SortedIndex() {
+                @Override
+                int compare(int a, int b) {
+                    int result = compareRecords(order, records[a], records[b]);
+                    return result != 0 ? result : Integer.compare(a, b);
+                }
+            };
+        }
+    }
+
+    static int compareRecords(Order order, BattleshipGUI.PlayerRecord a,
+            BattleshipGUI.PlayerRecord b) {
+        switch (order) {
+            case JOINED:
+                return 0;
+            case NAME:
+                return a.name.compareTo(b.name);
+            default:
+                return Integer.compare(value(order, b), value(order, a));
+        }
+    }
+
+    static int value(Order order, BattleshipGUI.PlayerRecord record) {
+        switch (order) {
+            case WINS:
+                return record.wins;
+            case LOSSES:
+                return record.losses;
+            case AVERAGE:
+                return record.averageScore;
+            default:
+                return record.bestScore;
+        }
+    }
+
+    @Override
+    public int size() {
+        return slots.size();
+    }
+
+    @Override
+    public BattleshipGUI.PlayerRecord get(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? null : records[slot];
+    }
+
+    @Override
+    public BattleshipGUI.PlayerRecord get(Order order, int position) {
+        return records[indexes[order.ordinal()].get(position)];
+    }
+
+    @Override
+    public int rank(Order order, String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : indexes[order.ordinal()].rank(slot);
+    }
+
+    // Every record in joining order
+    public List<BattleshipGUI.PlayerRecord> records() {
+        return top(Order.JOINED, size());
+    }
+
+    // Replaces the contents with the given records, in that joining order
+    public void load(List<BattleshipGUI.PlayerRecord> loaded) {
+        forget();
+        records = new BattleshipGUI.PlayerRecord[Math.max(64, loaded.size())];
+        for (BattleshipGUI.PlayerRecord record : loaded) {
+            if (!slots.containsKey(record.name)) {
+                slots.put(record.name, nextSlot);
+                records[nextSlot++] = record;
+            }
+        }
+        for (Order order : Order.values()) {
+            indexes[order.ordinal()].build(sortedSlots(order), nextSlot);
+        }
+    }
+
+    // Slots [0, nextSlot) in the given order. Numeric orders sort
+    // (value, slot) pairs packed into longs, which is much quicker than
+    // sorting slots with compare().
+    int[] sortedSlots(Order order) {
+        if (order == Order.JOINED || order == Order.NAME) {
+            int[] sorted = new int[nextSlot];
+            for (int i = 0; i < nextSlot; i++) {
+                sorted[i] = i;
+            }
+            if (order == Order.NAME) {
+                indexes[order.ordinal()].sort(sorted, new int[nextSlot], 0, nextSlot);
+            }
+            return sorted;
+        }
+        int[] values = new int[nextSlot];
+        for (int slot = 0; slot < nextSlot; slot++) {
+            values[slot] = value(order, records[slot]);
+        }
+        return sortDescending(values);
+    }
+
+    // Slots 0..values.length - 1, highest value first, ties by slot
+    static int[] sortDescending(int[] values) {
+        long[] keys = new long[values.length];
+        for (int slot = 0; slot < values.length; slot++) {
+            keys[slot] = (-(long) values[slot] << 32) | slot;
+        }
+        Arrays.sort(keys);
+        int[] sorted = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            sorted[i] = (int) keys[i];
+        }
+        return sorted;
+    }
+
+    @Override
+    public BattleshipGUI.PlayerRecord recordMatch(String name, int score) throws IOException {
+        Integer slot = slots.get(name);
+        BattleshipGUI.PlayerRecord record;
+        if (slot == null) {
+            record = new BattleshipGUI.PlayerRecord(name);
+            record.addMatch(score);
+            add(record);
+        } else {
+            record = records[slot];
+            unindex(slot);
+            record.addMatch(score);
+            index(slot);
+        }
+        if (log != null) {
+            log.match(name, score);
+        }
+        return record;
+    }
+
+    @Override
+    public void clearBest(String name) throws IOException {
+        Integer slot = slots.get(name);
+        if (slot != null) {
+            unindex(slot);
+            records[slot].bestScore = 0;
+            index(slot);
+            if (log != null) {
+                log.clearBest(name);
+            }
+        }
+    }
+
+    @Override
+    public void remove(String name) throws IOException {
+        Integer slot = slots.remove(name);
+        if (slot != null) {
+            unindex(slot);
+            records[slot] = null;
+            if (log != null) {
+                log.remove(name);
+            }
+        }
+    }
+
+    @Override
+    public void clear() throws IOException {
+        forget();
+        if (log != null) {
+            log.clear();
+        }
+    }
+
+    // A snapshot of every record, so loading need not replay the log. The
+    // records are copied here, as they go on changing after.
+    @Override
+    public PersistenceWriter.Task flushTask() throws IOException {
+        if (log == null) {
+            return new PersistenceWriter.Task() {
+                @Override
+                public void write() {
+                }
+            };
+        }
+        ArrayList<BattleshipGUI.PlayerRecord> copies
+                = new ArrayList<BattleshipGUI.PlayerRecord>(size());
+        for (int position = 0; position < size(); position++) {
+            copies.add(get(Order.JOINED, position).copy());
+        }
+        return log.snapshotTask(copies);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    void forget() {
+        slots.clear();
+        Arrays.fill(records, 0, nextSlot, null);
+        nextSlot = 0;
+        for (SortedIndex index : indexes) {
+            index.clear();
+        }
+    }
+
+    void add(BattleshipGUI.PlayerRecord record) {
+        if (nextSlot == records.length) {
+            records = Arrays.copyOf(records, nextSlot * 2);
+        }
+        int slot = nextSlot++;
+        records[slot] = record;
+        slots.put(record.name, slot);
+        index(slot);
+    }
+
+    // must be done before the record changes, while the indexes still
+    // agree with its fields
+    void unindex(int slot) {
+        for (SortedIndex index : indexes) {
+            index.remove(slot);
+        }
+    }
+
+    void index(int slot) {
+        for (SortedIndex index : indexes) {
+            index.add(slot);
+        }
+    }
+
+    // Slots in sorted order, held in blocks of at most BLOCK so an insert or
+    // removal moves one block's worth of entries at most. Counts before each
+    // block are rebuilt lazily for lookups by position.
+    abstract static class SortedIndex {
+
+        static final int BLOCK = 512;
+
+        int[][] blocks = new int[4][];
+        int[] sizes = new int[4];
+        int blockCount;
+        // entries in blocks before each block; valid for blocks below `counted`
+        int[] before = new int[4];
+        int counted;
+        int size;
+
+        abstract int compare(int a, int b);
+
+        void clear() {
+            blocks = new int[4][];
+            sizes = new int[4];
+            before = new int[4];
+            blockCount = 0;
+            counted = 0;
+            size = 0;
+        }
+
+        // Fills the index from slots already in order
+        void build(int[] sorted, int count) {
+            clear();
+            int half = BLOCK / 2;
+            for (int from = 0; from < count; from += half) {
+                int[] entries = new int[BLOCK];
+                int length = Math.min(half, count - from);
+                System.arraycopy(sorted, from, entries, 0, length);
+                insertBlock(blockCount, entries, length);
+            }
+            size = count;
+        }
+
+        // merge sort of a[from, to) by compare(), using scratch
+        void sort(int[] a, int[] scratch, int from, int to) {
+            if (to - from < 2) {
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            sort(a, scratch, from, middle);
+            sort(a, scratch, middle, to);
+            if (compare(a[middle - 1], a[middle]) <= 0) {
+                return;
+            }
+            System.arraycopy(a, from, scratch, from, to - from);
+            for (int i = from, left = from, right = middle; i < to; i++) {
+                if (right >= to || (left < middle && compare(scratch[left], scratch[right]) <= 0)) {
+                    a[i] = scratch[left++];
+                } else {
+                    a[i] = scratch[right++];
+                }
+            }
+        }
+
+        // First block whose last entry is not below the slot, or the last block
+        int findBlock(int slot) {
+            int low = 0;
+            int high = blockCount - 1;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (compare(blocks[middle][sizes[middle] - 1], slot) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        // Position of the first entry in the block not below the slot
+        int search(int block, int slot) {
+            int[] entries = blocks[block];
+            int low = 0;
+            int high = sizes[block];
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (compare(entries[middle], slot) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        void add(int slot) {
+            if (blockCount == 0) {
+                insertBlock(0, new int[BLOCK], 0);
+            }
+            int block = findBlock(slot);
+            int at = search(block, slot);
+            int[] entries = blocks[block];
+            System.arraycopy(entries, at, entries, at + 1, sizes[block] - at);
+            entries[at] = slot;
+            sizes[block]++;
+            size++;
+            if (sizes[block] == BLOCK) {
+                int half = BLOCK / 2;
+                int[] upper = new int[BLOCK];
+                System.arraycopy(entries, half, upper, 0, BLOCK - half);
+                sizes[block] = half;
+                insertBlock(block + 1, upper, BLOCK - half);
+            }
+            counted = Math.min(counted, block + 1);
+        }
+
+        void remove(int slot) {
+            int block = findBlock(slot);
+            int at = search(block, slot);
+            int[] entries = blocks[block];
+            System.arraycopy(entries, at + 1, entries, at, sizes[block] - at - 1);
+            sizes[block]--;
+            size--;
+            if (sizes[block] == 0) {
+                System.arraycopy(blocks, block + 1, blocks, block, blockCount - block - 1);
+                System.arraycopy(sizes, block + 1, sizes, block, blockCount - block - 1);
+                blockCount--;
+            }
+            counted = Math.min(counted, block + 1);
+        }
+
+        void insertBlock(int block, int[] entries, int count) {
+            if (blockCount == blocks.length) {
+                blocks = Arrays.copyOf(blocks, blockCount * 2);
+                sizes = Arrays.copyOf(sizes, blockCount * 2);
+                before = Arrays.copyOf(before, blockCount * 2);
+            }
+            System.arraycopy(blocks, block, blocks, block + 1, blockCount - block);
+            System.arraycopy(sizes, block, sizes, block + 1, blockCount - block);
+            blocks[block] = entries;
+            sizes[block] = count;
+            blockCount++;
+        }
+
+        void count() {
+            for (int block = Math.max(counted, 1); block < blockCount; block++) {
+                before[block] = before[block - 1] + sizes[block - 1];
+            }
+            counted = blockCount;
+        }
+
+        int get(int position) {
+            if (position < 0 || position >= size) {
+                throw new IndexOutOfBoundsException("Position " + position + " of " + size);
+            }
+            count();
+            int low = 0;
+            int high = blockCount - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (before[middle] <= position) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return blocks[low][position - before[low]];
+        }
+
+        int rank(int slot) {
+            count();
+            int block = findBlock(slot);
+            return before[block] + search(block, slot);
+        }
+    }
+}
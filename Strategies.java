@@ -0,0 +1,95 @@
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+// The built-in strategies by name, weakest first, and the lookup used
+// wherever a strategy is picked by name (Simulation, Tournament, the
+// battleship.cpu property). A name that is not built in is taken as the
+// class name of a Strategy.Factory with a public no-argument constructor,
+// so new strategies can be tried without touching this file.
+public final class Strategies {
+
+    // random shots only; never follows up a hit
+    public static final Strategy.Factory RANDOM = new Strategy.Factory() {
+        @Override
+        public Strategy create(Random random, int[] shipSizes) {
+            return new ComputerPlayer(random) {
+                @Override
+                public void shotFired(Board target, int row, int col, int result) {
+                    untried(target).remove(row * target.getColumns() + col);
+                }
+            };
+        }
+    };
+
+    // both of these hunt from the opening book given by -Dbattleship.book,
+    // if it is for this fleet
+    public static final Strategy.Factory HUNT_TARGET = new Strategy.Factory() {
+        @Override
+        public Strategy create(Random random, int[] shipSizes) {
+            ComputerPlayer player = new ComputerPlayer(random);
+            player.setOpeningBook(OpeningBook.forFleet(shipSizes));
+            return player;
+        }
+    };
+
+    // hunt/target, with random shots favouring one colour of the checkerboard
+    public static final Strategy.Factory PARITY = new Strategy.Factory() {
+        @Override
+        public Strategy create(Random random, int[] shipSizes) {
+            ComputerPlayer player = new ComputerPlayer(random);
+            player.setParityWeight(3);
+            player.setOpeningBook(OpeningBook.forFleet(shipSizes));
+            return player;
+        }
+    };
+
+    public static final Strategy.Factory DENSITY = new Strategy.Factory() {
+        @Override
+        public Strategy create(Random random, int[] shipSizes) {
+            return new DensityPlayer(random, shipSizes);
+        }
+    };
+
+    // density, then exact play once few squares are left in doubt
+    public static final Strategy.Factory EXACT = new Strategy.Factory() {
+        @Override
+        public Strategy create(Random random, int[] shipSizes) {
+            return new EndgamePlayer(random, shipSizes);
+        }
+    };
+
+    static final Map<String, Strategy.Factory> BUILT_IN;
+
+    static {
+        Map<String, Strategy.Factory> names = new LinkedHashMap<String, Strategy.Factory>();
+        names.put("random", RANDOM);
+        names.put("hunt", HUNT_TARGET);
+        names.put("parity", PARITY);
+        names.put("density", DENSITY);
+        names.put("exact", EXACT);
+        BUILT_IN = Collections.unmodifiableMap(names);
+    }
+
+    private Strategies() {
+    }
+
+    public static Map<String, Strategy.Factory> builtIn() {
+        return BUILT_IN;
+    }
+
+    // Throws IllegalArgumentException for a name that is neither built in
+    // nor a loadable factory class
+    public static Strategy.Factory forName(String name) {
+        Strategy.Factory factory = BUILT_IN.get(name);
+        if (factory != null) {
+            return factory;
+        }
+        try {
+            return (Strategy.Factory) Class.forName(name).getConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException ex) {
+            throw new IllegalArgumentException("Unknown strategy: " + name, ex);
+        }
+    }
+}
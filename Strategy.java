@@ -0,0 +1,46 @@
+import java.util.Random;
+
+// How a computer side plays: where its ships go and where it fires. An
+// instance plays a single game, made for it by a Factory, so it can keep
+// whatever search state it likes between shots. ComputerPlayer, the
+// hunt/target opponent the desktop game has always had, is the baseline;
+// Strategies names the ones there are.
+public interface Strategy {
+
+    // Makes the strategy for one game with the given fleet
+    interface Factory {
+
+        Strategy create(Random random, int[] shipSizes);
+    }
+
+    // Puts a ship of the given length somewhere it fits on own
+    void placeShip(Board own, int length);
+
+    // Picks the next square to fire at, as {row, column}: one not fired at
+    // yet. Does not fire.
+    int[] nextShot(Board target);
+
+    // nextShot for a caller that wants the answer by the deadline, a
+    // System.nanoTime() reading. A strategy that searches should stop by
+    // then, or once its thread is interrupted, and give its best so far.
+    default int[] nextShot(Board target, long deadline) {
+        return nextShot(target);
+    }
+
+    // Told the result once a shot from nextShot has been fired
+    void shotFired(Board target, int row, int column, int result);
+
+    default void placeFleet(Board own, int[] shipSizes) {
+        for (int length : shipSizes) {
+            placeShip(own, length);
+        }
+    }
+
+    // Picks a square and fires at it; returns Board.HIT or Board.MISS
+    default int fire(Board target) {
+        int[] shot = nextShot(target);
+        int result = target.fire(shot[0], shot[1]);
+        shotFired(target, shot[0], shot[1], result);
+        return result;
+    }
+}
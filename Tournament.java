@@ -0,0 +1,208 @@
+import java.util.Arrays;
+import java.util.Comparator;
+
+// Round robin between strategies: every pair plays the same number of
+// games, taking turns to shoot first, each pairing spread over all cores by
+// Simulation. Ratings are Elo, fitted to all the results at once (the
+// Bradley-Terry model, by maximum likelihood) so they do not depend on the
+// order the games happened to be played in. They are anchored so that the
+// hunt/target baseline is 1500 when it plays, or the average is otherwise.
+// A 200 point gap means the stronger side wins about three games in four.
+//
+// Every shot is timed as well, for how fast each strategy plays; the times
+// include a clock read or two, some 20-50ns.
+//
+// usage: java Tournament [games per pair] [seed] [strategy...]
+// (strategies by name, see Strategies; all the built-in ones by default)
+public class Tournament {
+
+    static final double BASE_RATING = 1500;
+    static final String ANCHOR = "hunt";
+
+    final String[] names;
+    final Strategy.Factory[] factories;
+    final int rows;
+    final int columns;
+    final int[] shipSizes;
+    final long seed;
+    // wins[i][j]: games strategy i won against strategy j
+    final long[][] wins;
+    // per strategy, over all its games: shots fired, shots to win a game,
+    // and shot times
+    final long[] moves;
+    final long[] winningShots;
+    final long[] moveNanos;
+    final long[][] moveTimes;
+
+    public Tournament(String[] names, int rows, int columns, int[] shipSizes, long seed) {
+        this.names = names.clone();
+        this.factories = new Strategy.Factory[names.length];
+        for (int i = 0; i < names.length; i++) {
+            factories[i] = Strategies.forName(names[i]);
+        }
+        this.rows = rows;
+        this.columns = columns;
+        this.shipSizes = shipSizes;
+        this.seed = seed;
+        int count = names.length;
+        wins = new long[count][count];
+        moves = new long[count];
+        winningShots = new long[count];
+        moveNanos = new long[count];
+        moveTimes = new long[count][Simulation.TIME_BUCKETS];
+    }
+
+    // Plays every pair, printing each pairing's result as it finishes
+    public void play(long gamesPerPair) {
+        int pair = 0;
+        for (int i = 0; i < names.length; i++) {
+            for (int j = i + 1; j < names.length; j++, pair++) {
+                Simulation simulation = new Simulation(rows, columns, shipSizes,
+                        factories[i], factories[j], Simulation.mix(seed, pair));
+                simulation.setTimed(true);
+                Simulation.Result result = simulation.run(gamesPerPair);
+                add(i, j, result);
+                System.out.printf("%-10s %5.1f%%  %-10s %5.1f%%  (%.0f games/sec)%n",
+                        names[i], 100 * result.winRate(0), names[j], 100 * result.winRate(1),
+                        result.gamesPerSecond());
+            }
+        }
+    }
+
+    void add(int i, int j, Simulation.Result result) {
+        int[] players = new int[]{i, j};
+        wins[i][j] += result.wins[0];
+        wins[j][i] += result.wins[1];
+        for (int side = 0; side < 2; side++) {
+            int player = players[side];
+            moves[player] += result.moves[side];
+            moveNanos[player] += result.moveNanos[side];
+            for (int b = 0; b < Simulation.TIME_BUCKETS; b++) {
+                moveTimes[player][b] += result.moveTimes[side][b];
+            }
+            long[] shots = result.shotsToWin[side];
+            for (int n = 0; n < shots.length; n++) {
+                winningShots[player] += shots[n] * n;
+            }
+        }
+    }
+
+    long winsOf(int i) {
+        long total = 0;
+        for (long n : wins[i]) {
+            total += n;
+        }
+        return total;
+    }
+
+    long gamesOf(int i) {
+        long total = 0;
+        for (int j = 0; j < names.length; j++) {
+            total += wins[i][j] + wins[j][i];
+        }
+        return total;
+    }
+
+    // Elo ratings. Each strategy's strength p is fitted so that i beats j
+    // with probability p[i] / (p[i] + p[j]), by the usual fixed-point
+    // iteration; half a win each way is added to every pairing so a side
+    // that never wins (or never loses) still gets a finite rating.
+    public double[] ratings() {
+        int count = names.length;
+        double[] strength = new double[count];
+        Arrays.fill(strength, 1.0);
+        for (int iteration = 0; iteration < 10000; iteration++) {
+            double change = 0;
+            for (int i = 0; i < count; i++) {
+                double won = 0;
+                double expected = 0;
+                for (int j = 0; j < count; j++) {
+                    if (j != i && wins[i][j] + wins[j][i] > 0) {
+                        won += wins[i][j] + 0.5;
+                        expected += (wins[i][j] + wins[j][i] + 1) / (strength[i] + strength[j]);
+                    }
+                }
+                double next = expected == 0 ? strength[i] : won / expected;
+                change = Math.max(change, Math.abs(Math.log(next / strength[i])));
+                strength[i] = next;
+            }
+            if (change < 1e-12) {
+                break;
+            }
+        }
+        double[] ratings = new double[count];
+        double mean = 0;
+        int anchor = -1;
+        for (int i = 0; i < count; i++) {
+            ratings[i] = 400 * Math.log10(strength[i]);
+            mean += ratings[i] / count;
+            if (names[i].equals(ANCHOR)) {
+                anchor = i;
+            }
+        }
+        double shift = BASE_RATING - (anchor == -1 ? mean : ratings[anchor]);
+        for (int i = 0; i < count; i++) {
+            ratings[i] += shift;
+        }
+        return ratings;
+    }
+
+    // One line per strategy, highest rated first
+    public String standings() {
+        final double[] ratings = ratings();
+        Integer[] order = new Integer[names.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(ratings[b], ratings[a]);
+            }
+        });
+        StringBuilder out = new StringBuilder(String.format(
+                "%-10s %6s %7s %10s %10s %9s %9s %12s%n", "strategy", "elo", "wins",
+                "games", "shots/win", "move ns", "p99 ns", "moves/sec"));
+        for (int i : order) {
+            long won = winsOf(i);
+            double mean = moves[i] == 0 ? 0 : (double) moveNanos[i] / moves[i];
+            out.append(String.format("%-10s %6.0f %6.1f%% %10d %10.2f %9.0f %9d %12.0f%n",
+                    names[i], ratings[i], 100.0 * won / Math.max(gamesOf(i), 1), gamesOf(i),
+                    won == 0 ? 0 : (double) winningShots[i] / won, mean,
+                    percentileMoveNanos(i, 0.99), mean == 0 ? 0 : 1e9 / mean));
+        }
+        return out.toString();
+    }
+
+    long percentileMoveNanos(int i, double fraction) {
+        long rank = (long) Math.ceil(fraction * moves[i]);
+        long seen = 0;
+        for (int b = 0; b < Simulation.TIME_BUCKETS; b++) {
+            seen += moveTimes[i][b];
+            if (seen >= rank && seen > 0) {
+                return Simulation.bucketNanos(b);
+            }
+        }
+        return 0;
+    }
+
+    public static void main(String[] args) {
+        long games = args.length > 0 ? Long.parseLong(args[0]) : 10000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        String[] names;
+        if (args.length > 2) {
+            names = Arrays.copyOfRange(args, 2, args.length);
+        } else {
+            names = Strategies.builtIn().keySet().toArray(new String[0]);
+        }
+
+        int[] size = GameEngine.boardSizeProperty();
+        int[] fleet = GameEngine.fleetProperty();
+        GameEngine.checkConfiguration(size[0], size[1], fleet);
+        Tournament tournament = new Tournament(names, size[0], size[1], fleet, seed);
+        tournament.play(games);
+        System.out.println();
+        System.out.print(tournament.standings());
+        System.out.println("shot cache: " + ShotCache.shared());
+    }
+}
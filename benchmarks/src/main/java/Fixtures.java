@@ -0,0 +1,156 @@
+import java.awt.Component;
+import java.nio.file.Paths;
+import java.util.Random;
+import javax.swing.JTable;
+
+// Drives the game code for the benchmarks in package bench; see bench.Fixture
+public class Fixtures implements bench.Fixture {
+
+    Random random;
+    Board board;
+    ComputerPlayer shooter;
+    ComputerPlayer placer;
+    GameEngine engine;
+    JTable table;
+    BattleshipGUI.BoardRenderer renderer;
+    int players;
+    MoveJournal journal;
+
+    @Override
+    public void setUp(int size, String strategy, int players) throws Exception {
+        this.players = players;
+        random = new Random(42);
+        board = new Board(size, size);
+        placer = new ComputerPlayer(random);
+        if (strategy.equals("density")) {
+            shooter = new DensityPlayer(random, GameEngine.DEFAULT_FLEET);
+        } else {
+            shooter = new ComputerPlayer(random);
+        }
+        placer.placeFleet(board, GameEngine.DEFAULT_FLEET);
+        engine = new GameEngine(random, size, size, GameEngine.DEFAULT_FLEET);
+
+        // a game in progress, as the GUI would hold it
+        BattleshipGUI.startNewGame();
+        BattleshipGUI.currentPlayerName = "bench";
+        BattleshipGUI.game = engine;
+        placementPhase();
+        for (int i = 0; i < 30; i++) {
+            engine.playerFire(random.nextInt(size), random.nextInt(size));
+            engine.computerMove();
+        }
+        BattleshipGUI.mode = BattleshipGUI.SelectionMode.PLAYER_MOVE;
+
+        table = new JTable(new BattleshipGUI.BoardTableModel(engine.getPlayerBoard()));
+        renderer = new BattleshipGUI.BoardRenderer();
+        BattleshipGUI.position.table = table;
+
+        BattleshipGUI.loadStats();
+        BattleshipGUI.stats.clear();
+        for (int i = 0; i < players; i++) {
+            BattleshipGUI.stats.recordMatch("player" + i, random.nextInt(33) - 16);
+        }
+        BattleshipGUI.saveGameState();
+        BattleshipGUI.saveStats();
+        BattleshipGUI.awaitSaves(BattleshipGUI.SAVE_TIMEOUT);
+    }
+
+    @Override
+    public int computerMove() {
+        if (board.squaresRemaining() == 0) {
+            board.clear();
+            shooter.reset();
+            placer.placeFleet(board, GameEngine.DEFAULT_FLEET);
+        }
+        return shooter.fire(board);
+    }
+
+    @Override
+    public int computerPlaceFleet() {
+        board.clear();
+        placer.placeFleet(board, GameEngine.DEFAULT_FLEET);
+        return board.shipCount;
+    }
+
+    @Override
+    public int placementPhase() {
+        // ships stacked in the first rows always fit
+        engine.newGame();
+        for (int row = 0; engine.getPhase() == GameEngine.Phase.PLACEMENT; row++) {
+            engine.placeShip(row, 0, true);
+        }
+        return engine.getPlacements();
+    }
+
+    @Override
+    public int renderBoard() {
+        int hash = 0;
+        for (int r = 0; r < table.getRowCount(); r++) {
+            for (int c = 0; c < table.getColumnCount(); c++) {
+                Component cell = renderer.getTableCellRendererComponent(
+                        table, table.getValueAt(r, c), false, false, r, c);
+                hash += cell.getBackground().getRGB();
+            }
+        }
+        return hash;
+    }
+
+    @Override
+    public void saveGameState() {
+        BattleshipGUI.saveGameState();
+        BattleshipGUI.awaitSaves(BattleshipGUI.SAVE_TIMEOUT);
+    }
+
+    @Override
+    public void resumeGameState() throws Exception {
+        BattleshipGUI.readGameState(BattleshipGUI.SAVE_FILE).restore(engine);
+    }
+
+    @Override
+    public int journaledTurn() {
+        if (journal == null) {
+            journal = new MoveJournal(Paths.get("bench.journal"), engine);
+        }
+        if (engine.getPhase() != GameEngine.Phase.PLAYER_MOVE) {
+            placementPhase();
+            journal.start("bench");
+        }
+        int row;
+        int column;
+        Board target = engine.getComputerBoard();
+        do {
+            row = random.nextInt(target.getRows());
+            column = random.nextInt(target.getColumns());
+        } while (engine.getComputerBoard().isShot(row, column));
+        int result = engine.playerFire(row, column);
+        if (engine.getPhase() == GameEngine.Phase.PLAYER_MOVE) {
+            result += engine.computerMove();
+        }
+        return result;
+    }
+
+    @Override
+    public void saveStats() {
+        BattleshipGUI.saveStats();
+        BattleshipGUI.awaitSaves(BattleshipGUI.SAVE_TIMEOUT);
+    }
+
+    @Override
+    public void recordStats() {
+        BattleshipGUI.recordStats("player" + random.nextInt(players + 1), random.nextInt(33) - 16);
+    }
+
+    @Override
+    public int leaderboard() {
+        int hash = BattleshipGUI.stats.rank(PlayerStats.Order.WINS, "player" + random.nextInt(players + 1));
+        for (BattleshipGUI.PlayerRecord record : BattleshipGUI.stats.top(PlayerStats.Order.BEST, 10)) {
+            hash += record.bestScore;
+        }
+        return hash;
+    }
+
+    @Override
+    public void loadStats() {
+        BattleshipGUI.loadStats();
+    }
+}
@@ -0,0 +1,47 @@
+package bench;
+
+// What the benchmarks exercise. The game classes live in the unnamed
+// package, which a named package cannot import, so the implementation (the
+// top-level Fixtures class) is looked up by name once per trial. After that
+// every call is a plain interface call.
+public interface Fixture {
+
+    // size is the width and height of the boards, both the one shot at
+    // alone and the game's; players the number of stats records
+    void setUp(int size, String strategy, int players) throws Exception;
+
+    // one CPU shot at the player's board; a new fleet is placed once it sinks
+    int computerMove();
+
+    // clears a board and places the whole fleet at random
+    int computerPlaceFleet();
+
+    // a full placement phase on the game: each player ship and the CPU's
+    int placementPhase();
+
+    // renders every cell of the player's table once, as one full paint does
+    int renderBoard();
+
+    // saves go through the GUI's background writer; these wait until done
+    void saveGameState() throws Exception;
+
+    void resumeGameState() throws Exception;
+
+    // a player shot and the CPU's reply on the game with its move journal
+    // on; a new game is journaled once one ends
+    int journaledTurn();
+
+    void saveStats() throws Exception;
+
+    // one match result for a random existing player (or a new one)
+    void recordStats() throws Exception;
+
+    // rank of a random player by wins plus the top ten by best score
+    int leaderboard();
+
+    void loadStats() throws Exception;
+
+    static Fixture create() throws ReflectiveOperationException {
+        return (Fixture) Class.forName("Fixtures").getDeclaredConstructor().newInstance();
+    }
+}
@@ -0,0 +1,44 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// One CPU shot (ComputerPlayer.fire, the body of computerMove). The cost of
+// re-placing the fleet once a board is sunk is spread over the shots.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class MoveBenchmark {
+
+    @Param({"10", "100"})
+    int size;
+
+    @Param({"hunt", "density"})
+    String strategy;
+
+    Fixture fixture;
+
+    @Setup
+    public void setUp() throws Exception {
+        fixture = Fixture.create();
+        fixture.setUp(size, strategy, 0);
+    }
+
+    @Benchmark
+    public int computerMove() {
+        return fixture.computerMove();
+    }
+}
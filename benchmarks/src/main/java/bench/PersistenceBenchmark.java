@@ -0,0 +1,96 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Saving and loading a game in progress on a small and a large board, and
+// the stats file with a small and a large number of players. Files go to
+// the working directory.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PersistenceBenchmark {
+
+    @State(Scope.Thread)
+    public static class Game {
+
+        @Param({"10", "100"})
+        int size;
+
+        Fixture fixture;
+
+        @Setup
+        public void setUp() throws Exception {
+            fixture = Fixture.create();
+            fixture.setUp(size, "hunt", 0);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Stats {
+
+        @Param({"100", "100000"})
+        int players;
+
+        // "log" for the in-memory store and its log, "mapped" for MappedStats
+        @Param({"log", "mapped"})
+        String backend;
+
+        Fixture fixture;
+
+        @Setup
+        public void setUp() throws Exception {
+            System.setProperty("battleship.stats", backend);
+            fixture = Fixture.create();
+            fixture.setUp(10, "hunt", players);
+        }
+    }
+
+    @Benchmark
+    public void saveGameState(Game state) throws Exception {
+        state.fixture.saveGameState();
+    }
+
+    @Benchmark
+    public void resumeGameState(Game state) throws Exception {
+        state.fixture.resumeGameState();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int journaledTurn(Game state) {
+        return state.fixture.journaledTurn();
+    }
+
+    @Benchmark
+    public void saveStats(Stats state) throws Exception {
+        state.fixture.saveStats();
+    }
+
+    @Benchmark
+    public void recordStats(Stats state) throws Exception {
+        state.fixture.recordStats();
+    }
+
+    @Benchmark
+    public int leaderboard(Stats state) {
+        return state.fixture.leaderboard();
+    }
+
+    @Benchmark
+    public void loadStats(Stats state) throws Exception {
+        state.fixture.loadStats();
+    }
+}
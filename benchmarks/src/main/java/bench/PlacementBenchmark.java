@@ -0,0 +1,61 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Ship placement: the CPU placing a whole fleet (computerPlaceShip) on
+// boards of different sizes, and a full placeShip phase on a normal game.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PlacementBenchmark {
+
+    @State(Scope.Thread)
+    public static class Sized {
+
+        @Param({"10", "100"})
+        int size;
+
+        Fixture fixture;
+
+        @Setup
+        public void setUp() throws Exception {
+            fixture = Fixture.create();
+            fixture.setUp(size, "hunt", 0);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Standard {
+
+        Fixture fixture;
+
+        @Setup
+        public void setUp() throws Exception {
+            fixture = Fixture.create();
+            fixture.setUp(10, "hunt", 0);
+        }
+    }
+
+    @Benchmark
+    public int computerPlaceFleet(Sized state) {
+        return state.fixture.computerPlaceFleet();
+    }
+
+    @Benchmark
+    public int placementPhase(Standard state) {
+        return state.fixture.placementPhase();
+    }
+}
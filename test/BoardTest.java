@@ -0,0 +1,150 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+import org.junit.Test;
+
+// Board's bitmasks against a plain grid of square states, on sizes whose
+// rows straddle the 64-square words
+public class BoardTest {
+
+    @Test
+    public void matchesAPlainGrid() {
+        Random random = new Random(1);
+        int[][] sizes = {{10, 10}, {7, 13}, {1, 65}, {65, 1}, {30, 70}};
+        for (int[] size : sizes) {
+            int rows = size[0];
+            int columns = size[1];
+            Board board = new Board(rows, columns);
+            int[][] grid = new int[rows][columns];
+            int shipSquares = 0;
+            for (int tries = 0; tries < 200; tries++) {
+                int length = 1 + random.nextInt(5);
+                int row = random.nextInt(rows);
+                int column = random.nextInt(columns);
+                boolean horizontal = random.nextBoolean();
+                boolean fits = fits(grid, row, column, length, horizontal);
+                assertEquals(fits, board.canPlace(row, column, length, horizontal));
+                if (fits) {
+                    board.place(row, column, length, horizontal);
+                    for (int i = 0; i < length; i++) {
+                        grid[horizontal ? row : row + i][horizontal ? column + i : column] = Board.SHIP;
+                    }
+                    shipSquares += length;
+                }
+            }
+            assertEquals(shipSquares, board.squaresRemaining());
+            int hits = 0;
+            for (int shot = 0; shot < rows * columns; shot++) {
+                int row = random.nextInt(rows);
+                int column = random.nextInt(columns);
+                int result = board.fire(row, column);
+                int before = grid[row][column];
+                if (before == Board.HIT || before == Board.MISS) {
+                    assertEquals(-1, result);
+                } else {
+                    grid[row][column] = before == Board.SHIP ? Board.HIT : Board.MISS;
+                    assertEquals(grid[row][column], result);
+                    hits += result == Board.HIT ? 1 : 0;
+                }
+            }
+            assertEquals(shipSquares - hits, board.squaresRemaining());
+            int shots = 0;
+            for (int row = 0; row < rows; row++) {
+                for (int column = 0; column < columns; column++) {
+                    assertEquals(grid[row][column], board.get(row, column));
+                    boolean shot = grid[row][column] == Board.HIT || grid[row][column] == Board.MISS;
+                    assertEquals(shot, board.isShot(row, column));
+                    shots += shot ? 1 : 0;
+                }
+            }
+            assertEquals(shots, board.shotsFired());
+        }
+    }
+
+    @Test
+    public void shipsAreFoundAndSunk() {
+        Board board = new Board(7, 13);
+        board.place(0, 10, 3, true);
+        board.place(2, 12, 4, false);
+        assertEquals(2, board.shipCount);
+        assertEquals(0, board.shipAt(0, 12));
+        assertEquals(1, board.shipAt(5, 12));
+        // the square after the horizontal ship, wrapped onto the next row
+        assertEquals(-1, board.shipAt(1, 0));
+        assertEquals(-1, board.shipAt(6, 12));
+        assertEquals(10, board.getShipStart(0));
+        assertEquals(3, board.getShipLength(0));
+        assertTrue(board.isShipHorizontal(0));
+        assertFalse(board.isShipHorizontal(1));
+
+        for (int row = 2; row < 6; row++) {
+            assertFalse(board.isSunk(1));
+            assertEquals(Board.HIT, board.fire(row, 12));
+        }
+        assertTrue(board.isSunk(1));
+        assertFalse(board.isSunk(0));
+        assertEquals(3, board.squaresRemaining());
+    }
+
+    @Test
+    public void setKeepsTheCountsRight() {
+        Board board = new Board(10, 10);
+        board.set(0, 0, Board.SHIP);
+        board.set(0, 1, Board.HIT);
+        board.set(0, 2, Board.MISS);
+        assertEquals(1, board.squaresRemaining());
+        assertEquals(2, board.shotsFired());
+        board.set(0, 1, Board.EMPTY);
+        board.set(0, 0, Board.HIT);
+        assertEquals(0, board.squaresRemaining());
+        assertEquals(Board.HIT, board.get(0, 0));
+        assertEquals(Board.EMPTY, board.get(0, 1));
+        assertEquals(Board.MISS, board.get(0, 2));
+    }
+
+    @Test
+    public void copyFromTakesEverything() {
+        Board board = new Board(7, 13);
+        board.place(3, 3, 5, false);
+        board.fire(4, 3);
+        board.fire(0, 0);
+        Board copy = new Board(7, 13);
+        copy.place(0, 0, 2, true);
+        copy.copyFrom(board);
+        SavedGameTest.assertSameBoard(board, copy);
+        assertEquals(board.squaresRemaining(), copy.squaresRemaining());
+        assertEquals(0, copy.shipAt(6, 3));
+
+        try {
+            new Board(13, 7).copyFrom(board);
+            fail("copied a board of another size");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void clearEmptiesTheBoard() {
+        Board board = new Board(7, 13);
+        board.place(6, 8, 5, true);
+        board.fire(6, 12);
+        board.clear();
+        assertEquals(0, board.shipCount);
+        assertEquals(0, board.squaresRemaining());
+        assertEquals(0, board.shotsFired());
+        assertTrue(board.canPlace(6, 8, 5, true));
+    }
+
+    static boolean fits(int[][] grid, int row, int column, int length, boolean horizontal) {
+        for (int i = 0; i < length; i++) {
+            int r = horizontal ? row : row + i;
+            int c = horizontal ? column + i : column;
+            if (r >= grid.length || c >= grid[0].length || grid[r][c] != Board.EMPTY) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
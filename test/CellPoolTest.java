@@ -0,0 +1,144 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+// CellPool against a plain array of the squares left, on sizes whose rows
+// straddle the 64-square words and one large enough for a deep tree
+public class CellPoolTest {
+
+    static final int[][] SIZES = {{1, 1}, {7, 13}, {10, 10}, {1, 65}, {65, 1}, {130, 130}};
+
+    @Test
+    public void removeKeepsCountsAndOrder() {
+        Random random = new Random(1);
+        for (int[] size : SIZES) {
+            int rows = size[0];
+            int columns = size[1];
+            CellPool pool = new CellPool(rows, columns);
+            boolean[] left = new boolean[rows * columns];
+            Arrays.fill(left, true);
+            assertSame(left, columns, pool);
+            for (int step = 0; step < left.length; step++) {
+                int square = random.nextInt(left.length);
+                pool.remove(square);
+                left[square] = false;
+                if (step % (1 + left.length / 8) == 0) {
+                    assertSame(left, columns, pool);
+                }
+            }
+            assertSame(left, columns, pool);
+            // removing them all leaves nothing
+            for (int square = 0; square < left.length; square++) {
+                pool.remove(square);
+                left[square] = false;
+            }
+            assertSame(left, columns, pool);
+            pool.fill();
+            Arrays.fill(left, true);
+            assertSame(left, columns, pool);
+        }
+    }
+
+    @Test
+    public void fillExceptLeavesOutTheTakenSquares() {
+        Random random = new Random(2);
+        for (int[] size : SIZES) {
+            int rows = size[0];
+            int columns = size[1];
+            Board board = new Board(rows, columns);
+            for (int i = 0; i < rows * columns / 10; i++) {
+                int row = random.nextInt(rows);
+                int column = random.nextInt(columns);
+                if (board.canPlace(row, column, 1, true)) {
+                    board.place(row, column, 1, true);
+                }
+            }
+            CellPool pool = new CellPool(rows, columns);
+            pool.remove(0);
+            pool.fillExcept(board.ships);
+            boolean[] left = new boolean[rows * columns];
+            for (int square = 0; square < left.length; square++) {
+                left[square] = board.get(square / columns, square % columns) == Board.EMPTY;
+            }
+            assertSame(left, columns, pool);
+        }
+    }
+
+    // Draws land only on squares left, each about equally often
+    @Test
+    public void sampleDrawsSquaresLeftEvenly() {
+        Random random = new Random(3);
+        CellPool pool = new CellPool(7, 13);
+        for (int square = 0; square < 91; square += 3) {
+            pool.remove(square);
+        }
+        int draws = pool.size() * 1000;
+        int[] drawn = new int[91];
+        for (int i = 0; i < draws; i++) {
+            drawn[pool.sample(random)]++;
+        }
+        for (int square = 0; square < 91; square++) {
+            if (pool.contains(square)) {
+                assertTrue("square " + square + " drawn " + drawn[square],
+                        drawn[square] > 800 && drawn[square] < 1200);
+            } else {
+                assertEquals(0, drawn[square]);
+            }
+        }
+    }
+
+    @Test
+    public void weightedSampleFavoursAColour() {
+        Random random = new Random(4);
+        CellPool pool = new CellPool(10, 10);
+        for (int square = 0; square < 100; square += 7) {
+            pool.remove(square);
+        }
+        int evens = pool.size[0];
+        int odds = pool.size[1];
+        int draws = 100000;
+        int evenDraws = 0;
+        for (int i = 0; i < draws; i++) {
+            int square = pool.sample(random, 3, 1);
+            assertTrue(pool.contains(square));
+            evenDraws += CellPool.colourOf(square / 10, square % 10) == 0 ? 1 : 0;
+        }
+        double expected = 3.0 * evens / (3.0 * evens + odds);
+        assertEquals(expected, (double) evenDraws / draws, 0.01);
+
+        // one colour weighted out entirely is never drawn
+        for (int i = 0; i < 1000; i++) {
+            int square = pool.sample(random, 0, 1);
+            assertEquals(1, CellPool.colourOf(square / 10, square % 10));
+        }
+        // and no weight at all falls back to an even draw
+        int square = pool.sample(random, 0, 0);
+        assertTrue(pool.contains(square));
+    }
+
+    // The pool's size, membership and per-colour order all match left
+    static void assertSame(boolean[] left, int columns, CellPool pool) {
+        List<List<Integer>> byColour = new ArrayList<List<Integer>>();
+        byColour.add(new ArrayList<Integer>());
+        byColour.add(new ArrayList<Integer>());
+        for (int square = 0; square < left.length; square++) {
+            assertEquals(left[square], pool.contains(square));
+            if (left[square]) {
+                byColour.get(CellPool.colourOf(square / columns, square % columns)).add(square);
+            }
+        }
+        assertEquals(byColour.get(0).size() + byColour.get(1).size(), pool.size());
+        for (int colour = 0; colour < 2; colour++) {
+            List<Integer> squares = byColour.get(colour);
+            assertEquals(squares.size(), pool.size[colour]);
+            for (int k = 0; k < squares.size(); k++) {
+                assertEquals(squares.get(k).intValue(), pool.select(colour, k));
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+// EndgameSolver against a brute force count: every way to place the ships
+// still afloat, one square at a time, on small boards with random shots
+public class EndgameSolverTest {
+
+    static final int[] FLEET = {1, 2, 2, 3, 4};
+
+    @Test
+    public void sharesMatchBruteForce() {
+        Random random = new Random(5);
+        int tested = 0;
+        for (int game = 0; game < 400 && tested < 100; game++) {
+            int rows = 6 + random.nextInt(4);
+            int columns = 6 + random.nextInt(4);
+            Board board = fleetBoard(rows, columns, random);
+            shootAtRandom(board, rows * columns / 2 + random.nextInt(rows * columns / 2 - 5), random);
+            if (board.squaresRemaining() == 0) {
+                continue;
+            }
+            EndgameSolver solver = EndgameSolver.of(board, FLEET);
+            if (solver == null) {
+                continue;
+            }
+            assertTrue(solver.solve(10000000000L));
+            BruteForce brute = new BruteForce(board);
+            assertTrue(brute.total > 0);
+            for (int square = 0; square < rows * columns; square++) {
+                int row = square / columns;
+                int column = square % columns;
+                if (!board.isShot(row, column)) {
+                    assertEquals("square " + row + "," + column + " of game " + game,
+                            brute.occupied[square] / brute.total,
+                            solver.probability(row, column), 1e-9);
+                }
+            }
+            tested++;
+        }
+        assertTrue("too few positions in reach of the solver: " + tested, tested >= 50);
+    }
+
+    @Test
+    public void givesUpPastItsStepBudget() {
+        Random random = new Random(7);
+        EndgameSolver solver = null;
+        while (solver == null) {
+            Board board = fleetBoard(8, 8, random);
+            shootAtRandom(board, 20, random);
+            solver = EndgameSolver.of(board, FLEET);
+        }
+        assertFalse(solver.solve(10000000000L, 1));
+        assertTrue(solver.timedOut);
+        assertTrue(solver.solve(10000000000L));
+    }
+
+    static Board fleetBoard(int rows, int columns, Random random) {
+        Board board = new Board(rows, columns);
+        new ComputerPlayer(random).placeFleet(board, FLEET);
+        return board;
+    }
+
+    static void shootAtRandom(Board board, int shots, Random random) {
+        int columns = board.getColumns();
+        List<Integer> squares = new ArrayList<Integer>();
+        for (int square = 0; square < board.getRows() * columns; square++) {
+            squares.add(square);
+        }
+        Collections.shuffle(squares, random);
+        for (int i = 0; i < shots; i++) {
+            board.fire(squares.get(i) / columns, squares.get(i) % columns);
+        }
+    }
+
+    // Counts configurations of the ships afloat that agree with the shots:
+    // none on a miss or a sunk ship, every other hit covered. Ships of the
+    // same length are placed in every order, as the solver does; the shares
+    // come out the same.
+    static class BruteForce {
+
+        final int rows;
+        final int columns;
+        final boolean[] blocked;
+        final boolean[] hit;
+        final boolean[] used;
+        final int[] lengths;
+        double total;
+        final double[] occupied;
+
+        BruteForce(Board board) {
+            rows = board.getRows();
+            columns = board.getColumns();
+            int squares = rows * columns;
+            blocked = new boolean[squares];
+            hit = new boolean[squares];
+            used = new boolean[squares];
+            occupied = new double[squares];
+            for (int square = 0; square < squares; square++) {
+                int state = board.get(square / columns, square % columns);
+                blocked[square] = state == Board.MISS;
+                hit[square] = state == Board.HIT;
+            }
+            List<Integer> left = new ArrayList<Integer>();
+            for (int length : FLEET) {
+                left.add(length);
+            }
+            for (int ship = 0; ship < board.shipCount; ship++) {
+                if (board.isSunk(ship)) {
+                    left.remove((Integer) board.getShipLength(ship));
+                    int step = board.isShipHorizontal(ship) ? 1 : columns;
+                    for (int i = 0; i < board.getShipLength(ship); i++) {
+                        int square = board.getShipStart(ship) + i * step;
+                        blocked[square] = true;
+                        hit[square] = false;
+                    }
+                }
+            }
+            lengths = new int[left.size()];
+            for (int i = 0; i < lengths.length; i++) {
+                lengths[i] = left.get(i);
+            }
+            place(0);
+        }
+
+        void place(int ship) {
+            if (ship == lengths.length) {
+                for (int square = 0; square < used.length; square++) {
+                    if (hit[square] && !used[square]) {
+                        return;
+                    }
+                }
+                total++;
+                for (int square = 0; square < used.length; square++) {
+                    if (used[square]) {
+                        occupied[square]++;
+                    }
+                }
+                return;
+            }
+            int length = lengths[ship];
+            for (int start = 0; start < used.length; start++) {
+                for (int step : length == 1 ? new int[]{1} : new int[]{1, columns}) {
+                    if (step == 1 ? start % columns + length > columns
+                            : start / columns + length > rows) {
+                        continue;
+                    }
+                    boolean free = true;
+                    for (int i = 0; i < length; i++) {
+                        int square = start + i * step;
+                        free &= !blocked[square] && !used[square];
+                    }
+                    if (!free) {
+                        continue;
+                    }
+                    for (int i = 0; i < length; i++) {
+                        used[start + i * step] = true;
+                    }
+                    place(ship + 1);
+                    for (int i = 0; i < length; i++) {
+                        used[start + i * step] = false;
+                    }
+                }
+            }
+        }
+    }
+}
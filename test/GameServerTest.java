@@ -0,0 +1,262 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+// Games played against a server on a free port, over real sockets
+public class GameServerTest {
+
+    static final int ROWS = 6;
+    static final int COLUMNS = 6;
+    static final int[] FLEET = {2, 3};
+
+    GameServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new GameServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 2,
+                ROWS, COLUMNS, FLEET);
+    }
+
+    @After
+    public void stopServer() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void playsAgainstTheCpu() throws IOException {
+        Client client = new Client(server.getPort());
+        client.join(GameProtocol.VS_CPU, "Ada");
+        client.expectStart("CPU");
+
+        client.fire(0, 0);
+        client.expectError(GameProtocol.NOT_NOW);
+        client.placeFleet();
+        client.expect(GameProtocol.TURN);
+
+        client.fire(ROWS, 0);
+        client.expectError(GameProtocol.BAD_SQUARE);
+
+        int outcome = -1;
+        for (int square = 0; outcome == -1; square++) {
+            int row = square / COLUMNS;
+            int column = square % COLUMNS;
+            client.fire(row, column);
+            client.expectShot(0, row, column);
+            ByteBuffer next = client.next();
+            if (client.type == GameProtocol.OVER) {
+                outcome = next.get();
+                break;
+            }
+            assertEquals(GameProtocol.SHOT, client.type);
+            assertEquals(1, next.get());
+            next = client.next();
+            if (client.type == GameProtocol.OVER) {
+                outcome = next.get();
+            } else {
+                assertEquals(GameProtocol.TURN, client.type);
+                if (square == 0) {
+                    client.fire(row, column);
+                    client.expectError(GameProtocol.BAD_SQUARE);
+                }
+            }
+        }
+        assertTrue(outcome == GameProtocol.WON || outcome == GameProtocol.LOST);
+        assertEquals(1, server.getGames());
+
+        // the connection can play again
+        client.join(GameProtocol.VS_CPU, "Ada");
+        client.expectStart("CPU");
+        client.close();
+    }
+
+    @Test
+    public void playsTwoPlayers() throws IOException {
+        Client first = new Client(server.getPort());
+        Client second = new Client(server.getPort());
+        first.join(GameProtocol.VS_PLAYER, "Ada");
+        first.expect(GameProtocol.WAITING);
+        first.join(GameProtocol.VS_PLAYER, "Ada");
+        first.expectError(GameProtocol.NOT_NOW);
+        second.join(GameProtocol.VS_PLAYER, "Bob");
+        second.expectStart("Ada");
+        first.expectStart("Bob");
+
+        second.fire(0, 0);
+        second.expectError(GameProtocol.NOT_NOW);
+        first.placeFleet();
+        second.placeFleet();
+        // whoever waited first fires first
+        first.expect(GameProtocol.TURN);
+        second.fire(0, 0);
+        second.expectError(GameProtocol.NOT_NOW);
+
+        // both fleets lie in the top corner, so the first to fire wins,
+        // with the last of squares 0 to 8
+        for (int square = 0; ; square++) {
+            int row = square / COLUMNS;
+            int column = square % COLUMNS;
+            first.fire(row, column);
+            first.expectShot(0, row, column);
+            second.expectShot(1, row, column);
+            if (square == 8) {
+                first.expectOver(GameProtocol.WON);
+                second.expectOver(GameProtocol.LOST);
+                break;
+            }
+            second.expect(GameProtocol.TURN);
+            second.fire(row, column);
+            second.expectShot(0, row, column);
+            first.expectShot(1, row, column);
+            first.expect(GameProtocol.TURN);
+        }
+        assertEquals(1, server.getGames());
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void leavingAbandonsTheGame() throws IOException {
+        Client first = new Client(server.getPort());
+        Client second = new Client(server.getPort());
+        first.join(GameProtocol.VS_PLAYER, "Ada");
+        first.expect(GameProtocol.WAITING);
+        second.join(GameProtocol.VS_PLAYER, "Bob");
+        second.expectStart("Ada");
+        first.expectStart("Bob");
+
+        second.leave();
+        first.expectOver(GameProtocol.ABANDONED);
+
+        // and a disconnect does the same
+        first.join(GameProtocol.VS_PLAYER, "Ada");
+        first.expect(GameProtocol.WAITING);
+        second.join(GameProtocol.VS_PLAYER, "Bob");
+        second.expectStart("Ada");
+        first.expectStart("Bob");
+        first.placeFleet();
+        second.close();
+        first.expectOver(GameProtocol.ABANDONED);
+        first.close();
+    }
+
+    // A blocking client that reads one frame at a time
+    static class Client {
+
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+        final ByteBuffer frame = ByteBuffer.allocate(GameProtocol.MAX_FRAME);
+        // type of the last frame read
+        int type;
+
+        Client(int port) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setSoTimeout(10000);
+            in = new DataInputStream(socket.getInputStream());
+            out = new DataOutputStream(socket.getOutputStream());
+        }
+
+        void send() throws IOException {
+            out.write(frame.array(), 0, frame.position());
+            out.flush();
+            frame.clear();
+        }
+
+        void join(int mode, String name) throws IOException {
+            GameProtocol.join(frame, mode, name);
+            send();
+        }
+
+        void place(int row, int column, boolean isHorizontal) throws IOException {
+            GameProtocol.place(frame, row, column, isHorizontal);
+            send();
+        }
+
+        void fire(int row, int column) throws IOException {
+            GameProtocol.fire(frame, row, column);
+            send();
+        }
+
+        void leave() throws IOException {
+            GameProtocol.leave(frame);
+            send();
+        }
+
+        // The fleet along the top two rows, after one try that does not fit
+        void placeFleet() throws IOException {
+            place(0, 0, true);
+            expectPlaced(1, FLEET[1]);
+            place(0, 1, true);
+            expectPlaced(0, FLEET[1]);
+            place(1, 0, true);
+            expectPlaced(1, 0);
+        }
+
+        // The next frame's fields; its type is left in type
+        ByteBuffer next() throws IOException {
+            byte[] bytes = new byte[in.readUnsignedShort()];
+            in.readFully(bytes);
+            ByteBuffer fields = ByteBuffer.wrap(bytes);
+            type = fields.get() & 0xFF;
+            return fields;
+        }
+
+        ByteBuffer expect(int expected) throws IOException {
+            ByteBuffer fields = next();
+            assertEquals(expected, type);
+            return fields;
+        }
+
+        void expectError(int code) throws IOException {
+            assertEquals(code, expect(GameProtocol.ERROR).get());
+        }
+
+        void expectOver(int outcome) throws IOException {
+            assertEquals(outcome, expect(GameProtocol.OVER).get());
+        }
+
+        void expectPlaced(int placed, int nextLength) throws IOException {
+            ByteBuffer fields = expect(GameProtocol.PLACED);
+            assertEquals(placed, fields.get());
+            assertEquals(nextLength, GameProtocol.getUnsignedShort(fields));
+        }
+
+        void expectShot(int opponent, int row, int column) throws IOException {
+            ByteBuffer fields = expect(GameProtocol.SHOT);
+            assertEquals(opponent, fields.get());
+            assertEquals(row, GameProtocol.getUnsignedShort(fields));
+            assertEquals(column, GameProtocol.getUnsignedShort(fields));
+            int result = fields.get();
+            assertTrue(result == Board.HIT || result == Board.MISS);
+        }
+
+        void expectStart(String opponent) throws IOException {
+            ByteBuffer fields = expect(GameProtocol.START);
+            assertEquals(ROWS, GameProtocol.getUnsignedShort(fields));
+            assertEquals(COLUMNS, GameProtocol.getUnsignedShort(fields));
+            int[] fleet = new int[fields.get()];
+            for (int i = 0; i < fleet.length; i++) {
+                fleet[i] = GameProtocol.getUnsignedShort(fields);
+            }
+            assertArrayEquals(FLEET, fleet);
+            assertEquals(opponent, new String(fields.array(), fields.position(),
+                    fields.remaining(), StandardCharsets.UTF_8));
+        }
+
+        void close() throws IOException {
+            socket.close();
+        }
+    }
+}
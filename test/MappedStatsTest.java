@@ -0,0 +1,168 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedStatsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Entries whose runs wrap past the end of the table stay reachable from
+    // their home positions as others are deleted
+    @Test
+    public void deleteEntryShiftsLaterEntriesBack() throws IOException {
+        MappedStats stats = MappedStats.open(folder.getRoot().toPath());
+        int capacity = stats.indexCapacity;
+        Random random = new Random(1);
+        List<Long> present = new ArrayList<Long>();
+        for (int slot = 1; slot <= 40; slot++) {
+            // homes bunched around the wrap, so runs cross it and overlap
+            int home = (capacity - 8 + random.nextInt(16)) & (capacity - 1);
+            long entry = ((long) home << 32) | slot;
+            stats.insertEntry(entry);
+            present.add(entry);
+        }
+        while (!present.isEmpty()) {
+            long entry = present.remove(random.nextInt(present.size()));
+            stats.deleteEntry(positionOf(stats, entry));
+            assertEquals(-1, positionOf(stats, entry));
+            for (long other : present) {
+                assertTrue(positionOf(stats, other) != -1);
+            }
+        }
+        for (int i = 0; i < capacity; i++) {
+            assertEquals(0, stats.entry(i));
+        }
+        stats.close();
+    }
+
+    // Past the first index size, so the table is rehashed and the record
+    // file grown; every player is still found, in joining order
+    @Test
+    public void rehashKeepsEveryPlayer() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        MappedStats stats = MappedStats.open(directory);
+        int firstCapacity = stats.indexCapacity;
+        for (int i = 0; i < 3000; i++) {
+            stats.recordMatch("p" + i, i % 7 - 3);
+        }
+        assertTrue(stats.indexCapacity > firstCapacity);
+        assertPlayers(stats, 0, 3000, -1);
+        stats.close();
+        stats = MappedStats.open(directory);
+        assertPlayers(stats, 0, 3000, -1);
+        stats.close();
+    }
+
+    // Later slots move down one and the index follows them
+    @Test
+    public void removeShiftsLaterSlots() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        MappedStats stats = MappedStats.open(directory);
+        for (int i = 0; i < 50; i++) {
+            stats.recordMatch("p" + i, i + 1);
+        }
+        stats.rank(PlayerStats.Order.WINS, "p3");
+        stats.remove("p20");
+        assertPlayers(stats, 0, 50, 20);
+        assertEquals(19, stats.rank(PlayerStats.Order.JOINED, "p19"));
+        assertEquals(20, stats.rank(PlayerStats.Order.JOINED, "p21"));
+        assertEquals(23, stats.get("p22").bestScore);
+        assertEquals("p49", stats.get(PlayerStats.Order.BEST, 0).name);
+        stats.remove("p49");
+        stats.remove("p0");
+        assertEquals(47, stats.size());
+        assertEquals("p1", stats.get(PlayerStats.Order.JOINED, 0).name);
+        assertEquals("p48", stats.get(PlayerStats.Order.BEST, 0).name);
+        stats.close();
+        stats = MappedStats.open(directory);
+        assertEquals(47, stats.size());
+        assertNull(stats.get("p20"));
+        assertEquals(46, stats.rank(PlayerStats.Order.JOINED, "p48"));
+        stats.close();
+    }
+
+    @Test
+    public void rejectsCountPastCapacity() throws IOException {
+        assertRejected("record.dat", MappedStats.COUNT, 1 << 20);
+    }
+
+    @Test
+    public void rejectsRecordCapacityPastFile() throws IOException {
+        assertRejected("record.dat", MappedStats.CAPACITY, 1 << 20);
+    }
+
+    @Test
+    public void rejectsNameBytesPastCapacity() throws IOException {
+        assertRejected("record.names", MappedStats.COUNT, Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void rejectsIndexCapacityNotPowerOfTwo() throws IOException {
+        assertRejected("record.idx", MappedStats.CAPACITY, 1000);
+    }
+
+    @Test
+    public void rejectsIndexCapacityPastFile() throws IOException {
+        assertRejected("record.idx", MappedStats.CAPACITY, 1 << 20);
+    }
+
+    // Overwrites one header field of a file with a few players in it
+    void assertRejected(String file, int field, int value) throws IOException {
+        Path directory = folder.getRoot().toPath();
+        MappedStats stats = MappedStats.open(directory);
+        for (int i = 0; i < 10; i++) {
+            stats.recordMatch("p" + i, 1);
+        }
+        stats.close();
+        try (RandomAccessFile out = new RandomAccessFile(directory.resolve(file).toFile(), "rw")) {
+            out.seek(field);
+            out.writeInt(value);
+        }
+        try {
+            MappedStats.open(directory).close();
+            fail("opened a damaged " + file);
+        } catch (IOException expected) {
+        }
+    }
+
+    // Table position of the entry, found by probing from its home, or -1
+    static int positionOf(MappedStats stats, long entry) {
+        int mask = stats.indexCapacity - 1;
+        for (int i = (int) (entry >>> 32) & mask; stats.entry(i) != 0; i = (i + 1) & mask) {
+            if (stats.entry(i) == entry) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Players p<from> to p<to - 1>, but for p<removed>, in joining order
+    static void assertPlayers(MappedStats stats, int from, int to, int removed) {
+        int position = 0;
+        for (int i = from; i < to; i++) {
+            String name = "p" + i;
+            if (i == removed) {
+                assertNull(stats.get(name));
+                continue;
+            }
+            assertEquals(name, stats.get(PlayerStats.Order.JOINED, position).name);
+            assertEquals(position, stats.rank(PlayerStats.Order.JOINED, name));
+            assertFalse(stats.get(name) == null);
+            position++;
+        }
+        assertEquals(position, stats.size());
+    }
+}
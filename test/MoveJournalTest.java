@@ -0,0 +1,62 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MoveJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // A crash between the player's shot and the CPU's reply leaves the
+    // reply owed, not another shot for the player
+    @Test
+    public void journalEndingOnPlayerShotOwesTheCpuItsMove() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("game.journal");
+        GameEngine game = new GameEngine(new Random(1));
+        journalTurns(file, game, 3, true);
+
+        GameEngine recovered = new GameEngine(new Random(2));
+        assertEquals("Ada", MoveJournal.recover(file, recovered));
+        SavedGameTest.assertSameBoard(game.getComputerBoard(), recovered.getComputerBoard());
+        SavedGameTest.assertSameBoard(game.getPlayerBoard(), recovered.getPlayerBoard());
+        assertTrue(recovered.isComputerToMove());
+        recovered.computerMove();
+        assertFalse(recovered.isComputerToMove());
+    }
+
+    @Test
+    public void journalEndingOnCpuShotIsThePlayersTurn() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("game.journal");
+        GameEngine game = new GameEngine(new Random(3));
+        journalTurns(file, game, 3, false);
+
+        GameEngine recovered = new GameEngine(new Random(4));
+        assertEquals("Ada", MoveJournal.recover(file, recovered));
+        assertEquals(GameEngine.Phase.PLAYER_MOVE, recovered.getPhase());
+        assertFalse(recovered.isComputerToMove());
+    }
+
+    // Journals the fleet going down and some turns, then one more player
+    // shot if asked, and waits for it all to be on disk
+    static void journalTurns(Path file, GameEngine game, int turns, boolean extraShot)
+            throws Exception {
+        MoveJournal journal = new MoveJournal(file, game);
+        journal.start("Ada");
+        SavedGameTest.placeFleet(game);
+        for (int turn = 0; turn < turns; turn++) {
+            game.playerFire(0, turn);
+            game.computerMove();
+        }
+        if (extraShot) {
+            game.playerFire(1, 0);
+        }
+        assertTrue(journal.drain(10000));
+        journal.close(10000);
+    }
+}
@@ -0,0 +1,124 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+// PlacementTable against placements worked out square by square, on boards
+// small enough for precomputed masks and too large for them
+public class PlacementTableTest {
+
+    @Test
+    public void listsEveryPlacementOnce() {
+        int[][] sizes = {{10, 10}, {7, 13}, {3, 1}, {4, 4}, {200, 100}};
+        for (int[] size : sizes) {
+            int rows = size[0];
+            int columns = size[1];
+            for (int length = 1; length <= 6; length++) {
+                PlacementTable table = PlacementTable.of(rows, columns, length);
+                boolean[] seen = new boolean[table.size()];
+                int expected = 0;
+                for (int row = 0; row < rows; row++) {
+                    for (int column = 0; column < columns; column++) {
+                        for (boolean horizontal : new boolean[]{true, false}) {
+                            int placement = table.indexOf(row, column, horizontal);
+                            boolean onBoard = horizontal ? column + length <= columns
+                                    : row + length <= rows;
+                            assertEquals(onBoard, placement != -1);
+                            if (placement == -1) {
+                                continue;
+                            }
+                            expected++;
+                            assertFalse(seen[placement]);
+                            seen[placement] = true;
+                            assertEquals(row * columns + column, table.startOf(placement));
+                            assertEquals(horizontal, table.isHorizontal(placement));
+                        }
+                    }
+                }
+                assertEquals(expected, table.size());
+            }
+        }
+    }
+
+    @Test
+    public void fitsMatchesSquareBySquare() {
+        Random random = new Random(1);
+        int[][] sizes = {{10, 10}, {7, 13}, {200, 100}};
+        for (int[] size : sizes) {
+            int rows = size[0];
+            int columns = size[1];
+            Board board = new Board(rows, columns);
+            for (int i = 0; i < rows * columns / 20; i++) {
+                int row = random.nextInt(rows);
+                int column = random.nextInt(columns);
+                boolean horizontal = random.nextBoolean();
+                if (board.canPlace(row, column, 3, horizontal)) {
+                    board.place(row, column, 3, horizontal);
+                }
+            }
+            for (int length = 1; length <= 6; length++) {
+                PlacementTable table = PlacementTable.of(rows, columns, length);
+                for (int placement = 0; placement < table.size(); placement++) {
+                    boolean free = isFree(board, table, placement);
+                    assertEquals(free, table.fits(board, placement));
+                    assertEquals(free, table.fitsUncached(board.ships, placement));
+                }
+            }
+        }
+    }
+
+    // Every free placement turns up, about equally often, whether the
+    // free ones are listed in scratch or counted without it
+    @Test
+    public void sampleDrawsFreePlacementsEvenly() {
+        Random random = new Random(2);
+        Board board = new Board(6, 6);
+        board.place(0, 0, 6, true);
+        board.place(2, 0, 6, true);
+        board.place(4, 0, 6, true);
+        PlacementTable table = PlacementTable.of(6, 6, 2);
+        int free = 0;
+        for (int placement = 0; placement < table.size(); placement++) {
+            free += table.fits(board, placement) ? 1 : 0;
+        }
+        assertTrue(free > 0);
+        for (int[] scratch : new int[][]{new int[table.size()], null}) {
+            int[] drawn = new int[table.size()];
+            int draws = free * 1000;
+            for (int i = 0; i < draws; i++) {
+                int placement = table.sample(board, random, scratch);
+                assertTrue(table.fits(board, placement));
+                drawn[placement]++;
+            }
+            for (int placement = 0; placement < table.size(); placement++) {
+                if (table.fits(board, placement)) {
+                    assertTrue("placement " + placement + " drawn " + drawn[placement],
+                            drawn[placement] > 800 && drawn[placement] < 1200);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sampleGivesUpWhenNothingFits() {
+        Board board = new Board(3, 3);
+        for (int row = 0; row < 3; row++) {
+            board.place(row, 0, 3, true);
+        }
+        assertEquals(-1, PlacementTable.of(3, 3, 2).sample(board, new Random(3), null));
+        assertEquals(-1, PlacementTable.of(3, 3, 4).sample(board, new Random(3), null));
+    }
+
+    static boolean isFree(Board board, PlacementTable table, int placement) {
+        int square = table.startOf(placement);
+        int step = table.isHorizontal(placement) ? 1 : board.getColumns();
+        for (int i = 0; i < table.length; i++, square += step) {
+            if (board.get(square / board.getColumns(), square % board.getColumns()) != Board.EMPTY) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
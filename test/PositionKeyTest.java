@@ -0,0 +1,42 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import org.junit.Test;
+
+public class PositionKeyTest {
+
+    // The key kept up shot by shot is the key worked out from scratch
+    @Test
+    public void incrementalKeyMatchesRecomputed() {
+        Random random = new Random(11);
+        int[] fleet = GameEngine.DEFAULT_FLEET;
+        for (int game = 0; game < 50; game++) {
+            Board board = new Board(10, 10);
+            new ComputerPlayer(random).placeFleet(board, fleet);
+            DensityPlayer shooter = new DensityPlayer(random, fleet);
+            PositionKey key = PositionKey.of(board, fleet);
+            while (board.squaresRemaining() > 0) {
+                int[] shot = shooter.nextShot(board);
+                int result = board.fire(shot[0], shot[1]);
+                shooter.shotFired(board, shot[0], shot[1], result);
+                key.fired(board, shot[0], shot[1], result);
+                assertEquals(PositionKey.of(board, fleet).hash(), key.hash());
+            }
+        }
+    }
+
+    // Shots in another order show the same evidence
+    @Test
+    public void keyIgnoresShotOrder() {
+        int[] fleet = GameEngine.DEFAULT_FLEET;
+        Board board = new Board(10, 10);
+        new ComputerPlayer(new Random(3)).placeFleet(board, fleet);
+        Board other = new Board(10, 10);
+        other.copyFrom(board);
+        for (int square = 0; square < 60; square++) {
+            board.fire(square / 10, square % 10);
+            other.fire((59 - square) / 10, (59 - square) % 10);
+        }
+        assertEquals(PositionKey.of(board, fleet).hash(), PositionKey.of(other, fleet).hash());
+    }
+}
@@ -0,0 +1,196 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import org.junit.Test;
+
+public class SavedGameTest {
+
+    @Test
+    public void roundTripKeepsTheGame() throws IOException {
+        GameEngine game = gameInPlay(new Random(3));
+        SavedGame saved = SavedGame.decode(new SavedGame(game, "Ada").encode());
+
+        assertEquals("Ada", saved.getPlayerName());
+        assertArrayEquals(game.getShipSizes(), saved.fleet);
+        assertEquals(game.getPlacements(), saved.shipsPlaced);
+        assertSameBoard(game.getPlayerBoard(), saved.playerBoard);
+        assertSameBoard(game.getComputerBoard(), saved.computerBoard);
+        ComputerPlayer computer = (ComputerPlayer) game.getComputer();
+        assertEquals(computer.getMoveIndex(), saved.computerMoveIndex);
+        for (int i = 0; i < 4; i++) {
+            assertArrayEquals(computer.getPossibleMoves()[i], saved.computerMoves[i]);
+        }
+
+        GameEngine restored = new GameEngine(new Random(4));
+        saved.restore(restored);
+        assertEquals(game.getPhase(), restored.getPhase());
+        assertSameBoard(game.getPlayerBoard(), restored.getPlayerBoard());
+    }
+
+    @Test
+    public void roundTripKeepsOddSizesAndFleets() throws IOException {
+        Random random = new Random(5);
+        GameEngine game = new GameEngine(random, 7, 130, new int[]{1, 3, 3, 9});
+        placeFleet(game);
+        SavedGame saved = SavedGame.decode(new SavedGame(game, "").encode());
+        assertEquals(7, saved.getRows());
+        assertEquals(130, saved.getColumns());
+        assertArrayEquals(new int[]{1, 3, 3, 9}, saved.fleet);
+        assertSameBoard(game.getPlayerBoard(), saved.playerBoard);
+    }
+
+    @Test
+    public void rejectsWrongMagic() {
+        byte[] bytes = encoded(gameInPlay(new Random(6)));
+        bytes[0] = 'X';
+        assertRejected(withChecksum(bytes));
+    }
+
+    @Test
+    public void rejectsChecksumMismatch() {
+        byte[] bytes = encoded(gameInPlay(new Random(7)));
+        bytes[bytes.length / 2] ^= 1;
+        assertRejected(bytes);
+    }
+
+    @Test
+    public void rejectsTruncatedFile() {
+        byte[] bytes = encoded(gameInPlay(new Random(8)));
+        for (int length = 9; length < bytes.length; length += 7) {
+            assertRejected(withChecksum(Arrays.copyOf(bytes, length)));
+        }
+    }
+
+    @Test
+    public void rejectsUnknownVersion() {
+        byte[] bytes = encoded(gameInPlay(new Random(9)));
+        bytes[4] = (byte) (SavedGame.VERSION + 1);
+        assertRejected(withChecksum(bytes));
+    }
+
+    @Test
+    public void rejectsNumberTooBigForAnInt() {
+        ByteBuffer out = ByteBuffer.allocate(32);
+        out.putInt(SavedGame.MAGIC).put((byte) SavedGame.VERSION);
+        // 10 rows, then a column count that decodes negative
+        out.put((byte) 10).put(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F});
+        out.putInt(0);
+        assertRejected(withChecksum(Arrays.copyOf(out.array(), out.position())));
+    }
+
+    @Test
+    public void rejectsBoardTooLarge() {
+        ByteBuffer out = ByteBuffer.allocate(32);
+        out.putInt(SavedGame.MAGIC).put((byte) SavedGame.VERSION);
+        SavedGame.putVarint(out, 1);
+        SavedGame.putVarint(out, GameEngine.MAX_BOARD_SIZE + 1);
+        out.putInt(0);
+        assertRejected(withChecksum(Arrays.copyOf(out.array(), out.position())));
+    }
+
+    @Test
+    public void rejectsNameLongerThanTheFile() {
+        ByteBuffer out = ByteBuffer.allocate(32);
+        out.putInt(SavedGame.MAGIC).put((byte) SavedGame.VERSION);
+        SavedGame.putVarint(out, 10);
+        SavedGame.putVarint(out, 10);
+        SavedGame.putVarint(out, 0);
+        SavedGame.putVarint(out, Integer.MAX_VALUE);
+        out.putInt(0);
+        assertRejected(withChecksum(Arrays.copyOf(out.array(), out.position())));
+    }
+
+    @Test
+    public void rejectsSearchSquareOffTheBoard() {
+        GameEngine game = gameInPlay(new Random(10));
+        SavedGame offBoard = new SavedGame(game.getPlayerBoard(), game.getComputerBoard(), "",
+                game.getShipSizes(), game.getPlacements(),
+                new int[][]{{12, 3}, null, null, null}, 0);
+        assertRejected(encoded(offBoard));
+    }
+
+    @Test
+    public void rejectsShipOffTheBoard() {
+        GameEngine game = gameInPlay(new Random(12));
+        Board player = new Board(10, 10);
+        player.copyFrom(game.getPlayerBoard());
+        // the last ship runs off the right edge
+        player.shipStart[player.shipCount - 1] = 9;
+        player.shipShape[player.shipCount - 1] = 5 * 2 + 1;
+        SavedGame bad = new SavedGame(player, game.getComputerBoard(), "",
+                game.getShipSizes(), game.getPlacements(), new int[4][], -1);
+        assertRejected(encoded(bad));
+    }
+
+    // A 10x10 game with the fleet down and some shots fired each way
+    static GameEngine gameInPlay(Random random) {
+        GameEngine game = new GameEngine(random);
+        placeFleet(game);
+        for (int i = 0; i < 20 && game.getPhase() == GameEngine.Phase.PLAYER_MOVE; i++) {
+            if (game.playerFire(random.nextInt(10), random.nextInt(10)) != -1
+                    && game.getPhase() == GameEngine.Phase.PLAYER_MOVE) {
+                game.computerMove();
+            }
+        }
+        return game;
+    }
+
+    static void placeFleet(GameEngine game) {
+        Board board = game.getPlayerBoard();
+        for (int row = 0; row < board.getRows() && game.getPhase() == GameEngine.Phase.PLACEMENT; row++) {
+            for (int column = 0; column < board.getColumns()
+                    && game.getPhase() == GameEngine.Phase.PLACEMENT; column++) {
+                game.placeShip(row, column, true);
+            }
+        }
+        assertEquals(GameEngine.Phase.PLAYER_MOVE, game.getPhase());
+    }
+
+    static byte[] encoded(GameEngine game) {
+        return encoded(new SavedGame(game, "Ada"));
+    }
+
+    static byte[] encoded(SavedGame saved) {
+        ByteBuffer buffer = saved.encode();
+        return Arrays.copyOf(buffer.array(), buffer.limit());
+    }
+
+    // The bytes with their last four replaced by a checksum that matches,
+    // as a file damaged before it was written would have
+    static byte[] withChecksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 4);
+        ByteBuffer.wrap(bytes).putInt(bytes.length - 4, (int) crc.getValue());
+        return bytes;
+    }
+
+    static void assertRejected(byte[] bytes) {
+        try {
+            SavedGame.decode(ByteBuffer.wrap(bytes));
+            fail("decoded a bad save");
+        } catch (IOException expected) {
+        }
+    }
+
+    static void assertSameBoard(Board expected, Board actual) {
+        assertEquals(expected.getRows(), actual.getRows());
+        assertEquals(expected.getColumns(), actual.getColumns());
+        for (int row = 0; row < expected.getRows(); row++) {
+            for (int column = 0; column < expected.getColumns(); column++) {
+                assertEquals(expected.get(row, column), actual.get(row, column));
+            }
+        }
+        assertEquals(expected.shipCount, actual.shipCount);
+        for (int ship = 0; ship < expected.shipCount; ship++) {
+            assertEquals(expected.getShipStart(ship), actual.getShipStart(ship));
+            assertEquals(expected.getShipLength(ship), actual.getShipLength(ship));
+            assertEquals(expected.isShipHorizontal(ship), actual.isShipHorizontal(ship));
+        }
+    }
+}
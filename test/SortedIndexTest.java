@@ -0,0 +1,144 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+// StatsStore.SortedIndex against a plain sorted list, through enough adds
+// and removals to split blocks and empty them again
+public class SortedIndexTest {
+
+    final int[] values = new int[5000];
+    final StatsStore.SortedIndex index = new StatsStore.SortedIndex() {
+        @Override
+        int compare(int a, int b) {
+            int result = Integer.compare(values[b], values[a]);
+            return result != 0 ? result : Integer.compare(a, b);
+        }
+    };
+    final Comparator<Integer> order = new Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+            return index.compare(a, b);
+        }
+    };
+
+    @Test
+    public void addAndRemoveKeepTheOrder() {
+        Random random = new Random(1);
+        List<Integer> expected = new ArrayList<Integer>();
+        boolean[] present = new boolean[values.length];
+        for (int step = 0; step < 20000; step++) {
+            int slot = random.nextInt(values.length);
+            if (present[slot]) {
+                index.remove(slot);
+                expected.remove((Integer) slot);
+                // a changed value goes back in at its new place
+                values[slot] = random.nextInt(50);
+                if (random.nextBoolean()) {
+                    index.add(slot);
+                    expected.add(slot);
+                } else {
+                    present[slot] = false;
+                }
+            } else {
+                values[slot] = random.nextInt(50);
+                index.add(slot);
+                expected.add(slot);
+                present[slot] = true;
+            }
+            if (step % 2000 == 0) {
+                assertSame(expected);
+            }
+        }
+        assertSame(expected);
+
+        // down to nothing, which leaves no blocks behind
+        for (int slot = 0; slot < values.length; slot++) {
+            if (present[slot]) {
+                index.remove(slot);
+                expected.remove((Integer) slot);
+            }
+        }
+        assertEquals(0, index.size);
+        assertEquals(0, index.blockCount);
+        index.add(7);
+        assertEquals(7, index.get(0));
+    }
+
+    @Test
+    public void buildTakesSortedSlots() {
+        Random random = new Random(2);
+        for (int slot = 0; slot < values.length; slot++) {
+            values[slot] = random.nextInt(1000) - 500;
+        }
+        int[] sorted = StatsStore.sortDescending(values);
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int slot = 0; slot < values.length; slot++) {
+            expected.add(slot);
+        }
+        Collections.sort(expected, order);
+        for (int i = 0; i < values.length; i++) {
+            assertEquals((int) expected.get(i), sorted[i]);
+        }
+
+        index.build(sorted, values.length);
+        assertSame(expected);
+        // and it takes changes after
+        index.remove(sorted[0]);
+        expected.remove(0);
+        index.add(sorted[0]);
+        expected.add(0, sorted[0]);
+        assertSame(expected);
+    }
+
+    @Test
+    public void sortMatchesCollectionsSort() {
+        Random random = new Random(3);
+        int[] slots = new int[values.length];
+        for (int slot = 0; slot < values.length; slot++) {
+            values[slot] = random.nextInt(20);
+            slots[slot] = values.length - 1 - slot;
+        }
+        index.sort(slots, new int[slots.length], 0, slots.length);
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int slot = 0; slot < values.length; slot++) {
+            expected.add(slot);
+        }
+        Collections.sort(expected, order);
+        int[] wanted = new int[expected.size()];
+        for (int i = 0; i < wanted.length; i++) {
+            wanted[i] = expected.get(i);
+        }
+        assertArrayEquals(wanted, slots);
+    }
+
+    @Test
+    public void getOutOfRangeThrows() {
+        index.add(0);
+        try {
+            index.get(1);
+            fail("got past the end");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+        try {
+            index.get(-1);
+            fail("got before the start");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    void assertSame(List<Integer> expected) {
+        Collections.sort(expected, order);
+        assertEquals(expected.size(), index.size);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).intValue(), index.get(i));
+            assertEquals(i, index.rank(expected.get(i)));
+        }
+    }
+}